@@ -0,0 +1,105 @@
+package org.jenkinsci.plugins.oic;
+
+import hudson.Extension;
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.User;
+import hudson.model.listeners.SaveableListener;
+import hudson.security.SecurityRealm;
+import java.time.Clock;
+import java.util.Collections;
+import java.util.List;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Remembers for a short while the API tokens that {@link jenkins.security.ApiTokenProperty} accepted, by user and
+ * token digest, so that the requests of CI bots polling with Basic authentication are not verified again and again.
+ * The tokens of a user are forgotten whenever the user is saved, which revoking or adding an API token does.
+ * Cached verifications are not recorded in the usage statistics of the tokens.
+ */
+// API token校验结果的短时缓存，用户保存（例如吊销token）时失效
+@Restricted(NoExternalUse.class)
+public final class ApiTokenVerificationCache {
+
+    @SuppressWarnings("boxing")
+    private static final int MAX_SIZE = SystemProperties.getInteger("OIC_API_TOKEN_CACHE_SIZE", 1_000);
+
+    /** How long a verified token is trusted, {@code 0} disables the cache */
+    @SuppressWarnings("boxing")
+    private static final long TTL_SECONDS = SystemProperties.getLong("OIC_API_TOKEN_CACHE_TTL_SECONDS", 60L);
+
+    private record Key(String userId, String tokenDigest) {
+
+        List<Object> indexTerms() {
+            return Collections.singletonList(userId);
+        }
+    }
+
+    private final ExpiringCache<Key, Boolean> cache;
+    private final long ttlMillis;
+
+    ApiTokenVerificationCache() {
+        this(MAX_SIZE, TTL_SECONDS * 1000, Clock.systemUTC());
+    }
+
+    ApiTokenVerificationCache(int maxSize, long ttlMillis, Clock clock) {
+        this.cache = new ExpiringCache<>(ttlMillis > 0 ? maxSize : 0, clock, Key::indexTerms);
+        this.ttlMillis = ttlMillis;
+    }
+
+    /**
+     * @param userId the {@link User#getId() id} of the user the token was presented for
+     * @param tokenDigest the {@link JwtUtils#digest(String) digest} of the token
+     * @return {@code true} if the token was verified recently
+     */
+    boolean isVerified(String userId, String tokenDigest) {
+        return cache.isEnabled() && cache.get(new Key(userId, tokenDigest)) != null;
+    }
+
+    void verified(String userId, String tokenDigest) {
+        if (cache.isEnabled()) {
+            cache.put(new Key(userId, tokenDigest), Boolean.TRUE, cache.now() + ttlMillis);
+        }
+    }
+
+    /**
+     * Forget the tokens of the user.
+     * @return the number of tokens forgotten
+     */
+    int invalidateUser(String userId) {
+        return cache.removeAll(userId);
+    }
+
+    int size() {
+        return cache.size();
+    }
+
+    public long getHitCount() {
+        return cache.getHitCount();
+    }
+
+    public long getMissCount() {
+        return cache.getMissCount();
+    }
+
+    /**
+     * Forgets the tokens of a user when it is saved.
+     */
+    @Extension
+    @Restricted(NoExternalUse.class)
+    public static final class UserSaveListener extends SaveableListener {
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof User user) {
+                SecurityRealm securityRealm = Jenkins.get().getSecurityRealm();
+                if (securityRealm instanceof OicSecurityRealm oicSecurityRealm) {
+                    oicSecurityRealm.getApiTokenVerificationCache().invalidateUser(user.getId());
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,200 @@
+package org.jenkinsci.plugins.oic;
+
+import java.io.Closeable;
+import java.time.Clock;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Circuit breaker in front of the external authorization service.
+ * After a number of consecutive failures the circuit opens and calls fail fast instead of waiting for the service to
+ * time out. While open, the service is probed in the background and the circuit closes again as soon as it answers.
+ */
+// 外部鉴权服务异常时快速失败，避免占满jenkins的请求线程；后台定时探测服务是否恢复
+public final class AuthorizationCircuitBreaker implements Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AuthorizationCircuitBreaker.class);
+
+    /** Consecutive failures that open the circuit, {@code 0} disables the circuit breaker */
+    @SuppressWarnings("boxing")
+    private static final int FAILURE_THRESHOLD =
+            SystemProperties.getInteger("OIC_AUTHORIZATION_CIRCUIT_FAILURE_THRESHOLD", 5);
+
+    /** Delay between two probes of the service while the circuit is open */
+    @SuppressWarnings("boxing")
+    private static final long PROBE_INTERVAL_MS =
+            SystemProperties.getLong("OIC_AUTHORIZATION_CIRCUIT_PROBE_INTERVAL_MS", 10_000L);
+
+    public enum State {
+        /** calls go through */
+        CLOSED,
+        /** calls fail fast until a background probe succeeds */
+        OPEN
+    }
+
+    private final BooleanSupplier probe;
+    private final int failureThreshold;
+    private final long probeIntervalMillis;
+    private final ScheduledExecutorService scheduler;
+    private final Clock clock;
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicLong openCount = new AtomicLong();
+    private final AtomicLong rejectedCount = new AtomicLong();
+
+    private volatile State state = State.CLOSED;
+    private volatile long stateChangedAtMillis;
+    private volatile String lastFailure;
+
+    // guarded by this
+    private ScheduledFuture<?> probeTask;
+    private boolean closed;
+
+    /**
+     * @param probe checks whether the service is reachable again, must not throw
+     */
+    AuthorizationCircuitBreaker(BooleanSupplier probe) {
+        this(probe, FAILURE_THRESHOLD, PROBE_INTERVAL_MS, null, Clock.systemUTC());
+    }
+
+    /**
+     * @param scheduler runs the probes, {@code null} to use the Jenkins {@link Timer}
+     */
+    AuthorizationCircuitBreaker(
+            BooleanSupplier probe,
+            int failureThreshold,
+            long probeIntervalMillis,
+            ScheduledExecutorService scheduler,
+            Clock clock) {
+        this.probe = probe;
+        this.failureThreshold = failureThreshold;
+        this.probeIntervalMillis = probeIntervalMillis;
+        this.scheduler = scheduler;
+        this.clock = clock;
+        this.stateChangedAtMillis = clock.millis();
+    }
+
+    /**
+     * @return {@code false} if the call must fail fast because the circuit is open
+     */
+    boolean allowRequest() {
+        if (state == State.OPEN) {
+            rejectedCount.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Record that the service answered.
+     */
+    void recordSuccess() {
+        consecutiveFailures.set(0);
+    }
+
+    /**
+     * Record that the service could not be reached or failed, opening the circuit once the threshold is reached.
+     */
+    void recordFailure(Throwable cause) {
+        lastFailure = String.valueOf(cause);
+        if (failureThreshold > 0 && consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            open();
+        }
+    }
+
+    private synchronized void open() {
+        if (state == State.OPEN || closed) {
+            return;
+        }
+        state = State.OPEN;
+        stateChangedAtMillis = clock.millis();
+        openCount.incrementAndGet();
+        LOGGER.warn(
+                "Opening the circuit to the authorization service after {} consecutive failures, last failure: {}",
+                consecutiveFailures.get(),
+                lastFailure);
+        scheduleProbe();
+    }
+
+    private synchronized void scheduleProbe() {
+        ScheduledExecutorService executor = scheduler != null ? scheduler : Timer.get();
+        probeTask = executor.schedule(this::probe, probeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Check whether the service is back, closing the circuit if it is and scheduling the next probe otherwise.
+     */
+    void probe() {
+        boolean reachable = probe.getAsBoolean();
+        synchronized (this) {
+            if (closed || state != State.OPEN) {
+                return;
+            }
+            if (reachable) {
+                consecutiveFailures.set(0);
+                state = State.CLOSED;
+                stateChangedAtMillis = clock.millis();
+                probeTask = null;
+                LOGGER.info("The authorization service is reachable again, closing the circuit");
+            } else {
+                LOGGER.debug("The authorization service is still unreachable");
+                scheduleProbe();
+            }
+        }
+    }
+
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * @return when the circuit last opened or closed, in milliseconds since the epoch
+     */
+    public long getStateChangedAtMillis() {
+        return stateChangedAtMillis;
+    }
+
+    public String getLastFailure() {
+        return lastFailure;
+    }
+
+    /**
+     * @return how many times the circuit has opened
+     */
+    public long getOpenCount() {
+        return openCount.get();
+    }
+
+    /**
+     * @return how many calls failed fast because the circuit was open
+     */
+    public long getRejectedCount() {
+        return rejectedCount.get();
+    }
+
+    /**
+     * Stop probing, the breaker of a replaced client must not keep probing a closed connection pool.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        if (probeTask != null) {
+            probeTask.cancel(false);
+            probeTask = null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AuthorizationCircuitBreaker{" + "state=" + state + ", opened=" + getOpenCount() + ", rejected="
+                + getRejectedCount() + '}';
+    }
+}
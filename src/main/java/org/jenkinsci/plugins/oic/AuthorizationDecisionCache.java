@@ -0,0 +1,348 @@
+package org.jenkinsci.plugins.oic;
+
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import jenkins.util.SystemProperties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Caches the decisions of the external authorization service, keyed by (token, workspace, permission).
+ * Allow decisions and denials are kept apart: denials only for a few seconds and in a cache of their own, so that a
+ * client retrying a denied request can not evict the allow decisions of everybody else.
+ * An entry never outlives the {@code exp} of the token it was granted for, and the entries of a workspace, a subject
+ * or both can be invalidated when their permissions change in DCE, see {@link AuthorizationInvalidationAction}.
+ */
+// 缓存外部鉴权服务的结果，避免 Blue Ocean 一个页面触发几十次相同的远程鉴权调用
+public class AuthorizationDecisionCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AuthorizationDecisionCache.class);
+
+    @SuppressWarnings("boxing")
+    private static final int MAX_SIZE = SystemProperties.getInteger("OIC_AUTHORIZATION_CACHE_SIZE", 10_000);
+
+    @SuppressWarnings("boxing")
+    private static final long TTL_SECONDS = SystemProperties.getLong("OIC_AUTHORIZATION_CACHE_TTL_SECONDS", 60L);
+
+    /**
+     * How long past its ttl an allow decision may still be used while the authorization service is unavailable,
+     * {@code 0} disables the fallback.
+     */
+    @SuppressWarnings("boxing")
+    private static final long STALE_GRACE_SECONDS =
+            SystemProperties.getLong("OIC_AUTHORIZATION_CACHE_STALE_GRACE_SECONDS", 0L);
+
+    @SuppressWarnings("boxing")
+    private static final int NEGATIVE_MAX_SIZE =
+            SystemProperties.getInteger("OIC_AUTHORIZATION_NEGATIVE_CACHE_SIZE", 1_000);
+
+    /** How long a denial is answered locally, {@code 0} disables the negative cache */
+    @SuppressWarnings("boxing")
+    private static final long NEGATIVE_TTL_SECONDS =
+            SystemProperties.getLong("OIC_AUTHORIZATION_NEGATIVE_CACHE_TTL_SECONDS", 5L);
+
+    private final ExpiringCache<Key, Boolean> cache;
+    /** permissions granted on a workspace, keyed by a {@link Key#forWorkspace() workspace key} */
+    private final ExpiringCache<Key, Set<String>> permissionSets;
+    /** HTTP status of the denials, keyed by a check key or by a {@link Key#forToken() token key} */
+    private final ExpiringCache<Key, Integer> denials;
+    private final long ttlMillis;
+    private final long staleGraceMillis;
+    private final long negativeTtlMillis;
+
+    public AuthorizationDecisionCache() {
+        this(
+                MAX_SIZE,
+                TTL_SECONDS * 1000,
+                STALE_GRACE_SECONDS * 1000,
+                NEGATIVE_MAX_SIZE,
+                NEGATIVE_TTL_SECONDS * 1000,
+                Clock.systemUTC());
+    }
+
+    AuthorizationDecisionCache(int maxSize, long ttlMillis, Clock clock) {
+        this(maxSize, ttlMillis, 0, clock);
+    }
+
+    AuthorizationDecisionCache(int maxSize, long ttlMillis, long staleGraceMillis, Clock clock) {
+        this(maxSize, ttlMillis, staleGraceMillis, NEGATIVE_MAX_SIZE, NEGATIVE_TTL_SECONDS * 1000, clock);
+    }
+
+    AuthorizationDecisionCache(
+            int maxSize,
+            long ttlMillis,
+            long staleGraceMillis,
+            int negativeMaxSize,
+            long negativeTtlMillis,
+            Clock clock) {
+        this.cache = new ExpiringCache<>(maxSize, clock, Key::indexTerms);
+        this.permissionSets = new ExpiringCache<>(maxSize, clock, Key::indexTerms);
+        this.denials = new ExpiringCache<>(negativeTtlMillis > 0 ? negativeMaxSize : 0, clock, Key::indexTerms);
+        this.ttlMillis = ttlMillis;
+        this.staleGraceMillis = Math.max(0, staleGraceMillis);
+        this.negativeTtlMillis = negativeTtlMillis;
+    }
+
+    /**
+     * @return {@code true} if the service has recently allowed the request described by the key.
+     */
+    public boolean isAllowed(Key key) {
+        return Boolean.TRUE.equals(cache.get(key));
+    }
+
+    /**
+     * Fallback for when the authorization service is unavailable.
+     * @return {@code true} if the service allowed the request described by the key within the ttl plus the stale
+     *     grace window.
+     */
+    public boolean wasAllowedWithinGrace(Key key) {
+        return Boolean.TRUE.equals(cache.getStale(key));
+    }
+
+    /**
+     * Remember that the service allowed the request described by the key.
+     * @param tokenExpiration the {@code exp} of the token, the entry will not be kept past it.
+     */
+    public void allow(Key key, Date tokenExpiration) {
+        if (tokenExpiration == null) {
+            // without an expiry we can not guarantee the decision is not used for a dead token
+            return;
+        }
+        long now = cache.now();
+        // 过期后的宽限期同样不能超过token本身的有效期
+        cache.put(
+                key,
+                Boolean.TRUE,
+                Math.min(now + ttlMillis, tokenExpiration.getTime()),
+                Math.min(now + ttlMillis + staleGraceMillis, tokenExpiration.getTime()));
+        LOGGER.debug("Cached authorization decision for workspace: {}, permission: {}", key.folderPath, key.permission);
+    }
+
+    /**
+     * @return the HTTP status ({@code 401} or {@code 403}) the request described by the key was recently refused
+     *     with, for this check, its workspace or the token as a whole, or {@code null} if it was not.
+     */
+    public Integer getDenial(Key key) {
+        if (!denials.isEnabled()) {
+            return null;
+        }
+        Integer status = denials.get(key);
+        if (status == null && key.permission != null) {
+            status = denials.get(key.forWorkspace());
+        }
+        return status != null ? status : denials.get(key.forToken());
+    }
+
+    /**
+     * Remember for a short while that the service refused the request described by the key.
+     * @param status {@code 403} when the permission was denied, {@code 401} when the token itself was rejected, in
+     *     which case every check of the token is refused.
+     * @param tokenExpiration the {@code exp} of the token, the entry will not be kept past it.
+     */
+    public void deny(Key key, int status, Date tokenExpiration) {
+        if (tokenExpiration == null) {
+            return;
+        }
+        Key deniedKey = status == 401 ? key.forToken() : key;
+        denials.put(deniedKey, status, Math.min(denials.now() + negativeTtlMillis, tokenExpiration.getTime()));
+        LOGGER.debug(
+                "Cached denial {} for workspace: {}, permission: {}", status, deniedKey.folderPath, deniedKey.permission);
+    }
+
+    /**
+     * @return the permissions the service granted on the workspace of the key, or {@code null} if not known.
+     */
+    public Set<String> getPermissionSet(Key workspaceKey) {
+        return permissionSets.get(workspaceKey);
+    }
+
+    /**
+     * Fallback for when the authorization service is unavailable, see {@link #wasAllowedWithinGrace(Key)}.
+     * @return the permissions the service granted on the workspace of the key within the ttl plus the stale grace
+     *     window, or {@code null} if not known.
+     */
+    public Set<String> getPermissionSetWithinGrace(Key workspaceKey) {
+        return permissionSets.getStale(workspaceKey);
+    }
+
+    /**
+     * Remember the complete set of permissions the service granted on the workspace of the key.
+     * @param tokenExpiration the {@code exp} of the token, the entry will not be kept past it.
+     */
+    public void putPermissionSet(Key workspaceKey, Set<String> grantedPermissions, Date tokenExpiration) {
+        if (tokenExpiration == null) {
+            return;
+        }
+        long now = permissionSets.now();
+        permissionSets.put(
+                workspaceKey,
+                Set.copyOf(grantedPermissions),
+                Math.min(now + ttlMillis, tokenExpiration.getTime()),
+                Math.min(now + ttlMillis + staleGraceMillis, tokenExpiration.getTime()));
+        LOGGER.debug("Cached permissions for workspace: {}, permissions: {}", workspaceKey.folderPath, grantedPermissions);
+    }
+
+    /**
+     * Forget every decision taken on the workspace.
+     * @return the number of entries removed
+     */
+    public int invalidateWorkspace(String folderPath) {
+        return invalidate(List.of(Key.WORKSPACE_TERM, folderPath));
+    }
+
+    /**
+     * Forget every decision taken for the tokens of the subject.
+     * @return the number of entries removed
+     */
+    public int invalidateSubject(String subject) {
+        return invalidate(List.of(Key.SUBJECT_TERM, subject));
+    }
+
+    /**
+     * Forget every decision taken for the tokens of the subject on the workspace.
+     * @return the number of entries removed
+     */
+    public int invalidate(String subject, String folderPath) {
+        return invalidate(List.of(Key.SUBJECT_WORKSPACE_TERM, subject, folderPath));
+    }
+
+    private int invalidate(Object term) {
+        int removed = cache.removeAll(term) + permissionSets.removeAll(term) + denials.removeAll(term);
+        LOGGER.debug("Invalidated {} cached authorization decisions for {}", removed, term);
+        return removed;
+    }
+
+    public void invalidateAll() {
+        cache.clear();
+        permissionSets.clear();
+        denials.clear();
+    }
+
+    public int size() {
+        return cache.size() + permissionSets.size();
+    }
+
+    /**
+     * @return the number of denials currently cached, not included in {@link #size()}
+     */
+    public int getDenialCount() {
+        return denials.size();
+    }
+
+    /**
+     * @return the number of requests refused locally because the service had just denied them
+     */
+    public long getDenialHitCount() {
+        return denials.getHitCount();
+    }
+
+    public long getHitCount() {
+        return cache.getHitCount() + permissionSets.getHitCount();
+    }
+
+    public long getMissCount() {
+        return cache.getMissCount() + permissionSets.getMissCount();
+    }
+
+    public long getEvictionCount() {
+        return cache.getEvictionCount() + permissionSets.getEvictionCount();
+    }
+
+    /**
+     * @return the number of times a decision past its ttl was used because the service was unavailable
+     */
+    public long getStaleHitCount() {
+        return cache.getStaleHitCount() + permissionSets.getStaleHitCount();
+    }
+
+    @Override
+    public String toString() {
+        return "AuthorizationDecisionCache{" + "size=" + size() + ", hits=" + getHitCount() + ", misses="
+                + getMissCount() + ", evictions=" + getEvictionCount() + ", staleHits=" + getStaleHitCount() + ", denials="
+                + getDenialCount() + ", denialHits=" + getDenialHitCount() + '}';
+    }
+
+    /**
+     * Identifies an authorization check. The token is only held as a digest, the subject of the token is carried
+     * along for invalidation but does not take part in the identity of the key.
+     */
+    public static final class Key {
+        private static final String WORKSPACE_TERM = "workspace";
+        private static final String SUBJECT_TERM = "subject";
+        private static final String SUBJECT_WORKSPACE_TERM = "subject-workspace";
+
+        private final String tokenDigest;
+        private final String subject;
+        private final String folderPath;
+        private final String permission;
+
+        Key(String tokenDigest, String folderPath, String permission) {
+            this(tokenDigest, null, folderPath, permission);
+        }
+
+        Key(String tokenDigest, String subject, String folderPath, String permission) {
+            this.tokenDigest = tokenDigest;
+            this.subject = subject;
+            this.folderPath = folderPath;
+            this.permission = permission;
+        }
+
+        public static Key of(JwtUtils.JwtTokenInfo tokenInfo, String folderPath, String permission) {
+            return new Key(tokenInfo.getDigest(), tokenInfo.getSubject(), folderPath, permission);
+        }
+
+        /**
+         * @return the key identifying every permission of this token on this workspace
+         */
+        public Key forWorkspace() {
+            return new Key(tokenDigest, subject, folderPath, null);
+        }
+
+        /**
+         * @return the key identifying every check of this token
+         */
+        public Key forToken() {
+            return new Key(tokenDigest, subject, null, null);
+        }
+
+        /**
+         * @return the terms under which the caches index this key
+         */
+        private List<Object> indexTerms() {
+            List<Object> terms = new ArrayList<>(3);
+            if (folderPath != null) {
+                terms.add(List.of(WORKSPACE_TERM, folderPath));
+            }
+            if (subject != null) {
+                terms.add(List.of(SUBJECT_TERM, subject));
+                if (folderPath != null) {
+                    terms.add(List.of(SUBJECT_WORKSPACE_TERM, subject, folderPath));
+                }
+            }
+            return terms;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return tokenDigest.equals(other.tokenDigest)
+                    && Objects.equals(folderPath, other.folderPath)
+                    && Objects.equals(permission, other.permission);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(tokenDigest, folderPath, permission);
+        }
+    }
+}
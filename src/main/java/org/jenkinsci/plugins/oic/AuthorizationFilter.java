@@ -1,15 +1,23 @@
 package org.jenkinsci.plugins.oic;
 
+import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
 import hudson.security.SecurityRealm;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
-import org.springframework.security.core.Authentication;
 import hudson.model.User;
 
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.AsyncEvent;
+import jakarta.servlet.AsyncListener;
+import jakarta.servlet.DispatcherType;
 import jakarta.servlet.Filter;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
@@ -21,11 +29,90 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class AuthorizationFilter implements Filter {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AuthorizationFilter.class);
 
+    /**
+     * Identical checks that arrive while one is already in progress share its outcome.
+     */
+    private final SingleFlight<AuthorizationDecisionCache.Key, AuthorizationServiceClient.AuthorizationResponse>
+            inFlightChecks = new SingleFlight<>();
+
+    private final SingleFlight<AuthorizationDecisionCache.Key, Set<String>> inFlightPermissionSets =
+            new SingleFlight<>();
+
+    /**
+     * Fetch every pipeline permission of a workspace in a single call and answer the following checks on that
+     * workspace from the cache.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "tunable at runtime from the script console")
+    static boolean prefetchWorkspacePermissions = SystemProperties.getBoolean(
+            AuthorizationFilter.class.getName() + ".prefetchWorkspacePermissions", false);
+
+    /**
+     * Release the container thread while the external authorization service is called, instead of blocking it for
+     * the whole round trip. An allowed request goes on through the rest of the chain on the thread of the check,
+     * inside the async context, rather than being dispatched again: containers do not run the Jenkins filters on
+     * async dispatches. Requests upgrading the connection, such as websockets, are still checked on the container
+     * thread, since they can not be upgraded from an async context.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "tunable at runtime from the script console")
+    static volatile boolean asyncAuthorization =
+            SystemProperties.getBoolean(AuthorizationFilter.class.getName() + ".async", false);
+
+    /**
+     * Verify the signature of DCE tokens against the keys of the provider before calling the authorization service.
+     * Tokens are still accepted when the keys can not be fetched.
+     */
+    @SuppressFBWarnings(value = "MS_SHOULD_BE_FINAL", justification = "tunable at runtime from the script console")
+    static boolean verifyTokenSignature =
+            SystemProperties.getBoolean(AuthorizationFilter.class.getName() + ".verifyTokenSignature", true);
+
+    /** Deadline for an asynchronous check, the request is answered with 503 past it */
+    @SuppressWarnings("boxing")
+    private static final long ASYNC_TIMEOUT_MS = SystemProperties.getLong("OIC_AUTHORIZATION_ASYNC_TIMEOUT_MS", 10_000L);
+
+    /** Threads running asynchronous checks when the JVM has no virtual threads */
+    @SuppressWarnings("boxing")
+    private static final int ASYNC_THREADS = SystemProperties.getInteger("OIC_AUTHORIZATION_ASYNC_THREADS", 64);
+
+    /** Checks waiting for one of the {@link #ASYNC_THREADS}, requests past it are answered with 503 */
+    @SuppressWarnings("boxing")
+    private static final int ASYNC_QUEUE_SIZE =
+            SystemProperties.getInteger("OIC_AUTHORIZATION_ASYNC_QUEUE_SIZE", 256);
+
+    private static final ExecutorService ASYNC_EXECUTOR = createAsyncExecutor();
+
+    private final ExecutorService asyncExecutor;
+    private final long asyncTimeoutMillis;
+
+    public AuthorizationFilter() {
+        this(null, ASYNC_TIMEOUT_MS);
+    }
+
+    /**
+     * @param asyncExecutor runs the asynchronous checks, {@code null} to use the shared executor
+     * @param asyncTimeoutMillis deadline of an asynchronous check
+     */
+    AuthorizationFilter(ExecutorService asyncExecutor, long asyncTimeoutMillis) {
+        this.asyncExecutor = asyncExecutor != null ? asyncExecutor : ASYNC_EXECUTOR;
+        this.asyncTimeoutMillis = asyncTimeoutMillis;
+    }
+
     @Override
     public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
         throws IOException, ServletException {
@@ -36,33 +123,40 @@ public class AuthorizationFilter implements Filter {
         }
 
         SecurityRealm securityRealm = Jenkins.get().getSecurityRealm();
-        if (!(securityRealm instanceof OicSecurityRealm)) {
+        if (!(securityRealm instanceof OicSecurityRealm oicSecurityRealm)) {
             chain.doFilter(request, response);
             return;
         }
 
         try {
-            if (!shouldAuthorization(httpRequest)) {
+            OicRequestContext context = OicRequestContext.of(httpRequest);
+            AuthorizationRoute route = context.getRoute();
+            String credentialsToken = null;
+            if (route.isAuthorizationRequired() && !route.isFromDce()) {
+                // 只有路径需要鉴权时才去读取OIDC登录用户保存的token
+                credentialsToken = getTokenFromUserCredentials(context);
+            }
+            if (!shouldAuthorization(route, credentialsToken)) {
                 LOGGER.debug("Skipping authorization for request: {}", httpRequest.getRequestURI());
                 chain.doFilter(request, response);
                 return;
             }
 
             // 只针对workspace下的资源进行鉴权
-            UrlPathUtils.FolderInfo folderInfo = UrlPathUtils.extractFolderInfo(httpRequest);
-            if (StringUtils.isBlank(folderInfo.getFolderPath())) {
+            String folderPath = route.getWorkspace();
+            if (StringUtils.isBlank(folderPath)) {
                 LOGGER.warn("Could not extract folder info from request: {}, skipping authorization check", httpRequest.getRequestURI());
                 chain.doFilter(request, response);
                 return;
             }
 
-            String permission = folderInfo.getPermission();
+            String permission = route.getPermission();
 
             // 这里分为两种请求，纯DCE API调用和OIDC登录的用户访问
             String token = httpRequest.getHeader("Authorization");
             if (StringUtils.isBlank(token)) {
                // OIDC 登录的用户
-                token = getTokenFromUserCredentials();
+                token = credentialsToken;
             }
 
             if (StringUtils.isBlank(token)) {
@@ -96,113 +190,394 @@ public class AuthorizationFilter implements Filter {
                 httpResponse.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Expired JWT token");
                 return;
             }
+            // 伪造的token在本地就拒绝掉，不再请求外部鉴权服务
+            if (verifyTokenSignature && !isSignatureValid(oicSecurityRealm, tokenInfo)) {
+                LOGGER.warn("Invalid signature of JWT token for request: {}", httpRequest.getRequestURI());
+                httpResponse.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Invalid JWT token");
+                return;
+            }
             LOGGER.info("Checking authorization for user: {}, path: {}, method: {}, permission: {}",
-                    tokenInfo.getSubject(), httpRequest.getRequestURI(), folderInfo.getHttpMethod(), permission);
-
-          // Check with external auth service
-          AuthorizationServiceClient client = new AuthorizationServiceClient(getAuthServiceUrl());
-          AuthorizationServiceClient.AuthorizationResponse authResponse = client.checkAuthorization(token, folderInfo.getFolderPath(), permission);
-          LOGGER.debug("Authorization response: {}", authResponse);
-
-          if (authResponse.isAuthorized()) {
-              // 必须设置用户已经被认证过， 否则其实用户是没有登录的状态，后续的filter会认为用户没有登录
-              // TODO： 这里不太确定是不是会把所有请求的用户都给设置成同一个。也需要参考 sessionStore.renewSession
-              setUserAuthenticationFromJwt(tokenInfo);
-
-              chain.doFilter(request, response);
-          } else {
-              LOGGER.warn("Authorization denied for user: {}, path: {}, permission: {}", 
-                  tokenInfo.getSubject(), httpRequest.getRequestURI(), permission);
-              httpResponse.sendError(HttpServletResponse.SC_FORBIDDEN, "Access denied" );
-          }
-
-        } catch (AuthorizationServiceClient.AuthorizationException e) {
+                    tokenInfo.getSubject(), httpRequest.getRequestURI(), route.getMethod(), permission);
+
+            // 同一个token对同一个ws的同一个权限，在缓存有效期内直接放行，不再请求外部鉴权服务
+            AuthorizationDecisionCache.Key cacheKey =
+                    AuthorizationDecisionCache.Key.of(tokenInfo, folderPath, permission);
+            AuthorizationDecisionCache decisionCache = oicSecurityRealm.getAuthorizationDecisionCache();
+            if (decisionCache.isAllowed(cacheKey)) {
+                LOGGER.debug("Authorization cache hit for user: {}, path: {}, permission: {}",
+                        tokenInfo.getSubject(), httpRequest.getRequestURI(), permission);
+                applyDecision(true, tokenInfo, permission, httpRequest, httpResponse, chain);
+                return;
+            }
+            // 刚被拒绝过的请求直接在本地拒绝，避免重试风暴打到外部鉴权服务
+            Integer deniedStatus = decisionCache.getDenial(cacheKey);
+            if (deniedStatus != null) {
+                LOGGER.debug("Authorization denial cache hit for user: {}, path: {}, permission: {}",
+                        tokenInfo.getSubject(), httpRequest.getRequestURI(), permission);
+                if (deniedStatus == HttpServletResponse.SC_UNAUTHORIZED) {
+                    httpResponse.sendError(HttpServletResponse.SC_UNAUTHORIZED, "Unauthorized");
+                } else {
+                    applyDecision(false, tokenInfo, permission, httpRequest, httpResponse, chain);
+                }
+                return;
+            }
+
+            // 别处发起的ASYNC dispatch和websocket等升级连接的请求都同步鉴权
+            if (asyncAuthorization
+                    && httpRequest.isAsyncSupported()
+                    && httpRequest.getDispatcherType() != DispatcherType.ASYNC
+                    && httpRequest.getHeader("Upgrade") == null) {
+                // 远程鉴权期间释放容器线程，放行后在鉴权线程上继续执行后面的filter
+                authorizeAsync(oicSecurityRealm, cacheKey, tokenInfo, token, folderPath, permission,
+                        httpRequest, httpResponse, chain);
+                return;
+            }
+
+            boolean allowed = isAuthorized(oicSecurityRealm, cacheKey, tokenInfo, token, folderPath, permission);
+            applyDecision(allowed, tokenInfo, permission, httpRequest, httpResponse, chain);
+
+        } catch (Exception e) {
+            sendAuthorizationError(httpRequest, httpResponse, e);
+        }
+    }
+
+    /**
+     * Let the request through, or answer 403, according to the decision.
+     */
+    private void applyDecision(
+            boolean allowed,
+            JwtUtils.JwtTokenInfo tokenInfo,
+            String permission,
+            HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse,
+            FilterChain chain)
+            throws IOException, ServletException {
+        if (allowed) {
+            // 必须设置用户已经被认证过， 否则其实用户是没有登录的状态，后续的filter会认为用户没有登录
+            // TODO： 这里不太确定是不是会把所有请求的用户都给设置成同一个。也需要参考 sessionStore.renewSession
+            setUserAuthenticationFromJwt(tokenInfo);
+
+            chain.doFilter(httpRequest, httpResponse);
+        } else {
+            sendDenied(tokenInfo, permission, httpRequest, httpResponse);
+        }
+    }
+
+    private void sendDenied(
+            JwtUtils.JwtTokenInfo tokenInfo,
+            String permission,
+            HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse)
+            throws IOException {
+        LOGGER.warn("Authorization denied for user: {}, path: {}, permission: {}",
+            tokenInfo.getSubject(), httpRequest.getRequestURI(), permission);
+        httpResponse.sendError(HttpServletResponse.SC_FORBIDDEN, "Access denied" );
+    }
+
+    private void sendAuthorizationError(HttpServletRequest httpRequest, HttpServletResponse httpResponse, Exception e)
+            throws IOException {
+        if (e instanceof AuthorizationServiceClient.AuthorizationRejectedException rejected) {
+            LOGGER.warn("Authorization service rejected the token for request: {}: {}", httpRequest.getRequestURI(), e.getMessage());
+            httpResponse.sendError(rejected.getStatusCode(),
+                rejected.getStatusCode() == HttpServletResponse.SC_UNAUTHORIZED ? "Unauthorized" : "Access denied");
+        } else if (e instanceof AuthorizationServiceClient.AuthorizationServiceUnavailableException) {
+            LOGGER.error("Authorization service unavailable for request: {}: {}", httpRequest.getRequestURI(), e.getMessage());
+            httpResponse.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE,
+                "Authorization service unavailable");
+        } else if (e instanceof AuthorizationServiceClient.AuthorizationException) {
             LOGGER.error("Authorization service error for request: {}", httpRequest.getRequestURI(), e);
             httpResponse.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
                 "Authorization service error: " + e.getMessage());
-        } catch (Exception e) {
+        } else {
             LOGGER.error("Unexpected error during authorization for request: {}", httpRequest.getRequestURI(), e);
             httpResponse.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR,
                 "Internal server error during authorization");
         }
     }
 
-  
-    private boolean shouldAuthorization(HttpServletRequest request) {
-        // 哪几种情况需要鉴权
-        // job 相关api (包括blue ocean的)， 需要匹配正则，可以匹配出ws的
-        // http 方法是 POST/PUT/DELETE 的api
-        // header中需要有token的并且来源是DCE，避免与原本的jenkins token冲突
-        // 已经通过OIDC登录的用户，访问pipeline相关的也需要鉴权
-
-        String requestUri = request.getRequestURI();
-        String contextPath = request.getContextPath();
-        LOGGER.debug("Checking if authorization should be skipped for: {} (context: {})", requestUri, contextPath);
+    /**
+     * Check with the external authorization service on the {@link #asyncExecutor}, releasing the container thread
+     * meanwhile. An allowed request goes on through the rest of the chain on that thread, inside the async context.
+     * A denied request, one without a decision after {@link #asyncTimeoutMillis}, or one that the executor can not
+     * take, is answered there. The request is completed in every case.
+     */
+    private void authorizeAsync(
+            OicSecurityRealm realm,
+            AuthorizationDecisionCache.Key cacheKey,
+            JwtUtils.JwtTokenInfo tokenInfo,
+            String token,
+            String folderPath,
+            String permission,
+            HttpServletRequest httpRequest,
+            HttpServletResponse httpResponse,
+            FilterChain chain) {
+        AsyncContext asyncContext = httpRequest.startAsync(httpRequest, httpResponse);
+        // 放行的请求可能要执行很久（比如日志输出），不用容器的超时，鉴权的超时由下面的deadline处理
+        asyncContext.setTimeout(0);
+        AtomicBoolean decided = new AtomicBoolean();
+        AtomicReference<Future<?>> check = new AtomicReference<>();
+        asyncContext.addListener(new AsyncListener() {
+            @Override
+            public void onTimeout(AsyncEvent event) {}
+
+            @Override
+            public void onComplete(AsyncEvent event) {}
+
+            @Override
+            public void onError(AsyncEvent event) {
+                decided.set(true);
+                Future<?> pending = check.get();
+                if (pending != null) {
+                    pending.cancel(true);
+                }
+            }
 
-  
-        String requestMethod = request.getMethod().toLowerCase();
-        LOGGER.debug("Request method: {}", requestMethod);
-        boolean methodMatch = requestMethod.equals("post") || requestMethod.equals("put") || requestMethod.equals("delete") || requestMethod.equals("get");
-        if (!methodMatch) {
-            LOGGER.debug("Skipping authorization - request method does not require authorization: {}", requestMethod);
-            return false;
+            @Override
+            public void onStartAsync(AsyncEvent event) {}
+        });
+        ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+        try {
+            check.set(asyncExecutor.submit(() -> {
+                boolean allowed;
+                Exception failure = null;
+                try {
+                    allowed = isAuthorized(realm, cacheKey, tokenInfo, token, folderPath, permission);
+                } catch (Exception e) {
+                    allowed = false;
+                    failure = e;
+                }
+                if (!decided.compareAndSet(false, true)) {
+                    return;
+                }
+                if (allowed) {
+                    resumeAsync(asyncContext, tokenInfo, chain, contextClassLoader);
+                } else {
+                    completeAsync(asyncContext, tokenInfo, permission, failure);
+                }
+            }));
+        } catch (RejectedExecutionException e) {
+            decided.set(true);
+            completeAsync(asyncContext, tokenInfo, permission,
+                    new AuthorizationServiceClient.AuthorizationServiceUnavailableException(
+                            "Too many authorization checks in progress"));
+            return;
         }
+        Timer.get().schedule(() -> {
+            if (decided.compareAndSet(false, true)) {
+                check.get().cancel(true);
+                completeAsync(asyncContext, tokenInfo, permission,
+                        new AuthorizationServiceClient.AuthorizationServiceUnavailableException(
+                                "No authorization decision within " + asyncTimeoutMillis + "ms"));
+            }
+        }, asyncTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
 
-        // 可以匹配出 ws的, 并且是Job相关的路径才需要授权
-        // 匹配 job 相关的路径（包括嵌套的 job 结构）
-        java.util.regex.Pattern jobPattern = java.util.regex.Pattern.compile("^/job/([^/]+)(?:/job/([^/]+))*");
+    /**
+     * Let a request allowed by {@link #authorizeAsync} through the rest of the chain, on the current thread, and
+     * complete it.
+     */
+    private void resumeAsync(
+            AsyncContext asyncContext,
+            JwtUtils.JwtTokenInfo tokenInfo,
+            FilterChain chain,
+            ClassLoader contextClassLoader) {
+        HttpServletRequest httpRequest = (HttpServletRequest) asyncContext.getRequest();
+        HttpServletResponse httpResponse = (HttpServletResponse) asyncContext.getResponse();
+        Thread thread = Thread.currentThread();
+        ClassLoader previousClassLoader = thread.getContextClassLoader();
+        thread.setContextClassLoader(contextClassLoader);
+        try {
+            setUserAuthenticationFromJwt(tokenInfo);
+            chain.doFilter(httpRequest, httpResponse);
+        } catch (Exception e) {
+            LOGGER.error("Failed to process request: {}", httpRequest.getRequestURI(), e);
+            if (!httpResponse.isCommitted()) {
+                try {
+                    httpResponse.sendError(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+                } catch (IOException ioException) {
+                    LOGGER.debug("Could not answer request: {}", httpRequest.getRequestURI(), ioException);
+                }
+            }
+        } finally {
+            // 鉴权线程会被复用，不能留下这个请求的用户
+            SecurityContextHolder.clearContext();
+            thread.setContextClassLoader(previousClassLoader);
+            asyncContext.complete();
+        }
+    }
 
-        // 匹配 blue ocean pipeline 相关的路径（包括嵌套的 pipeline 结构）
-        java.util.regex.Pattern pipelinePattern = java.util.regex.Pattern.compile("^/blue/rest/organizations/jenkins/pipelines/([^/]+)(?:/pipelines/([^/]+))*");
+    /**
+     * Answer a request suspended by {@link #authorizeAsync} that is not let through, and complete it.
+     * @param failure why there is no decision, {@code null} if the request was denied
+     */
+    private void completeAsync(
+            AsyncContext asyncContext, JwtUtils.JwtTokenInfo tokenInfo, String permission, Exception failure) {
+        HttpServletRequest httpRequest = (HttpServletRequest) asyncContext.getRequest();
+        HttpServletResponse httpResponse = (HttpServletResponse) asyncContext.getResponse();
+        try {
+            if (failure != null) {
+                sendAuthorizationError(httpRequest, httpResponse, failure);
+            } else {
+                sendDenied(tokenInfo, permission, httpRequest, httpResponse);
+            }
+        } catch (IOException e) {
+            LOGGER.debug("Could not answer request: {}", httpRequest.getRequestURI(), e);
+        } finally {
+            asyncContext.complete();
+        }
+    }
 
-        // Remove context path if present
-        if (StringUtils.isNotBlank(contextPath) && requestUri.startsWith(contextPath)) {
-            requestUri = requestUri.substring(contextPath.length());
-            LOGGER.debug("Request URI after removing context: {}", requestUri);
+    private static ExecutorService createAsyncExecutor() {
+        try {
+            // 运行在 Java 21+ 时使用虚拟线程
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            // 队列有上限，鉴权服务变慢时多出来的请求直接返回503，而不是挂起到超时
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(
+                    ASYNC_THREADS,
+                    ASYNC_THREADS,
+                    60,
+                    TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<>(ASYNC_QUEUE_SIZE),
+                    new NamingThreadFactory(new DaemonThreadFactory(), "OIC authorization"));
+            executor.allowCoreThreadTimeOut(true);
+            return executor;
         }
+    }
 
-        boolean pathMatch = jobPattern.matcher(requestUri).find() || pipelinePattern.matcher(requestUri).find();
-        if (!pathMatch) {
-            LOGGER.debug("Skipping authorization - request path does not require authorization: {}", requestUri);
+    private boolean shouldAuthorization(AuthorizationRoute route, String credentialsToken) {
+        // 哪几种情况需要鉴权
+        // job 相关api (包括blue ocean的)， 需要匹配正则，可以匹配出ws的
+        // http 方法是 POST/PUT/DELETE 的api
+        // header中需要有token的并且来源是DCE，避免与原本的jenkins token冲突
+        // 已经通过OIDC登录的用户，访问pipeline相关的也需要鉴权
+        if (!route.isAuthorizationRequired()) {
+            LOGGER.debug("Skipping authorization - request does not require authorization: {}", route);
             return false;
         }
 
         // 处理OIDC已经登录的用户, 这里是不是可能设置成把用户给覆盖了？？？
-        String tokenFromUserCredentials = getTokenFromUserCredentials();
-        if (StringUtils.isNotBlank(tokenFromUserCredentials)) {
+        if (StringUtils.isNotBlank(credentialsToken)) {
             // 同时还需要通过外部接口的鉴权，目前认为用户拥有所有权限。
             // 其实这里如果用的admin账户，一直都是true的。
             return true;
         }
 
-
-        String authorization = request.getHeader("Authorization");
-        if (StringUtils.isBlank(authorization)) {
-            LOGGER.debug("Skipping authorization - no Authorization header found");
-            return false;
-        }
-
-        // 为了处理jenkins原生的token，因为header头都是一样的，这里要求必须是DCE来源的请求才进行鉴权
-        String from = request.getHeader(OicConstants.CUSTOM_SOURCE_HEADER);
-        if (StringUtils.isBlank(from) || !from.equals(OicConstants.CUSTOM_SOURCE_HEADER_VALUE)) {
+        if (!route.isFromDce()) {
             LOGGER.debug("Skipping authorization - request not from DCE");
             return false;
         }
 
-        LOGGER.debug("Authorization check required for: {}", requestUri);
+        LOGGER.debug("Authorization check required for: {}", route.getPath());
         return true;
     }
 
-    private String getAuthServiceUrl() {
+    /**
+     * @return {@code false} only if the token is known not to be signed by the provider, a token that can not be
+     *     verified because the keys of the provider are unavailable is let through to the authorization service
+     */
+    private static boolean isSignatureValid(OicSecurityRealm realm, JwtUtils.JwtTokenInfo tokenInfo) {
+        JwksTokenVerifier verifier = realm.getTokenVerifier();
+        if (verifier == null) {
+            return true;
+        }
+        JwksTokenVerifier.Result result = verifier.verify(tokenInfo);
+        if (result == JwksTokenVerifier.Result.UNVERIFIABLE) {
+            LOGGER.debug("Could not verify the signature of the token of user: {}", tokenInfo.getSubject());
+        }
+        return result != JwksTokenVerifier.Result.INVALID;
+    }
+
+    /**
+     * Decide whether the token holds the permission on the workspace, asking the external authorization service
+     * unless the workspace permission set is already cached.
+     */
+    private boolean isAuthorized(
+            OicSecurityRealm realm,
+            AuthorizationDecisionCache.Key cacheKey,
+            JwtUtils.JwtTokenInfo tokenInfo,
+            String token,
+            String folderPath,
+            String permission)
+            throws AuthorizationServiceClient.AuthorizationException {
+        AuthorizationDecisionCache decisionCache = realm.getAuthorizationDecisionCache();
+        AuthorizationServiceClient client = realm.getAuthorizationServiceClient();
+        boolean prefetch = prefetchWorkspacePermissions && UrlPathUtils.PIPELINE_PERMISSIONS.contains(permission);
         try {
-            OicSecurityRealm securityRealm = (OicSecurityRealm) Jenkins.get().getSecurityRealm();
-            if (securityRealm != null) {
-                return securityRealm.getExternalAuthServiceUrl();
+            if (prefetch) {
+                // 一次取回该ws下所有流水线权限，页面后续的其他请求直接命中缓存
+                AuthorizationDecisionCache.Key workspaceKey = cacheKey.forWorkspace();
+                Set<String> granted = decisionCache.getPermissionSet(workspaceKey);
+                if (granted == null) {
+                    granted = coalesce(inFlightPermissionSets, workspaceKey, () -> {
+                        Set<String> permissions;
+                        try {
+                            permissions = client.getGrantedPermissions(
+                                    token, folderPath, UrlPathUtils.PIPELINE_PERMISSIONS);
+                        } catch (AuthorizationServiceClient.AuthorizationRejectedException e) {
+                            decisionCache.deny(workspaceKey, e.getStatusCode(), tokenInfo.getExpirationTime());
+                            throw e;
+                        }
+                        decisionCache.putPermissionSet(workspaceKey, permissions, tokenInfo.getExpirationTime());
+                        return permissions;
+                    });
+                }
+                LOGGER.debug("Permissions granted to user: {} on workspace: {}: {}", tokenInfo.getSubject(), folderPath, granted);
+                return granted.contains(permission);
             }
-        } catch (Exception e) {
-            LOGGER.error("Failed to get authorization configuration", e);
+
+            AuthorizationServiceClient.AuthorizationResponse authResponse = coalesce(inFlightChecks, cacheKey, () -> {
+                AuthorizationServiceClient.AuthorizationResponse checked;
+                try {
+                    checked = client.checkAuthorization(token, folderPath, permission);
+                } catch (AuthorizationServiceClient.AuthorizationRejectedException e) {
+                    decisionCache.deny(cacheKey, e.getStatusCode(), tokenInfo.getExpirationTime());
+                    throw e;
+                }
+                if (checked.isAuthorized()) {
+                    decisionCache.allow(cacheKey, tokenInfo.getExpirationTime());
+                } else {
+                    decisionCache.deny(cacheKey, HttpServletResponse.SC_FORBIDDEN, tokenInfo.getExpirationTime());
+                }
+                return checked;
+            });
+            LOGGER.debug("Authorization response: {}", authResponse);
+            return authResponse.isAuthorized();
+        } catch (AuthorizationServiceClient.AuthorizationServiceUnavailableException e) {
+            // 鉴权服务不可用时，在宽限期内沿用之前的允许结果
+            boolean allowedWithinGrace;
+            if (prefetch) {
+                Set<String> granted = decisionCache.getPermissionSetWithinGrace(cacheKey.forWorkspace());
+                allowedWithinGrace = granted != null && granted.contains(permission);
+            } else {
+                allowedWithinGrace = decisionCache.wasAllowedWithinGrace(cacheKey);
+            }
+            if (!allowedWithinGrace) {
+                throw e;
+            }
+            LOGGER.warn("Authorization service unavailable, using a previous decision for user: {}, workspace: {}, permission: {}",
+                    tokenInfo.getSubject(), folderPath, permission);
+            return true;
+        }
+    }
+
+    /**
+     * Call the external authorization service, concurrent callers for the same key wait for a single remote call.
+     */
+    private static <K, V> V coalesce(SingleFlight<K, V> singleFlight, K key, Callable<V> call)
+            throws AuthorizationServiceClient.AuthorizationException {
+        try {
+            return singleFlight.execute(key, call);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof AuthorizationServiceClient.AuthorizationException authorizationException) {
+                throw authorizationException;
+            }
+            throw new AuthorizationServiceClient.AuthorizationException(
+                    "Failed to check authorization: " + e.getCause(), e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new AuthorizationServiceClient.AuthorizationException("Interrupted while checking authorization", e);
         }
-        return null;
     }
 
     /**
@@ -217,7 +592,7 @@ public class AuthorizationFilter implements Filter {
             // 具体有哪些权限，需要看 安全矩阵 对已认证用户给了哪些权限
             authorities.add(SecurityRealm.AUTHENTICATED_AUTHORITY2);
 
-            String userName = tokenInfo.getClaims().getAsString("preferred_username");
+            String userName = tokenInfo.getPreferredUsername();
             JwtAuthAuthenticationToken authentication  = new JwtAuthAuthenticationToken(userName, authorities);
             // 通知系统用户已认证和登录
             SecurityContextHolder.getContext().setAuthentication(authentication);
@@ -230,24 +605,17 @@ public class AuthorizationFilter implements Filter {
 
 
     // 如果用户是通过OIDC登录的，那么可以获取到用户存储的token
-    private String getTokenFromUserCredentials() {
+    private String getTokenFromUserCredentials(OicRequestContext context) {
         try {
-            // 获取当前认证的用户
-            Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-            if (authentication == null) {
-                LOGGER.debug("No authentication found in security context");
-                return null;
-            }
-
-            // 获取用户对象
-            User user = User.get2(authentication);
+            // 当前认证的用户，请求内只解析一次
+            User user = context.getUser();
             if (user == null) {
                 LOGGER.debug("No user found from authentication");
                 return null;
             }
 
             // 获取存储的OIDC token
-            OicCredentials credentials = user.getProperty(OicCredentials.class);
+            OicCredentials credentials = context.getCredentials();
             if (credentials == null) {
                 LOGGER.debug("No OicCredentials found for user: {}", user.getId());
                 return null;
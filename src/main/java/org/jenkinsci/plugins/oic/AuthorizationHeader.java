@@ -0,0 +1,82 @@
+package org.jenkinsci.plugins.oic;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * The {@code Authorization} header of a request, classified and decoded once.
+ */
+// 请求头只解析一次，避免每个filter重复split和base64解码
+final class AuthorizationHeader {
+
+    enum Kind {
+        /** no header */
+        NONE,
+        /** {@code Basic} with a DCE JWT rather than base64 credentials */
+        DCE_TOKEN,
+        /** {@code Basic} with a user name and a password or an API token */
+        BASIC,
+        /** anything else, including {@code Bearer} and malformed {@code Basic} headers */
+        OTHER
+    }
+
+    static final AuthorizationHeader NONE = new AuthorizationHeader(Kind.NONE, null, null);
+
+    private static final String BASIC_PREFIX = "Basic ";
+
+    private final Kind kind;
+    private final String username;
+    private final String password;
+
+    private AuthorizationHeader(Kind kind, String username, String password) {
+        this.kind = kind;
+        this.username = username;
+        this.password = password;
+    }
+
+    static AuthorizationHeader parse(@CheckForNull String header) {
+        if (header == null) {
+            return NONE;
+        }
+        if (!header.startsWith(BASIC_PREFIX)) {
+            return new AuthorizationHeader(Kind.OTHER, null, null);
+        }
+        String value = header.substring(BASIC_PREFIX.length());
+        if (StringUtils.split(value, '.').length == 3) {
+            // 说明是来自DCE的jwt
+            return new AuthorizationHeader(Kind.DCE_TOKEN, null, null);
+        }
+        String decoded;
+        try {
+            decoded = new String(Base64.getDecoder().decode(value), StandardCharsets.UTF_8);
+        } catch (IllegalArgumentException e) {
+            return new AuthorizationHeader(Kind.OTHER, null, null);
+        }
+        // jenkins的 token, user/pass 的token 是 base64("username:apitoken") 这样的形式
+        int colon = decoded.indexOf(':');
+        if (colon < 0) {
+            return new AuthorizationHeader(Kind.OTHER, null, null);
+        }
+        return new AuthorizationHeader(Kind.BASIC, decoded.substring(0, colon), decoded.substring(colon + 1));
+    }
+
+    Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return the user name of a {@link Kind#BASIC} header
+     */
+    String getUsername() {
+        return username;
+    }
+
+    /**
+     * @return the password or API token of a {@link Kind#BASIC} header
+     */
+    String getPassword() {
+        return password;
+    }
+}
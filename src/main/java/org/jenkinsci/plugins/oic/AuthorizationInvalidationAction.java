@@ -0,0 +1,115 @@
+package org.jenkinsci.plugins.oic;
+
+import hudson.Extension;
+import hudson.model.UnprotectedRootAction;
+import hudson.security.SecurityRealm;
+import jakarta.servlet.http.HttpServletResponse;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import net.sf.json.JSONObject;
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
+import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.StaplerRequest2;
+import org.kohsuke.stapler.interceptor.RequirePOST;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Lets the DCE authorization service push permission changes, so that cached authorization decisions can be kept
+ * for a long time without granting revoked permissions.
+ * <p>
+ * {@code POST /OicAuthorizationCache/invalidate} with an {@code Authorization: Bearer <OIC_INVALIDATION_TOKEN>}
+ * header and one of:
+ * <ul>
+ *     <li>{@code workspace}: forget the decisions on the workspace;</li>
+ *     <li>{@code subject}: forget the decisions for the tokens of the subject;</li>
+ *     <li>{@code subject} and {@code workspace}: forget the decisions for the subject on the workspace;</li>
+ *     <li>{@code all=true}: forget every decision.</li>
+ * </ul>
+ * The endpoint does not exist unless the {@code OIC_INVALIDATION_TOKEN} system property is set.
+ */
+// DCE中权限变更时主动通知jenkins清理鉴权缓存，不需要登录，使用预共享的token认证
+@Extension
+@Restricted(NoExternalUse.class)
+public class AuthorizationInvalidationAction implements UnprotectedRootAction {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AuthorizationInvalidationAction.class);
+
+    /** The URL of the action. */
+    static final String URL_NAME = "OicAuthorizationCache";
+
+    private static final String TOKEN = SystemProperties.getString("OIC_INVALIDATION_TOKEN");
+
+    @Override
+    public String getDisplayName() {
+        return Messages.AuthorizationInvalidationAction_DisplayName();
+    }
+
+    @Override
+    public String getIconFileName() {
+        // hide it
+        return null;
+    }
+
+    @Override
+    public String getUrlName() {
+        return URL_NAME;
+    }
+
+    @RequirePOST
+    public HttpResponse doInvalidate(
+            StaplerRequest2 req,
+            @QueryParameter String workspace,
+            @QueryParameter String subject,
+            @QueryParameter boolean all) {
+        if (StringUtils.isBlank(TOKEN)) {
+            return HttpResponses.notFound();
+        }
+        if (!isAuthenticated(req.getHeader("Authorization"), TOKEN)) {
+            LOGGER.warn("Rejected an invalidation of the authorization cache from {}", req.getRemoteAddr());
+            return HttpResponses.status(HttpServletResponse.SC_UNAUTHORIZED);
+        }
+        SecurityRealm securityRealm = Jenkins.get().getSecurityRealm();
+        if (!(securityRealm instanceof OicSecurityRealm oicSecurityRealm)) {
+            return HttpResponses.notFound();
+        }
+        AuthorizationDecisionCache cache = oicSecurityRealm.getAuthorizationDecisionCache();
+
+        int invalidated;
+        if (all) {
+            invalidated = cache.size() + cache.getDenialCount();
+            cache.invalidateAll();
+        } else if (StringUtils.isNotBlank(subject) && StringUtils.isNotBlank(workspace)) {
+            invalidated = cache.invalidate(subject, workspace);
+        } else if (StringUtils.isNotBlank(subject)) {
+            invalidated = cache.invalidateSubject(subject);
+        } else if (StringUtils.isNotBlank(workspace)) {
+            invalidated = cache.invalidateWorkspace(workspace);
+        } else {
+            return HttpResponses.errorWithoutStack(
+                    HttpServletResponse.SC_BAD_REQUEST, "One of workspace, subject or all=true is required");
+        }
+        LOGGER.info(
+                "Invalidated {} cached authorization decisions, workspace: {}, subject: {}, all: {}",
+                invalidated,
+                workspace,
+                subject,
+                all);
+        JSONObject result = new JSONObject();
+        result.put("invalidated", invalidated);
+        return HttpResponses.okJSON(result);
+    }
+
+    static boolean isAuthenticated(String authorization, String token) {
+        String presented = JwtUtils.extractBearerToken(authorization);
+        return presented != null
+                && MessageDigest.isEqual(
+                        presented.getBytes(StandardCharsets.UTF_8), token.getBytes(StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,140 @@
+package org.jenkinsci.plugins.oic;
+
+import jakarta.servlet.http.HttpServletRequest;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Set;
+import org.apache.commons.lang3.StringUtils;
+
+/**
+ * Where a request falls in the external authorization: whether its path and method are subject to it, on which
+ * workspace and with which permission. A request is classified once, by {@link #of(HttpServletRequest)}, and the
+ * result kept as a request attribute for {@link UrlPathUtils#extractFolderInfo(HttpServletRequest)} and
+ * {@link OicCrumbExclusion}.
+ */
+// 每个请求只做一次路径分类，结果放到request attribute里给后续的filter复用
+public final class AuthorizationRoute {
+
+    private static final String ATTRIBUTE = AuthorizationRoute.class.getName();
+
+    private static final Set<String> METHODS = Set.of("GET", "POST", "PUT", "DELETE");
+
+    private final String path;
+    private final String method;
+    private final boolean authorizationRequired;
+    private final String workspace;
+    private final boolean runAction;
+    private final boolean fromDce;
+
+    private AuthorizationRoute(
+            String path,
+            String method,
+            boolean authorizationRequired,
+            String workspace,
+            boolean runAction,
+            boolean fromDce) {
+        this.path = path;
+        this.method = method;
+        this.authorizationRequired = authorizationRequired;
+        this.workspace = workspace;
+        this.runAction = runAction;
+        this.fromDce = fromDce;
+    }
+
+    /**
+     * @return the classification of the request, computed on first use
+     */
+    public static AuthorizationRoute of(HttpServletRequest request) {
+        if (request.getAttribute(ATTRIBUTE) instanceof AuthorizationRoute route) {
+            return route;
+        }
+        String path = Objects.toString(request.getRequestURI(), "");
+        String contextPath = request.getContextPath();
+        if (StringUtils.isNotBlank(contextPath) && path.startsWith(contextPath)) {
+            path = path.substring(contextPath.length());
+        }
+        // 为了处理jenkins原生的token，因为header头都是一样的，这里要求必须是DCE来源的请求才进行鉴权
+        boolean fromDce = StringUtils.isNotBlank(request.getHeader("Authorization"))
+                && OicConstants.CUSTOM_SOURCE_HEADER_VALUE.equals(request.getHeader(OicConstants.CUSTOM_SOURCE_HEADER));
+        AuthorizationRoute route = classify(path, Objects.toString(request.getMethod(), ""), fromDce);
+        request.setAttribute(ATTRIBUTE, route);
+        return route;
+    }
+
+    /**
+     * @param path the request URI without the context path
+     */
+    static AuthorizationRoute classify(String path, String method, boolean fromDce) {
+        String upperCaseMethod = METHODS.contains(method) ? method : method.toUpperCase(Locale.ROOT);
+        int scanned = UrlPathUtils.scanPipelinePath(path);
+        if (scanned < 0) {
+            return new AuthorizationRoute(path, upperCaseMethod, false, null, false, fromDce);
+        }
+        boolean nested = (scanned & UrlPathUtils.NESTED) != 0;
+        return new AuthorizationRoute(
+                path,
+                upperCaseMethod,
+                METHODS.contains(upperCaseMethod),
+                nested
+                        ? path.substring(UrlPathUtils.workspaceStart(scanned), UrlPathUtils.workspaceEnd(scanned))
+                        : null,
+                (scanned & UrlPathUtils.RUN_ACTION) != 0 && "POST".equals(upperCaseMethod),
+                fromDce);
+    }
+
+    /**
+     * @return the request URI without the context path
+     */
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * @return the upper case HTTP method
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return {@code true} if the path is a job or Blue Ocean pipeline and the method one that is authorized
+     */
+    public boolean isAuthorizationRequired() {
+        return authorizationRequired;
+    }
+
+    /**
+     * @return the workspace (top level folder) of a nested job or pipeline, {@code null} otherwise
+     */
+    public String getWorkspace() {
+        return workspace;
+    }
+
+    /**
+     * @return the permission the external authorization service is asked for
+     */
+    public String getPermission() {
+        return UrlPathUtils.permissionOf(method, runAction);
+    }
+
+    /**
+     * @return {@code true} if the request starts a build of a pipeline
+     */
+    public boolean isRunAction() {
+        return runAction;
+    }
+
+    /**
+     * @return {@code true} if the request carries an {@code Authorization} header and comes from DCE
+     */
+    public boolean isFromDce() {
+        return fromDce;
+    }
+
+    @Override
+    public String toString() {
+        return "AuthorizationRoute{" + "path='" + path + '\'' + ", method='" + method + '\'' + ", workspace='"
+                + workspace + '\'' + ", authorizationRequired=" + authorizationRequired + ", runAction=" + runAction
+                + '}';
+    }
+}
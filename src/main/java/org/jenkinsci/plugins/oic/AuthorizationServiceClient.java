@@ -1,40 +1,129 @@
 package org.jenkinsci.plugins.oic;
 
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import jenkins.util.SystemProperties;
 import org.apache.commons.lang3.StringUtils;
-import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpHead;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.util.EntityUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
-public class AuthorizationServiceClient {
+/**
+ * Client of the external (DCE) authorization service.
+ * Instances hold a pool of keep-alive connections and are meant to be shared, see
+ * {@link OicSecurityRealm#getAuthorizationServiceClient()}.
+ */
+public class AuthorizationServiceClient implements Closeable {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(AuthorizationServiceClient.class);
 
+    @SuppressWarnings("boxing")
+    private static final int CONNECT_TIMEOUT_MS =
+            SystemProperties.getInteger("OIC_AUTHORIZATION_CONNECT_TIMEOUT_MS", 2_000);
+
+    @SuppressWarnings("boxing")
+    private static final int READ_TIMEOUT_MS = SystemProperties.getInteger("OIC_AUTHORIZATION_READ_TIMEOUT_MS", 5_000);
+
+    /** Maximum time to wait for a connection from the pool */
+    @SuppressWarnings("boxing")
+    private static final int POOL_TIMEOUT_MS = SystemProperties.getInteger("OIC_AUTHORIZATION_POOL_TIMEOUT_MS", 1_000);
+
+    @SuppressWarnings("boxing")
+    private static final int MAX_CONNECTIONS = SystemProperties.getInteger("OIC_AUTHORIZATION_MAX_CONNECTIONS", 50);
+
+    /** Keep-alive used when the service does not send a {@code Keep-Alive} header */
+    @SuppressWarnings("boxing")
+    private static final long KEEP_ALIVE_MS = SystemProperties.getLong("OIC_AUTHORIZATION_KEEP_ALIVE_MS", 30_000L);
+
     private final String externalAuthServiceUrl;
     private final ObjectMapper objectMapper;
+    private final CloseableHttpClient httpClient;
+    private final AuthorizationCircuitBreaker circuitBreaker;
 
     public AuthorizationServiceClient(String externalAuthServiceUrl) {
         this.externalAuthServiceUrl = externalAuthServiceUrl;
         this.objectMapper = new ObjectMapper();
+
+        // 所有请求都发往同一个地址，所以连接池只有一个route
+        PoolingHttpClientConnectionManager connectionManager = new PoolingHttpClientConnectionManager();
+        connectionManager.setMaxTotal(MAX_CONNECTIONS);
+        connectionManager.setDefaultMaxPerRoute(MAX_CONNECTIONS);
+        RequestConfig requestConfig = RequestConfig.custom()
+                .setConnectTimeout(CONNECT_TIMEOUT_MS)
+                .setSocketTimeout(READ_TIMEOUT_MS)
+                .setConnectionRequestTimeout(POOL_TIMEOUT_MS)
+                .build();
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setDefaultRequestConfig(requestConfig)
+                .setKeepAliveStrategy((response, context) -> {
+                    long keepAlive = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+                    return keepAlive > 0 ? Math.min(keepAlive, KEEP_ALIVE_MS) : KEEP_ALIVE_MS;
+                })
+                .evictExpiredConnections()
+                .disableCookieManagement()
+                .build();
+        this.circuitBreaker = new AuthorizationCircuitBreaker(this::isReachable);
+    }
+
+    public String getExternalAuthServiceUrl() {
+        return externalAuthServiceUrl;
     }
 
     public AuthorizationResponse checkAuthorization(String jwtToken, String workspaceID, String permission)
         throws AuthorizationException {
         LOGGER.info("Checking authorization for workspace: {}, permission: {}", workspaceID, permission);
 
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("workspaceID", workspaceID);
+        requestBody.put("permission", permission);
+        return post(jwtToken, requestBody, AuthorizationResponse.class);
+    }
+
+    /**
+     * Obtain in a single call which of the given permissions the caller holds on the workspace.
+     * @return the granted permissions, never {@code null}
+     */
+    public Set<String> getGrantedPermissions(String jwtToken, String workspaceID, Collection<String> permissions)
+        throws AuthorizationException {
+        LOGGER.info("Fetching permissions for workspace: {}, permissions: {}", workspaceID, permissions);
+
+        Map<String, Object> requestBody = new HashMap<>();
+        requestBody.put("workspaceID", workspaceID);
+        requestBody.put("permissions", permissions);
+        PermissionSetResponse response = post(jwtToken, requestBody, PermissionSetResponse.class);
+        if (response.getPermissions() == null) {
+            return Set.of();
+        }
+        return Set.copyOf(response.getPermissions());
+    }
+
+    private <T> T post(String jwtToken, Map<String, Object> requestBody, Class<T> responseType)
+        throws AuthorizationException {
+        if (!circuitBreaker.allowRequest()) {
+            throw new AuthorizationServiceUnavailableException(
+                    "External auth service is unavailable, last failure: " + circuitBreaker.getLastFailure());
+        }
+        int statusCode;
+        String responseBody;
         try {
-            Map<String, String> requestBody = new HashMap<>();
-            requestBody.put("workspaceID", workspaceID);
-            requestBody.put("permission", permission);
             String jsonBody = objectMapper.writeValueAsString(requestBody);
 
             HttpPost httpPost = new HttpPost(externalAuthServiceUrl);
@@ -47,30 +136,75 @@ public class AuthorizationServiceClient {
             httpPost.setHeader("Authorization", "Bearer " + jwtToken);
             httpPost.setEntity(new StringEntity(jsonBody, "application/json", "UTF-8"));
 
-            try (CloseableHttpClient httpClient = HttpClients.createDefault()) {
-                LOGGER.info("Sending authorization request to: {}", externalAuthServiceUrl);
-                
-                HttpResponse response = httpClient.execute(httpPost);
-                String responseBody = EntityUtils.toString(response.getEntity());
-
-                LOGGER.info("Authorization response status: {}", response.getStatusLine().getStatusCode());
-                LOGGER.debug("Authorization response body: {}", responseBody);
-
-                if (response.getStatusLine().getStatusCode() == 200) {
-                    return objectMapper.readValue(responseBody, AuthorizationResponse.class);
-                } else {
-                    throw new AuthorizationException("External auth service returned status: " +
-                        response.getStatusLine().getStatusCode() + ", body: " + responseBody);
-                }
+            LOGGER.info("Sending authorization request to: {}", externalAuthServiceUrl);
+            try (CloseableHttpResponse response = httpClient.execute(httpPost)) {
+                // 必须读完响应体，连接才会被放回连接池
+                responseBody = EntityUtils.toString(response.getEntity());
+                statusCode = response.getStatusLine().getStatusCode();
             }
-
         } catch (IOException e) {
             LOGGER.error("Failed to check authorization with external service", e);
-            throw new AuthorizationException("Failed to check authorization: " + e.getMessage(), e);
+            circuitBreaker.recordFailure(e);
+            throw new AuthorizationServiceUnavailableException("Failed to check authorization: " + e.getMessage(), e);
+        }
+
+        LOGGER.info("Authorization response status: {}", statusCode);
+        LOGGER.debug("Authorization response body: {}", responseBody);
+
+        if (statusCode >= 500) {
+            AuthorizationServiceUnavailableException e = new AuthorizationServiceUnavailableException(
+                    "External auth service returned status: " + statusCode + ", body: " + responseBody);
+            circuitBreaker.recordFailure(e);
+            throw e;
+        }
+        // 服务有响应（即使是4xx）就认为服务是可用的
+        circuitBreaker.recordSuccess();
+        if (statusCode == 401 || statusCode == 403) {
+            throw new AuthorizationRejectedException(
+                    statusCode, "External auth service returned status: " + statusCode + ", body: " + responseBody);
+        }
+        if (statusCode != 200) {
+            throw new AuthorizationException(
+                    "External auth service returned status: " + statusCode + ", body: " + responseBody);
+        }
+        try {
+            return objectMapper.readValue(responseBody, responseType);
+        } catch (IOException e) {
+            throw new AuthorizationException("Invalid response from external auth service: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Probe used by the {@link AuthorizationCircuitBreaker} while the circuit is open.
+     * @return {@code true} if the service answers with any status below 500
+     */
+    boolean isReachable() {
+        try (CloseableHttpResponse response = httpClient.execute(new HttpHead(externalAuthServiceUrl))) {
+            EntityUtils.consumeQuietly(response.getEntity());
+            return response.getStatusLine().getStatusCode() < 500;
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Authorization service probe failed", e);
+            return false;
+        }
+    }
+
+    public AuthorizationCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+    /**
+     * Release the pooled connections.
+     */
+    @Override
+    public void close() {
+        circuitBreaker.close();
+        try {
+            httpClient.close();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to close the authorization service client", e);
         }
     }
 
-    
     public static class AuthorizationResponse {
         private boolean authorized;
 
@@ -83,6 +217,23 @@ public class AuthorizationServiceClient {
         }
     }
 
+    /**
+     * Response to {@link #getGrantedPermissions(String, String, Collection)}, e.g.
+     * {@code {"permissions": ["amamba.pipeline.get", "amamba.pipeline.run"]}}
+     */
+    @JsonIgnoreProperties(ignoreUnknown = true)
+    public static class PermissionSetResponse {
+        private List<String> permissions;
+
+        public List<String> getPermissions() {
+            return permissions;
+        }
+
+        public void setPermissions(List<String> permissions) {
+            this.permissions = permissions;
+        }
+    }
+
     public static class AuthorizationException extends Exception {
         public AuthorizationException(String message) {
             super(message);
@@ -92,4 +243,33 @@ public class AuthorizationServiceClient {
             super(message, cause);
         }
     }
-}
\ No newline at end of file
+
+    /**
+     * The service could not be reached or failed with a server error, as opposed to answering the check.
+     */
+    public static class AuthorizationServiceUnavailableException extends AuthorizationException {
+        public AuthorizationServiceUnavailableException(String message) {
+            super(message);
+        }
+
+        public AuthorizationServiceUnavailableException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    /**
+     * The service refused to answer the check for this token, with a {@code 401} or a {@code 403}.
+     */
+    public static class AuthorizationRejectedException extends AuthorizationException {
+        private final int statusCode;
+
+        public AuthorizationRejectedException(int statusCode, String message) {
+            super(message);
+            this.statusCode = statusCode;
+        }
+
+        public int getStatusCode() {
+            return statusCode;
+        }
+    }
+}
@@ -44,11 +44,12 @@ class CustomOidcConfiguration extends OidcConfiguration {
         request.setProxy(proxy);
         if (disableTLS) {
             request.setHostnameVerifier(IgnoringHostNameVerifier.INSTANCE);
-            try {
-                request.setSSLSocketFactory(TLSUtils.createAnythingGoesSSLSocketFactory());
-            } catch (KeyManagementException | NoSuchAlgorithmException e) {
-                throw new IllegalStateException("could not configure the SSLFactory, this should not be possible", e);
-            }
+        }
+        try {
+            // 共享的factory，TLS会话和连接可以复用
+            request.setSSLSocketFactory(TLSUtils.getSSLSocketFactory(disableTLS));
+        } catch (KeyManagementException | NoSuchAlgorithmException e) {
+            throw new IllegalStateException("could not configure the SSLFactory, this should not be possible", e);
         }
     }
 }
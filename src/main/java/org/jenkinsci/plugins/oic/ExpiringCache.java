@@ -0,0 +1,226 @@
+package org.jenkinsci.plugins.oic;
+
+import java.time.Clock;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * A size bounded, least recently used cache whose entries each carry their own expiry deadline.
+ * An entry may be kept past its expiry for a while, during which it is only returned by {@link #getStale(Object)}.
+ * Entries past that are dropped on access, the least recently used entry is dropped when the cache is full.
+ * Keys may be indexed by terms derived from them, so that every entry matching a term can be removed without
+ * scanning the cache, see {@link #removeAll(Object)}.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+// 带过期时间的 LRU 缓存，供鉴权结果等热点数据使用，避免引入额外的缓存依赖
+final class ExpiringCache<K, V> {
+
+    private final int maxSize;
+    private final Clock clock;
+    private final LinkedHashMap<K, Entry<V>> entries;
+    private final Function<? super K, ? extends Collection<?>> indexer;
+    /** keys by index term, {@code null} without an indexer */
+    private final Map<Object, Set<K>> index;
+
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final AtomicLong evictionCount = new AtomicLong();
+    private final AtomicLong staleHitCount = new AtomicLong();
+
+    /**
+     * @param maxSize the maximum number of entries, a value {@code <= 0} disables the cache
+     * @param clock the clock used to decide if an entry has expired
+     */
+    ExpiringCache(int maxSize, Clock clock) {
+        this(maxSize, clock, null);
+    }
+
+    /**
+     * @param indexer the index terms of a key, {@code null} to not index the keys
+     */
+    ExpiringCache(int maxSize, Clock clock, Function<? super K, ? extends Collection<?>> indexer) {
+        this.maxSize = maxSize;
+        this.clock = clock;
+        this.indexer = indexer;
+        this.index = indexer == null ? null : new HashMap<>();
+        // access order so that the eldest entry is the least recently used one
+        this.entries = new LinkedHashMap<>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+                if (size() > ExpiringCache.this.maxSize) {
+                    evictionCount.incrementAndGet();
+                    unindex(eldest.getKey());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    boolean isEnabled() {
+        return maxSize > 0;
+    }
+
+    /**
+     * Obtain the value for the key if it is present and has not yet expired.
+     */
+    synchronized V get(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        long now = clock.millis();
+        if (entry.staleUntilMillis <= now) {
+            entries.remove(key);
+            unindex(key);
+            evictionCount.incrementAndGet();
+            missCount.incrementAndGet();
+            return null;
+        }
+        if (entry.expiresAtMillis <= now) {
+            missCount.incrementAndGet();
+            return null;
+        }
+        hitCount.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * Obtain the value for the key even if it has expired, as long as it is still within its stale period.
+     */
+    synchronized V getStale(K key) {
+        Entry<V> entry = entries.get(key);
+        if (entry == null || entry.staleUntilMillis <= clock.millis()) {
+            return null;
+        }
+        staleHitCount.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * Store the value until {@code expiresAtMillis}. Values that are already expired are not stored.
+     */
+    void put(K key, V value, long expiresAtMillis) {
+        put(key, value, expiresAtMillis, expiresAtMillis);
+    }
+
+    /**
+     * Store the value until {@code expiresAtMillis} and keep it available to {@link #getStale(Object)} until
+     * {@code staleUntilMillis}.
+     */
+    synchronized void put(K key, V value, long expiresAtMillis, long staleUntilMillis) {
+        if (!isEnabled() || staleUntilMillis <= clock.millis()) {
+            return;
+        }
+        if (index != null) {
+            for (Object term : indexer.apply(key)) {
+                index.computeIfAbsent(term, t -> new HashSet<>()).add(key);
+            }
+        }
+        entries.put(key, new Entry<>(value, expiresAtMillis, Math.max(expiresAtMillis, staleUntilMillis)));
+    }
+
+    synchronized V remove(K key) {
+        Entry<V> entry = entries.remove(key);
+        if (entry != null) {
+            unindex(key);
+        }
+        return entry == null ? null : entry.value;
+    }
+
+    /**
+     * Remove every entry whose key has the index term.
+     * @return the number of entries removed
+     */
+    synchronized int removeAll(Object term) {
+        if (index == null) {
+            throw new IllegalStateException("the keys of this cache are not indexed");
+        }
+        Set<K> keys = index.get(term);
+        if (keys == null) {
+            return 0;
+        }
+        int removed = 0;
+        for (K key : Set.copyOf(keys)) {
+            if (entries.remove(key) != null) {
+                removed++;
+            }
+            unindex(key);
+        }
+        return removed;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+        if (index != null) {
+            index.clear();
+        }
+    }
+
+    // guarded by this
+    private void unindex(K key) {
+        if (index == null) {
+            return;
+        }
+        for (Object term : indexer.apply(key)) {
+            Set<K> keys = index.get(term);
+            if (keys != null && keys.remove(key) && keys.isEmpty()) {
+                index.remove(term);
+            }
+        }
+    }
+
+    /**
+     * @return the number of distinct index terms, for tests
+     */
+    synchronized int indexSize() {
+        return index == null ? 0 : index.size();
+    }
+
+    synchronized int size() {
+        return entries.size();
+    }
+
+    long now() {
+        return clock.millis();
+    }
+
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+    long getMissCount() {
+        return missCount.get();
+    }
+
+    long getEvictionCount() {
+        return evictionCount.get();
+    }
+
+    long getStaleHitCount() {
+        return staleHitCount.get();
+    }
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiresAtMillis;
+        private final long staleUntilMillis;
+
+        Entry(V value, long expiresAtMillis, long staleUntilMillis) {
+            this.value = value;
+            this.expiresAtMillis = expiresAtMillis;
+            this.staleUntilMillis = staleUntilMillis;
+        }
+    }
+}
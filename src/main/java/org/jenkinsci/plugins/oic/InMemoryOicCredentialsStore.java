@@ -0,0 +1,164 @@
+package org.jenkinsci.plugins.oic;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.model.User;
+import hudson.util.Secret;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the credentials in memory, encrypted with the {@link Secret} key of Jenkins, by user id key. With a
+ * {@link OicCredentialsJournal} every change is also appended to it, and the journal is compacted every
+ * {@code OIC_CREDENTIALS_JOURNAL_COMPACT_MINUTES}.
+ */
+// 内存中按用户id保存加密后的凭据，可选追加写日志文件
+final class InMemoryOicCredentialsStore extends OicCredentialsStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InMemoryOicCredentialsStore.class);
+
+    @SuppressWarnings("boxing")
+    private static final long COMPACT_MINUTES = SystemProperties.getLong("OIC_CREDENTIALS_JOURNAL_COMPACT_MINUTES", 10L);
+
+    /**
+     * Credentials as stored, the tokens are {@link Secret#getEncryptedValue() encrypted}.
+     */
+    record Entry(
+            @CheckForNull String accessToken,
+            @CheckForNull String idToken,
+            @CheckForNull String refreshToken,
+            @CheckForNull Long expiresAtMillis) {
+
+        static Entry of(OicCredentials credentials) {
+            return new Entry(
+                    encrypt(credentials.getAccessToken()),
+                    encrypt(credentials.getIdToken()),
+                    encrypt(credentials.getRefreshToken()),
+                    credentials.getExpiresAtMillis());
+        }
+
+        OicCredentials toCredentials() {
+            return new OicCredentials(
+                    Secret.decrypt(accessToken), Secret.decrypt(idToken), Secret.decrypt(refreshToken), expiresAtMillis);
+        }
+
+        private static String encrypt(String value) {
+            return value == null ? null : Secret.fromString(value).getEncryptedValue();
+        }
+    }
+
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+    @CheckForNull
+    private final OicCredentialsJournal journal;
+
+    /**
+     * Held to change {@link #entries} together with the {@link #journal}, so that the journal holds the changes of a
+     * user in the same order as the map, and so that a compaction sees every change the journal has.
+     */
+    // 写map和追加日志在同一把锁里，否则并发写同一用户时日志中的顺序可能和map相反，重启后恢复出旧凭据
+    private final Object lock;
+
+    InMemoryOicCredentialsStore(@CheckForNull OicCredentialsJournal journal) {
+        this.journal = journal;
+        // 日志的方法本身就锁在日志上，用同一把锁不会额外加锁
+        this.lock = journal != null ? journal : new Object();
+        if (journal != null) {
+            entries.putAll(journal.drainEntries());
+            LOGGER.info("Loaded the credentials of {} users from {}", entries.size(), journal.getFile());
+            Timer.get().scheduleWithFixedDelay(this::compact, COMPACT_MINUTES, COMPACT_MINUTES, TimeUnit.MINUTES);
+        }
+    }
+
+    @Override
+    public OicCredentials load(User user) {
+        String key = User.idStrategy().keyFor(user.getId());
+        Entry entry = entries.get(key);
+        if (entry != null) {
+            return entry.toCredentials();
+        }
+        return migrate(user, key);
+    }
+
+    /**
+     * Move the credentials in the {@code config.xml} of the user, if any, to this store.
+     */
+    // 首次访问时把config.xml中的凭据迁移过来，并清空config.xml中的凭据
+    @CheckForNull
+    private OicCredentials migrate(User user, String key) {
+        OicCredentials legacy = user.getProperty(OicCredentials.class);
+        if (legacy == null || legacy.isEmpty()) {
+            return null;
+        }
+        Entry entry = Entry.of(legacy);
+        synchronized (lock) {
+            Entry existing = entries.putIfAbsent(key, entry);
+            if (existing != null) {
+                // 并发迁移，用已经存进来的
+                return existing.toCredentials();
+            }
+            append(key, entry);
+        }
+        try {
+            OicUserWriter.get().update(user, u -> {
+                u.addProperty(new OicCredentials(null, null, null, null));
+                return true;
+            });
+        } catch (IOException e) {
+            LOGGER.warn("Failed to remove the credentials of {} from its config.xml", user.getId(), e);
+        }
+        LOGGER.debug("Migrated the credentials of {}", user.getId());
+        return legacy;
+    }
+
+    @Override
+    boolean store(User user, OicCredentials credentials) {
+        String key = User.idStrategy().keyFor(user.getId());
+        Entry entry = Entry.of(credentials);
+        synchronized (lock) {
+            entries.put(key, entry);
+            append(key, entry);
+        }
+        return false;
+    }
+
+    private void append(String key, Entry entry) {
+        if (journal == null) {
+            return;
+        }
+        try {
+            journal.append(key, entry);
+        } catch (IOException e) {
+            LOGGER.warn("Failed to append the credentials of {} to {}", key, journal.getFile(), e);
+        }
+    }
+
+    private void compact() {
+        if (journal == null || !journal.needsCompaction(entries.size())) {
+            return;
+        }
+        try {
+            synchronized (lock) {
+                journal.compact(entries);
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to compact {}", journal.getFile(), e);
+        }
+    }
+
+    @Override
+    void flush() {
+        if (journal != null) {
+            journal.force();
+        }
+    }
+
+    int size() {
+        return entries.size();
+    }
+}
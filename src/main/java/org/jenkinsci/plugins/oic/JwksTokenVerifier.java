@@ -0,0 +1,292 @@
+package org.jenkinsci.plugins.oic;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.factories.DefaultJWSVerifierFactory;
+import com.nimbusds.jose.jwk.AsymmetricJWK;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.KeyType;
+import com.nimbusds.jose.jwk.KeyUse;
+import com.nimbusds.jose.util.ResourceRetriever;
+import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTParser;
+import com.nimbusds.jwt.SignedJWT;
+import java.io.IOException;
+import java.net.URL;
+import java.security.PublicKey;
+import java.text.ParseException;
+import java.time.Clock;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Verifies the signature and issuer of DCE tokens locally, against the JWKS of the OpenID provider, so that forged or
+ * garbage tokens are rejected without a round trip to the external authorization service.
+ * Keys are indexed by {@code kid} and refreshed in the background; a token signed with an unknown {@code kid} triggers
+ * a refetch, at most once per {@code OIC_JWKS_MIN_REFETCH_SECONDS}. Only one fetch is in progress at a time, the
+ * callers that need the keys it fetches wait for it and the others go on with the current keys.
+ */
+// 本地校验DCE token的签名和签发者，伪造或者乱写的token不会再发到外部鉴权服务
+public class JwksTokenVerifier {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(JwksTokenVerifier.class);
+
+    /** Age after which the keys are refreshed in the background */
+    @SuppressWarnings("boxing")
+    private static final long REFRESH_SECONDS = SystemProperties.getLong("OIC_JWKS_REFRESH_SECONDS", 300L);
+
+    /** Minimum delay between two fetches of the keys, whatever triggers them */
+    @SuppressWarnings("boxing")
+    private static final long MIN_REFETCH_SECONDS = SystemProperties.getLong("OIC_JWKS_MIN_REFETCH_SECONDS", 30L);
+
+    @SuppressWarnings("boxing")
+    private static final int VERIFIED_TOKEN_CACHE_SIZE =
+            SystemProperties.getInteger("OIC_JWKS_VERIFIED_TOKEN_CACHE_SIZE", 1_000);
+
+    private static final DefaultJWSVerifierFactory VERIFIER_FACTORY = new DefaultJWSVerifierFactory();
+
+    public enum Result {
+        VALID,
+        /** the token is not signed, not signed by the provider or not issued by it */
+        INVALID,
+        /** the keys of the provider could not be obtained, the token is neither accepted nor rejected */
+        UNVERIFIABLE
+    }
+
+    private final URL jwkSetUrl;
+    private final String issuer;
+    private final ResourceRetriever resourceRetriever;
+    private final Executor executor;
+    private final Clock clock;
+    private final long refreshMillis;
+    private final long minRefetchMillis;
+
+    /** digests of the tokens whose signature has been verified, until their {@code exp} */
+    private final ExpiringCache<String, Boolean> verifiedTokens;
+
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private final SingleFlight<URL, Keys> fetches = new SingleFlight<>();
+
+    private volatile Keys keys;
+
+    /** only changed by the fetch in flight */
+    private volatile long lastFetchMillis;
+
+    /**
+     * @param issuer the expected {@code iss} of the tokens, {@code null} to not check it
+     */
+    JwksTokenVerifier(URL jwkSetUrl, String issuer, ResourceRetriever resourceRetriever) {
+        this(
+                jwkSetUrl,
+                issuer,
+                resourceRetriever,
+                null,
+                Clock.systemUTC(),
+                REFRESH_SECONDS * 1000,
+                MIN_REFETCH_SECONDS * 1000,
+                VERIFIED_TOKEN_CACHE_SIZE);
+    }
+
+    /**
+     * @param executor runs the background refreshes, {@code null} to use the Jenkins {@link Timer}
+     */
+    JwksTokenVerifier(
+            URL jwkSetUrl,
+            String issuer,
+            ResourceRetriever resourceRetriever,
+            Executor executor,
+            Clock clock,
+            long refreshMillis,
+            long minRefetchMillis,
+            int verifiedTokenCacheSize) {
+        this.jwkSetUrl = jwkSetUrl;
+        this.issuer = issuer;
+        this.resourceRetriever = resourceRetriever;
+        this.executor = executor;
+        this.clock = clock;
+        this.refreshMillis = refreshMillis;
+        this.minRefetchMillis = minRefetchMillis;
+        this.verifiedTokens = new ExpiringCache<>(verifiedTokenCacheSize, clock);
+        this.lastFetchMillis = clock.millis() - minRefetchMillis;
+    }
+
+    public Result verify(JwtUtils.JwtTokenInfo tokenInfo) {
+        if (Boolean.TRUE.equals(verifiedTokens.get(tokenInfo.getDigest()))) {
+            return Result.VALID;
+        }
+        if (issuer != null && !issuer.equals(tokenInfo.getIssuer())) {
+            LOGGER.debug("Token issued by {} instead of {}", tokenInfo.getIssuer(), issuer);
+            return Result.INVALID;
+        }
+        SignedJWT jwt;
+        try {
+            JWT parsed = JWTParser.parse(tokenInfo.getToken());
+            if (!(parsed instanceof SignedJWT signedJWT)) {
+                LOGGER.debug("Token is not signed");
+                return Result.INVALID;
+            }
+            jwt = signedJWT;
+        } catch (ParseException e) {
+            return Result.INVALID;
+        }
+
+        Keys current = currentKeys();
+        if (current == null) {
+            return Result.UNVERIFIABLE;
+        }
+        List<VerificationKey> candidates = current.candidates(jwt.getHeader());
+        if (candidates.isEmpty() && jwt.getHeader().getKeyID() != null) {
+            // 可能是IdP轮换了密钥，重新拉取一次（有频率限制）
+            current = refetch();
+            if (current == null) {
+                return Result.UNVERIFIABLE;
+            }
+            candidates = current.candidates(jwt.getHeader());
+        }
+        for (VerificationKey candidate : candidates) {
+            if (candidate.verifies(jwt)) {
+                if (tokenInfo.getExpirationTime() != null) {
+                    verifiedTokens.put(
+                            tokenInfo.getDigest(), Boolean.TRUE, tokenInfo.getExpirationTime().getTime());
+                }
+                return Result.VALID;
+            }
+        }
+        LOGGER.debug("Token signature could not be verified with the keys of {}", jwkSetUrl);
+        return Result.INVALID;
+    }
+
+    /**
+     * Fetch the keys now, if they have not been fetched yet, rather than on the first verification.
+     */
+    void prefetch() {
+        currentKeys();
+    }
+
+    /**
+     * @return the keys, fetching them on first use and refreshing them in the background once they are old
+     */
+    private Keys currentKeys() {
+        Keys current = keys;
+        if (current == null) {
+            return refetch();
+        }
+        if (clock.millis() - current.fetchedAtMillis >= refreshMillis && refreshing.compareAndSet(false, true)) {
+            Executor refreshExecutor = executor != null ? executor : Timer.get();
+            refreshExecutor.execute(() -> {
+                try {
+                    refetch();
+                } finally {
+                    refreshing.set(false);
+                }
+            });
+        }
+        return current;
+    }
+
+    /**
+     * Fetch the keys, unless they were fetched less than {@link #minRefetchMillis} ago, or wait for the fetch in
+     * progress.
+     * @return the current keys, {@code null} if they have never been obtained
+     */
+    // 不在锁内做HTTP请求，同一时间只有一个请求在拉取，其他线程等待它的结果
+    private Keys refetch() {
+        try {
+            return fetches.execute(jwkSetUrl, this::fetch);
+        } catch (ExecutionException e) {
+            LOGGER.warn("Failed to fetch the keys of the OpenID provider from {}", jwkSetUrl, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return keys;
+    }
+
+    private Keys fetch() {
+        long now = clock.millis();
+        if (now - lastFetchMillis < minRefetchMillis) {
+            return keys;
+        }
+        lastFetchMillis = now;
+        try {
+            JWKSet jwkSet = JWKSet.parse(
+                    resourceRetriever.retrieveResource(jwkSetUrl).getContent());
+            keys = new Keys(jwkSet, now);
+            LOGGER.debug("Fetched {} keys from {}", jwkSet.getKeys().size(), jwkSetUrl);
+        } catch (IOException | ParseException e) {
+            LOGGER.warn("Failed to fetch the keys of the OpenID provider from {}: {}", jwkSetUrl, e.getMessage());
+        }
+        return keys;
+    }
+
+    /**
+     * The signing keys of one fetch of the key set.
+     */
+    private static final class Keys {
+        private final Map<String, VerificationKey> byId = new HashMap<>();
+        private final List<VerificationKey> all = new ArrayList<>();
+        private final long fetchedAtMillis;
+
+        Keys(JWKSet jwkSet, long fetchedAtMillis) {
+            this.fetchedAtMillis = fetchedAtMillis;
+            for (JWK jwk : jwkSet.getKeys()) {
+                if (!(jwk instanceof AsymmetricJWK asymmetricJWK)
+                        || (jwk.getKeyUse() != null && !KeyUse.SIGNATURE.equals(jwk.getKeyUse()))) {
+                    continue;
+                }
+                try {
+                    VerificationKey key = new VerificationKey(jwk.getKeyType(), asymmetricJWK.toPublicKey());
+                    all.add(key);
+                    if (jwk.getKeyID() != null) {
+                        byId.put(jwk.getKeyID(), key);
+                    }
+                } catch (JOSEException e) {
+                    LOGGER.debug("Ignoring key {}: {}", jwk.getKeyID(), e.getMessage());
+                }
+            }
+        }
+
+        List<VerificationKey> candidates(JWSHeader header) {
+            if (header.getKeyID() != null) {
+                VerificationKey key = byId.get(header.getKeyID());
+                return key == null ? List.of() : List.of(key);
+            }
+            KeyType keyType = KeyType.forAlgorithm(header.getAlgorithm());
+            return all.stream().filter(key -> key.keyType.equals(keyType)).toList();
+        }
+    }
+
+    private static final class VerificationKey {
+        private final KeyType keyType;
+        private final PublicKey publicKey;
+
+        VerificationKey(KeyType keyType, PublicKey publicKey) {
+            this.keyType = keyType;
+            this.publicKey = publicKey;
+        }
+
+        boolean verifies(SignedJWT jwt) {
+            JWSAlgorithm algorithm = jwt.getHeader().getAlgorithm();
+            if (!keyType.equals(KeyType.forAlgorithm(algorithm))) {
+                return false;
+            }
+            try {
+                return jwt.verify(VERIFIER_FACTORY.createJWSVerifier(jwt.getHeader(), publicKey));
+            } catch (JOSEException e) {
+                LOGGER.debug("Could not verify the token with algorithm {}: {}", algorithm, e.getMessage());
+                return false;
+            }
+        }
+    }
+}
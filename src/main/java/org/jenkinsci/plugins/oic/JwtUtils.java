@@ -1,19 +1,37 @@
 package org.jenkinsci.plugins.oic;
 
 import com.nimbusds.jwt.JWT;
+import com.nimbusds.jwt.JWTClaimsSet;
 import com.nimbusds.jwt.JWTParser;
+import jenkins.util.SystemProperties;
 import net.minidev.json.JSONObject;
 import org.apache.commons.lang3.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.text.ParseException;
+import java.time.Clock;
 import java.util.Date;
+import java.util.HexFormat;
+import java.util.Map;
 
 public class JwtUtils {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(JwtUtils.class);
 
+    @SuppressWarnings("boxing")
+    private static final int PARSED_TOKEN_CACHE_SIZE = SystemProperties.getInteger("OIC_JWT_CACHE_SIZE", 1_000);
+
+    /**
+     * Parsed tokens by {@link #digest(String) digest}, each kept until the {@code exp} of the token.
+     */
+    // DCE 的自动化调用会成千上万次复用同一个token，解析一次即可
+    private static final ExpiringCache<String, JwtTokenInfo> PARSED_TOKENS =
+            new ExpiringCache<>(PARSED_TOKEN_CACHE_SIZE, Clock.systemUTC());
+
     public static JwtTokenInfo parseJwtToken(String token) {
         if (StringUtils.isBlank(token)) {
             return null;
@@ -25,17 +43,18 @@ public class JwtUtils {
                 return null;
             }
 
-            JWT jwt = JWTParser.parse(jwtToken);
+            String digest = digest(jwtToken);
+            JwtTokenInfo tokenInfo = PARSED_TOKENS.get(digest);
+            if (tokenInfo != null) {
+                return tokenInfo;
+            }
 
-            JwtTokenInfo tokenInfo = new JwtTokenInfo();
-            tokenInfo.setToken(jwtToken);
-            tokenInfo.setSubject(jwt.getJWTClaimsSet().getSubject());
-            tokenInfo.setIssuer(jwt.getJWTClaimsSet().getIssuer());
-            tokenInfo.setExpirationTime(jwt.getJWTClaimsSet().getExpirationTime());
-            tokenInfo.setIssuedAtTime(jwt.getJWTClaimsSet().getIssueTime());
-            JSONObject claims = new JSONObject();
-            claims.putAll(jwt.getJWTClaimsSet().getClaims());
-            tokenInfo.setClaims(claims);
+            JWT jwt = JWTParser.parse(jwtToken);
+            tokenInfo = new JwtTokenInfo(jwtToken, digest, jwt.getJWTClaimsSet());
+            if (tokenInfo.expirationTime != null) {
+                // token没有过期时间的话不缓存
+                PARSED_TOKENS.put(digest, tokenInfo, tokenInfo.expirationTime.getTime());
+            }
 
             return tokenInfo;
 
@@ -46,11 +65,11 @@ public class JwtUtils {
     }
 
     public static boolean isTokenExpired(JwtTokenInfo tokenInfo) {
-        if (tokenInfo == null || tokenInfo.getExpirationTime() == null) {
+        if (tokenInfo == null || tokenInfo.expirationTime == null) {
             return true;
         }
 
-        return tokenInfo.getExpirationTime().before(new Date());
+        return tokenInfo.expirationTime.getTime() < System.currentTimeMillis();
     }
 
     public static String extractBearerToken(String authHeader) {
@@ -69,62 +88,82 @@ public class JwtUtils {
         return authHeader;
     }
 
+    /**
+     * SHA-256 digest of a token, so that tokens can be used as cache keys without keeping them around in plain text.
+     */
+    public static String digest(String token) {
+        try {
+            MessageDigest messageDigest = MessageDigest.getInstance("SHA-256");
+            return HexFormat.of().formatHex(messageDigest.digest(token.getBytes(StandardCharsets.UTF_8)));
+        } catch (NoSuchAlgorithmException e) {
+            // SHA-256 is mandated by the spec
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
 
-    public static class JwtTokenInfo {
+
+    /**
+     * Immutable view of a parsed token, shared by every request presenting the same token.
+     */
+    public static final class JwtTokenInfo {
         @SuppressWarnings("lgtm[jenkins/plaintext-storage]")
-        private String token;
-        private String subject;
-        private String issuer;
-        private Date expirationTime;
-        private Date issuedAtTime;
-        private JSONObject claims;
+        private final String token;
+        private final String digest;
+        private final String subject;
+        private final String issuer;
+        private final Date expirationTime;
+        private final Date issuedAtTime;
+        private final String preferredUsername;
+        private final Map<String, Object> claims;
+
+        JwtTokenInfo(String token, String digest, JWTClaimsSet claimsSet) {
+            this.token = token;
+            this.digest = digest;
+            this.subject = claimsSet.getSubject();
+            this.issuer = claimsSet.getIssuer();
+            this.expirationTime = claimsSet.getExpirationTime();
+            this.issuedAtTime = claimsSet.getIssueTime();
+            Object preferredUsername = claimsSet.getClaim("preferred_username");
+            this.preferredUsername = preferredUsername == null ? null : preferredUsername.toString();
+            this.claims = claimsSet.getClaims();
+        }
 
         public String getToken() {
             return token;
         }
 
-        public void setToken(String token) {
-            this.token = token;
+        /**
+         * @return the {@link JwtUtils#digest(String) digest} of the token
+         */
+        public String getDigest() {
+            return digest;
         }
 
         public String getSubject() {
             return subject;
         }
 
-        public void setSubject(String subject) {
-            this.subject = subject;
-        }
-
         public String getIssuer() {
             return issuer;
         }
 
-        public void setIssuer(String issuer) {
-            this.issuer = issuer;
-        }
-
         public Date getExpirationTime() {
-            return expirationTime;
-        }
-
-        public void setExpirationTime(Date expirationTime) {
-            this.expirationTime = expirationTime;
+            return expirationTime == null ? null : new Date(expirationTime.getTime());
         }
 
         public Date getIssuedAtTime() {
-            return issuedAtTime;
+            return issuedAtTime == null ? null : new Date(issuedAtTime.getTime());
         }
 
-        public void setIssuedAtTime(Date issuedAtTime) {
-            this.issuedAtTime = issuedAtTime;
+        public String getPreferredUsername() {
+            return preferredUsername;
         }
 
+        /**
+         * @return a copy of the claims of the token
+         */
         public JSONObject getClaims() {
-            return claims;
-        }
-
-        public void setClaims(JSONObject claims) {
-            this.claims = claims;
+            return new JSONObject(claims);
         }
     }
-}
\ No newline at end of file
+}
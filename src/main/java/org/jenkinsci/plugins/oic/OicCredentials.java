@@ -8,6 +8,7 @@ import hudson.model.UserProperty;
 import hudson.model.UserPropertyDescriptor;
 import hudson.util.Secret;
 import java.io.Serializable;
+import java.util.Objects;
 import net.sf.json.JSONObject;
 import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.StaplerRequest2;
@@ -71,6 +72,33 @@ public class OicCredentials extends UserProperty implements Serializable {
         return expiresAtMillis;
     }
 
+    /**
+     * @return {@code true} if these credentials hold nothing, as left in the {@code config.xml} of a user whose
+     *     credentials were moved to another {@link OicCredentialsStore}
+     */
+    boolean isEmpty() {
+        return accessToken == null && idToken == null && refreshToken == null && expiresAtMillis == null;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof OicCredentials that)) {
+            return false;
+        }
+        return Objects.equals(accessToken, that.accessToken)
+                && Objects.equals(idToken, that.idToken)
+                && Objects.equals(refreshToken, that.refreshToken)
+                && Objects.equals(expiresAtMillis, that.expiresAtMillis);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(accessToken, idToken, refreshToken, expiresAtMillis);
+    }
+
     @Extension
     @Symbol(PROPERTY_NAME)
     public static final class DescriptorImpl extends UserPropertyDescriptor {
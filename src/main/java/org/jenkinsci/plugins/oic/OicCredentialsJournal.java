@@ -0,0 +1,246 @@
+package org.jenkinsci.plugins.oic;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Append-only, memory-mapped file of the credentials of {@link InMemoryOicCredentialsStore}. Each change is a
+ * record appended to the mapped region, which the operating system writes back to disk, so changes cost no system
+ * call. The latest record of a user wins. Once the file holds mostly superseded records it is compacted by writing
+ * the current credentials to a new file that replaces it.
+ * <p>
+ * After a magic number the file holds records made of:
+ * <ul>
+ *     <li>the length of the rest of the record, an {@code int}, {@code 0} after the last record;</li>
+ *     <li>the user id key;</li>
+ *     <li>the encrypted access, ID and refresh tokens;</li>
+ *     <li>the expiry as a {@code long}, {@link Long#MIN_VALUE} if none.</li>
+ * </ul>
+ * Strings are an {@code int} length, {@code -1} for {@code null}, followed by their UTF-8 bytes. A truncated last
+ * record, from a crash, is ignored.
+ */
+// 内存映射的追加写日志，每次修改只是写内存，由操作系统刷盘，定期压缩
+final class OicCredentialsJournal {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OicCredentialsJournal.class);
+
+    private static final int MAGIC = 0x4f494331;
+
+    private static final int INITIAL_CAPACITY = 1 << 20;
+
+    /** compact once there are more records than this many times the users */
+    private static final int GARBAGE_RATIO = 4;
+
+    private final Path file;
+
+    private FileChannel channel;
+    private MappedByteBuffer buffer;
+
+    /** the latest entry of each user as read when opening the file, until {@link #drainEntries()} */
+    private Map<String, InMemoryOicCredentialsStore.Entry> entries = new HashMap<>();
+
+    private int recordCount;
+
+    OicCredentialsJournal(Path file) throws IOException {
+        this.file = file;
+        open();
+        read();
+    }
+
+    Path getFile() {
+        return file;
+    }
+
+    /**
+     * @return the credentials read from the file when it was opened, only once
+     */
+    synchronized Map<String, InMemoryOicCredentialsStore.Entry> drainEntries() {
+        Map<String, InMemoryOicCredentialsStore.Entry> read = entries;
+        entries = new HashMap<>();
+        return read;
+    }
+
+    private void open() throws IOException {
+        channel = FileChannel.open(
+                file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long size = channel.size();
+        map((int) Math.max(INITIAL_CAPACITY, size));
+        if (buffer.getInt(0) != MAGIC) {
+            if (size > 0) {
+                LOGGER.warn("{} is not a credentials journal, starting afresh", file);
+            }
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(Integer.BYTES, 0);
+        }
+        buffer.position(Integer.BYTES);
+    }
+
+    private void map(int capacity) throws IOException {
+        int position = buffer == null ? Integer.BYTES : buffer.position();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        buffer.position(position);
+    }
+
+    private void read() {
+        while (buffer.remaining() >= Integer.BYTES) {
+            int start = buffer.position();
+            int length = buffer.getInt();
+            if (length <= 0 || length > buffer.remaining()) {
+                buffer.position(start);
+                break;
+            }
+            try {
+                String key = getString(buffer);
+                InMemoryOicCredentialsStore.Entry entry = new InMemoryOicCredentialsStore.Entry(
+                        getString(buffer), getString(buffer), getString(buffer), getExpiry(buffer));
+                entries.put(key, entry);
+                recordCount++;
+                buffer.position(start + Integer.BYTES + length);
+            } catch (BufferUnderflowException | IllegalArgumentException e) {
+                LOGGER.warn("Ignoring the corrupted end of {} at {}", file, start);
+                buffer.position(start);
+                break;
+            }
+        }
+        if (buffer.remaining() >= Integer.BYTES) {
+            // 截断被损坏的尾部
+            buffer.putInt(buffer.position(), 0);
+        }
+    }
+
+    /**
+     * Append the credentials of the user.
+     */
+    synchronized void append(String key, InMemoryOicCredentialsStore.Entry entry) throws IOException {
+        byte[] record = toRecord(key, entry);
+        int needed = record.length + Integer.BYTES;
+        if (buffer.remaining() < needed) {
+            map((int) Math.min(Integer.MAX_VALUE, Math.max(2L * buffer.capacity(), buffer.position() + 2L * needed)));
+        }
+        int start = buffer.position();
+        buffer.position(start + Integer.BYTES);
+        buffer.put(record);
+        if (buffer.remaining() >= Integer.BYTES) {
+            buffer.putInt(buffer.position(), 0);
+        }
+        // 长度最后写，崩溃时不会留下看似完整的记录
+        buffer.putInt(start, record.length);
+        recordCount++;
+    }
+
+    /**
+     * @return {@code true} if the file is mostly made of superseded records
+     */
+    synchronized boolean needsCompaction(int users) {
+        return recordCount > GARBAGE_RATIO * Math.max(users, 1) + 1000;
+    }
+
+    /**
+     * Replace the file by one holding only {@code current}. The current file stays mapped until the new one has
+     * replaced it, so a failed compaction leaves the journal as it was.
+     */
+    synchronized void compact(Map<String, InMemoryOicCredentialsStore.Entry> current) throws IOException {
+        int before = recordCount;
+        Path compacted = file.resolveSibling(file.getFileName() + ".tmp");
+        Files.deleteIfExists(compacted);
+        OicCredentialsJournal target = new OicCredentialsJournal(compacted);
+        try {
+            // 新文件是空的
+            target.drainEntries();
+            // 在锁内遍历，之后的修改会追加到新文件
+            for (Map.Entry<String, InMemoryOicCredentialsStore.Entry> entry : current.entrySet()) {
+                target.append(entry.getKey(), entry.getValue());
+            }
+            target.force();
+            Files.move(compacted, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            // 继续使用旧文件
+            target.channel.close();
+            Files.deleteIfExists(compacted);
+            throw e;
+        }
+        // 改名不影响已经打开的文件和映射，直接接着写新文件
+        FileChannel previous = channel;
+        channel = target.channel;
+        buffer = target.buffer;
+        recordCount = target.recordCount;
+        try {
+            previous.close();
+        } catch (IOException e) {
+            LOGGER.debug("Failed to close the previous {}", file, e);
+        }
+        LOGGER.info("Compacted {} from {} to {} records", file, before, recordCount);
+    }
+
+    /**
+     * Write the mapped region to disk.
+     */
+    synchronized void force() {
+        if (buffer != null) {
+            buffer.force();
+        }
+    }
+
+    synchronized int getRecordCount() {
+        return recordCount;
+    }
+
+    private static byte[] toRecord(String key, InMemoryOicCredentialsStore.Entry entry) {
+        byte[][] strings = {
+            bytes(key), bytes(entry.accessToken()), bytes(entry.idToken()), bytes(entry.refreshToken())
+        };
+        int length = Long.BYTES;
+        for (byte[] string : strings) {
+            length += Integer.BYTES + (string == null ? 0 : string.length);
+        }
+        ByteBuffer record = ByteBuffer.allocate(length);
+        for (byte[] string : strings) {
+            if (string == null) {
+                record.putInt(-1);
+            } else {
+                record.putInt(string.length).put(string);
+            }
+        }
+        Long expiresAtMillis = entry.expiresAtMillis();
+        record.putLong(expiresAtMillis == null ? Long.MIN_VALUE : expiresAtMillis);
+        return record.array();
+    }
+
+    @CheckForNull
+    private static byte[] bytes(@CheckForNull String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @CheckForNull
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length == -1) {
+            return null;
+        }
+        if (length < 0 || length > buffer.remaining()) {
+            throw new IllegalArgumentException("Invalid string length " + length);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @CheckForNull
+    private static Long getExpiry(ByteBuffer buffer) {
+        long expiresAtMillis = buffer.getLong();
+        return expiresAtMillis == Long.MIN_VALUE ? null : expiresAtMillis;
+    }
+}
@@ -0,0 +1,122 @@
+package org.jenkinsci.plugins.oic;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.init.Terminator;
+import hudson.model.User;
+import java.io.File;
+import java.io.IOException;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Where the {@link OicCredentials} of users are kept, chosen once with the {@code OIC_CREDENTIALS_STORE} system
+ * property:
+ * <ul>
+ *     <li>{@code user}, the default: as a property in the {@code config.xml} of each user;</li>
+ *     <li>{@code memory}: encrypted in memory, lost on restart;</li>
+ *     <li>{@code file}: encrypted in memory and in an append-only journal under {@code JENKINS_HOME}, see
+ *     {@link OicCredentialsJournal}.</li>
+ * </ul>
+ * The other stores migrate the credentials found in the {@code config.xml} of a user the first time they are asked
+ * for them.
+ */
+// 用户的OIDC凭据存放在哪里，默认仍然是config.xml，可以切换到内存或者内存加日志文件
+@Restricted(NoExternalUse.class)
+public abstract class OicCredentialsStore {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OicCredentialsStore.class);
+
+    static final String USER = "user";
+    static final String MEMORY = "memory";
+    static final String FILE = "file";
+
+    private static final String TYPE = SystemProperties.getString("OIC_CREDENTIALS_STORE", USER);
+
+    private static volatile OicCredentialsStore instance;
+
+    /**
+     * @return the store of the credentials
+     */
+    public static OicCredentialsStore get() {
+        OicCredentialsStore store = instance;
+        if (store == null) {
+            synchronized (OicCredentialsStore.class) {
+                store = instance;
+                if (store == null) {
+                    store = create(TYPE);
+                    instance = store;
+                }
+            }
+        }
+        return store;
+    }
+
+    private static OicCredentialsStore create(String type) {
+        if (MEMORY.equals(type)) {
+            return new InMemoryOicCredentialsStore(null);
+        }
+        if (FILE.equals(type)) {
+            File file = new File(Jenkins.get().getRootDir(), "oic-credentials.journal");
+            try {
+                return new InMemoryOicCredentialsStore(new OicCredentialsJournal(file.toPath()));
+            } catch (IOException e) {
+                LOGGER.error("Failed to open {}, the credentials are kept in memory only", file, e);
+                return new InMemoryOicCredentialsStore(null);
+            }
+        }
+        if (!USER.equals(type)) {
+            LOGGER.warn("Unknown credentials store {}, the credentials are kept in the users", type);
+        }
+        return new UserPropertyStore();
+    }
+
+    /**
+     * @return the credentials of the user, {@code null} if it has none
+     */
+    @CheckForNull
+    public abstract OicCredentials load(User user);
+
+    /**
+     * Set the credentials of the user. Call it in an {@link OicUserWriter#update}.
+     * @return {@code true} if the user itself was changed and has to be saved
+     */
+    abstract boolean store(User user, OicCredentials credentials) throws IOException;
+
+    /**
+     * Write whatever is not written yet.
+     */
+    void flush() {}
+
+    @Terminator
+    @Restricted(NoExternalUse.class)
+    public static void flushOnShutdown() {
+        OicCredentialsStore store = instance;
+        if (store != null) {
+            store.flush();
+        }
+    }
+
+    /**
+     * The credentials are a property in the {@code config.xml} of the user.
+     */
+    static final class UserPropertyStore extends OicCredentialsStore {
+
+        @Override
+        public OicCredentials load(User user) {
+            return user.getProperty(OicCredentials.class);
+        }
+
+        @Override
+        boolean store(User user, OicCredentials credentials) throws IOException {
+            if (credentials.equals(user.getProperty(OicCredentials.class))) {
+                return false;
+            }
+            user.addProperty(credentials);
+            return true;
+        }
+    }
+}
@@ -9,11 +9,10 @@ import jakarta.servlet.http.HttpServletRequest;
 import jakarta.servlet.http.HttpServletResponse;
 import java.io.IOException;
 import jenkins.model.Jenkins;
-import org.apache.commons.lang3.StringUtils;
 
 /**
  * Crumb exclusion to allow POSTing to {@link OicSecurityRealm#doFinishLogin(org.kohsuke.stapler.StaplerRequest2, org.kohsuke.stapler.StaplerResponse2)}
- * and requests that have passed AuthorizationFilter
+ * , to {@link AuthorizationInvalidationAction} and requests that have passed AuthorizationFilter
  */
 // 跟EscapeHatchCrumbExclusion一样的效果，跳过CSRF的判断
 @Extension
@@ -30,12 +29,15 @@ public class OicCrumbExclusion extends CrumbExclusion {
                     chain.doFilter(request, response);
                     return true;
                 }
-                
+                // 由DCE鉴权服务调用，使用预共享的token认证
+                if (("/" + AuthorizationInvalidationAction.URL_NAME + "/invalidate").equals(request.getPathInfo())) {
+                    chain.doFilter(request, response);
+                    return true;
+                }
+
                 // Exclude requests that have DCE authorization header 
                 // (these have been validated by AuthorizationFilter)
-                String authorization = request.getHeader("Authorization");
-                String from = request.getHeader(OicConstants.CUSTOM_SOURCE_HEADER);
-                if (StringUtils.isNotBlank(authorization) && OicConstants.CUSTOM_SOURCE_HEADER_VALUE.equals(from)) {
+                if (AuthorizationRoute.of(request).isFromDce()) {
                     chain.doFilter(request, response);
                     // 如果是DCE授权的请求，直接放行，不进行CSRF的校验
                     return true;
@@ -0,0 +1,163 @@
+package org.jenkinsci.plugins.oic;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.security.ChainedServletFilter2;
+import jakarta.servlet.Filter;
+import jakarta.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import jenkins.util.SystemProperties;
+import org.apache.commons.lang3.StringUtils;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.security.authentication.AnonymousAuthenticationToken;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * Decides which requests skip the filters of this plugin, {@link AuthorizationFilter} and the token expiration
+ * check: static resources, agent traffic, and anonymous requests without an {@code Authorization} header, none of
+ * which have a token to authorize or refresh. The Jenkins authentication filters still run.
+ * Websocket upgrades only skip the token expiration check, they are still authorized.
+ * <p>
+ * The paths are read once from {@code OIC_FILTER_BYPASS_PATHS}, a comma separated list of path prefixes, relative to
+ * the context path. Only fixed prefixes are supported, a request header or a file suffix is under the control of the
+ * client and must not decide whether a request is authorized.
+ */
+// 静态资源、agent和匿名请求不需要走token刷新和外部鉴权；websocket只跳过token刷新，仍然要鉴权
+@Restricted(NoExternalUse.class)
+public final class OicFilterBypass {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OicFilterBypass.class);
+
+    static final String DEFAULT_PATHS = "/static/,/adjuncts/,/images/,/resources/,/plugin/,/favicon.ico,/robots.txt,"
+            + "/wsagents/,/tcpSlaveAgentListener/";
+
+    private static final String PATHS = SystemProperties.getString("OIC_FILTER_BYPASS_PATHS", DEFAULT_PATHS);
+
+    private static final boolean ANONYMOUS = SystemProperties.getBoolean("OIC_FILTER_BYPASS_ANONYMOUS", true);
+
+    private final String[] prefixes;
+    private final boolean anonymous;
+
+    private final AtomicLong pathCount = new AtomicLong();
+    private final AtomicLong anonymousCount = new AtomicLong();
+    private final AtomicLong webSocketCount = new AtomicLong();
+
+    OicFilterBypass() {
+        this(PATHS, ANONYMOUS);
+    }
+
+    OicFilterBypass(String paths, boolean anonymous) {
+        List<String> prefixList = new ArrayList<>();
+        for (String path : StringUtils.split(StringUtils.defaultIfBlank(paths, ""), ',')) {
+            path = path.trim();
+            if (!path.startsWith("/")) {
+                // 后缀由客户端决定，不能用来跳过鉴权
+                LOGGER.warn("Ignoring {} in OIC_FILTER_BYPASS_PATHS, only path prefixes are supported", path);
+            } else {
+                prefixList.add(path);
+            }
+        }
+        this.prefixes = prefixList.toArray(new String[0]);
+        this.anonymous = anonymous;
+    }
+
+    /**
+     * Wrap the filters of this plugin so that they are skipped by the requests that {@link #matches}.
+     * @param authorizationFilter the {@link AuthorizationFilter}, {@code null} when the external authorization is
+     *     disabled
+     * @param tokenRefreshFilter the token expiration check, which websocket upgrades also skip
+     */
+    Filter wrap(@CheckForNull Filter authorizationFilter, Filter tokenRefreshFilter) {
+        List<Filter> filters = new ArrayList<>();
+        if (authorizationFilter != null) {
+            filters.add(authorizationFilter);
+        }
+        filters.add((request, response, chain) -> {
+            if (isWebSocketUpgrade((HttpServletRequest) request)) {
+                webSocketCount.incrementAndGet();
+                chain.doFilter(request, response);
+            } else {
+                tokenRefreshFilter.doFilter(request, response, chain);
+            }
+        });
+        Filter chained = new ChainedServletFilter2(filters);
+        return (request, response, chain) -> {
+            if (matches((HttpServletRequest) request)) {
+                chain.doFilter(request, response);
+            } else {
+                chained.doFilter(request, response, chain);
+            }
+        };
+    }
+
+    /**
+     * @return {@code true} if the request can skip the filters of this plugin
+     */
+    boolean matches(HttpServletRequest request) {
+        if (matchesPath(request)) {
+            pathCount.incrementAndGet();
+            return true;
+        }
+        if (anonymous && isAnonymous() && request.getHeader("Authorization") == null) {
+            anonymousCount.incrementAndGet();
+            return true;
+        }
+        return false;
+    }
+
+    private boolean matchesPath(HttpServletRequest request) {
+        String uri = request.getRequestURI();
+        if (uri == null) {
+            return false;
+        }
+        String contextPath = request.getContextPath();
+        int start = contextPath != null && uri.startsWith(contextPath) ? contextPath.length() : 0;
+        for (String prefix : prefixes) {
+            if (uri.startsWith(prefix, start)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isWebSocketUpgrade(HttpServletRequest request) {
+        return "websocket".equalsIgnoreCase(request.getHeader("Upgrade"));
+    }
+
+    private static boolean isAnonymous() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        return authentication == null || authentication instanceof AnonymousAuthenticationToken;
+    }
+
+    /**
+     * @return the number of static and agent requests that skipped the filters
+     */
+    public long getPathCount() {
+        return pathCount.get();
+    }
+
+    /**
+     * @return the number of anonymous requests that skipped the filters
+     */
+    public long getAnonymousCount() {
+        return anonymousCount.get();
+    }
+
+    /**
+     * @return the number of websocket upgrades that skipped the token expiration check
+     */
+    public long getWebSocketCount() {
+        return webSocketCount.get();
+    }
+
+    @Override
+    public String toString() {
+        return "OicFilterBypass{" + "paths=" + getPathCount() + ", anonymous=" + getAnonymousCount() + ", webSockets="
+                + getWebSocketCount() + '}';
+    }
+}
@@ -0,0 +1,104 @@
+package org.jenkinsci.plugins.oic;
+
+import hudson.model.User;
+import jakarta.servlet.http.HttpServletRequest;
+import java.util.Objects;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+/**
+ * What the filters of {@link OicSecurityRealm#createFilter} know about the request: its
+ * {@link AuthorizationRoute route}, its {@code Authorization} header, and the {@link User} it is authenticated as with
+ * its {@link OicCredentials}. It is attached to the request at the head of the chain and each piece is resolved once,
+ * on first use, instead of by every filter.
+ * <p>
+ * The user is resolved again if a filter authenticates the request as someone else, as {@link AuthorizationFilter}
+ * may do for DCE tokens; a new authentication of the same principal keeps it. Not thread safe, only the thread
+ * handling the request may use it.
+ */
+// 请求级别的上下文，避免每个filter都去查一遍User和OicCredentials
+@Restricted(NoExternalUse.class)
+public final class OicRequestContext {
+
+    private static final String ATTRIBUTE = OicRequestContext.class.getName();
+
+    private final HttpServletRequest request;
+
+    private AuthorizationRoute route;
+    private Authentication resolvedFor;
+    private boolean resolved;
+    private User user;
+    private OicCredentials credentials;
+    private AuthorizationHeader authorizationHeader;
+
+    /**
+     * A context that is not attached to the request, for callers outside of the filter chain.
+     */
+    OicRequestContext(HttpServletRequest request) {
+        this.request = request;
+    }
+
+    /**
+     * @return the context of the request, attached to it on first use
+     */
+    public static OicRequestContext of(HttpServletRequest request) {
+        if (request.getAttribute(ATTRIBUTE) instanceof OicRequestContext context) {
+            return context;
+        }
+        OicRequestContext context = new OicRequestContext(request);
+        request.setAttribute(ATTRIBUTE, context);
+        return context;
+    }
+
+    public AuthorizationRoute getRoute() {
+        if (route == null) {
+            route = AuthorizationRoute.of(request);
+        }
+        return route;
+    }
+
+    /**
+     * @return the user the request is currently authenticated as, {@code null} if none
+     */
+    public User getUser() {
+        resolve();
+        return user;
+    }
+
+    /**
+     * @return the OpenID Connect credentials of {@link #getUser()}, {@code null} if it has none
+     */
+    public OicCredentials getCredentials() {
+        resolve();
+        return credentials;
+    }
+
+    private void resolve() {
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (resolved && authentication == resolvedFor) {
+            return;
+        }
+        if (resolved && user != null && authentication != null
+                && Objects.equals(authentication.getName(), resolvedFor.getName())) {
+            // DCE token认证的是同一个用户时，沿用已经解析的User和凭证
+            resolvedFor = authentication;
+            return;
+        }
+        user = authentication == null ? null : User.get2(authentication);
+        credentials = user == null ? null : OicCredentialsStore.get().load(user);
+        resolvedFor = authentication;
+        resolved = true;
+    }
+
+    /**
+     * @return the {@code Authorization} header of the request, parsed on first use
+     */
+    AuthorizationHeader getAuthorizationHeader() {
+        if (authorizationHeader == null) {
+            authorizationHeader = AuthorizationHeader.parse(request.getHeader("Authorization"));
+        }
+        return authorizationHeader;
+    }
+}
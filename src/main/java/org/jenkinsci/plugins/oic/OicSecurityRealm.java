@@ -34,10 +34,14 @@ import com.nimbusds.jwt.JWT;
 import com.nimbusds.jwt.JWTParser;
 import com.nimbusds.oauth2.sdk.GrantType;
 import com.nimbusds.oauth2.sdk.auth.ClientAuthenticationMethod;
+import com.nimbusds.oauth2.sdk.http.HTTPRequest;
 import com.nimbusds.oauth2.sdk.pkce.CodeChallengeMethod;
 import com.nimbusds.oauth2.sdk.token.AccessToken;
 import com.nimbusds.oauth2.sdk.token.BearerAccessToken;
 import com.nimbusds.oauth2.sdk.token.RefreshToken;
+import com.nimbusds.openid.connect.sdk.UserInfoRequest;
+import com.nimbusds.openid.connect.sdk.UserInfoResponse;
+import com.nimbusds.openid.connect.sdk.UserInfoSuccessResponse;
 import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
@@ -78,8 +82,8 @@ import java.nio.charset.StandardCharsets;
 import java.text.ParseException;
 import java.time.Clock;
 import java.util.ArrayList;
-import java.util.Base64;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
@@ -87,6 +91,12 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
@@ -99,6 +109,7 @@ import jenkins.security.ApiTokenProperty;
 import jenkins.security.FIPS140;
 import jenkins.security.SecurityListener;
 import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
 import org.apache.commons.lang.StringUtils;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.DoNotUse;
@@ -327,6 +338,24 @@ public class OicSecurityRealm extends SecurityRealm implements Serializable {
      */
     private static final Clock CLOCK = Clock.systemUTC();
 
+    /** How long a request waits for the refresh of its user's credentials started by another request */
+    @SuppressWarnings("boxing")
+    private static final long TOKEN_REFRESH_WAIT_MS = SystemProperties.getLong("OIC_TOKEN_REFRESH_WAIT_MS", 10_000L);
+
+    private enum RefreshOutcome {
+        REFRESHED,
+        /** the refresh failed and the request that made it was answered accordingly */
+        FAILED,
+        /** the background refresh gave up and left the credentials as they were */
+        SKIPPED
+    }
+
+    /**
+     * Refreshes of credentials in progress, by user id key, so that parallel requests of a user with expired
+     * credentials make a single refresh token grant: with rotating refresh tokens all but one would fail.
+     */
+    private static final SingleFlight<String, RefreshOutcome> TOKEN_REFRESHES = new SingleFlight<>();
+
     /** Runtime context to compile JMESPath
      */
     private static final JmesPath<Object> JMESPATH = new JcfRuntime(
@@ -337,6 +366,65 @@ public class OicSecurityRealm extends SecurityRealm implements Serializable {
      */
     private transient ProxyAwareResourceRetriever proxyAwareResourceRetriever;
 
+    /**
+     * Cache of the decisions of the external authorization service, see {@link #getAuthorizationDecisionCache()}
+     */
+    private transient volatile AuthorizationDecisionCache authorizationDecisionCache;
+
+    /**
+     * Pooled client of the external authorization service, see {@link #getAuthorizationServiceClient()}
+     */
+    private transient volatile AuthorizationServiceClient authorizationServiceClient;
+
+    /**
+     * Local verifier of the signature of DCE tokens, see {@link #getTokenVerifier()}
+     */
+    private transient volatile JwksTokenVerifier tokenVerifier;
+
+    /**
+     * Requests that skip the filters of this realm, see {@link #getFilterBypass()}
+     */
+    private transient volatile OicFilterBypass filterBypass;
+
+    /**
+     * API tokens recently accepted without an OpenID Connect session, see {@link #getApiTokenVerificationCache()}
+     */
+    private transient volatile ApiTokenVerificationCache apiTokenVerificationCache;
+
+    /**
+     * The authorities last determined for each user, see {@link #getRefreshedAuthorities()}
+     */
+    private transient volatile Map<String, List<GrantedAuthority>> refreshedAuthorities;
+
+    /**
+     * The warm up of this realm after a restart, see {@link #getWarmUp()}
+     */
+    private transient volatile OicWarmUp warmUp;
+
+    /**
+     * The pac4j clients of the login and of the refresh token flows, see {@link #getOidcClient(boolean)}
+     */
+    private transient volatile CachedOidcClient loginOidcClient;
+
+    private transient volatile CachedOidcClient refreshOidcClient;
+
+    /**
+     * Bumped by the setters of the settings the pac4j clients are built from, so that they are built again
+     */
+    private transient volatile long oidcClientVersion;
+
+    /**
+     * The client of the realm that is currently in use, so that its connections are released when a reconfiguration
+     * replaces the realm.
+     */
+    private static final AtomicReference<AuthorizationServiceClient> ACTIVE_AUTHORIZATION_SERVICE_CLIENT =
+            new AtomicReference<>();
+
+    /** Time left to the requests still using the client of a replaced realm before its connections are released */
+    @SuppressWarnings("boxing")
+    private static final long AUTHORIZATION_CLIENT_CLOSE_DELAY_SECONDS =
+            SystemProperties.getLong("OIC_AUTHORIZATION_CLIENT_CLOSE_DELAY_SECONDS", 60L);
+
     @SuppressFBWarnings(value = "SE_BAD_FIELD", justification = "we are not using standard serialization")
     private List<LoginQueryParameter> loginQueryParameters;
 
@@ -450,6 +538,7 @@ public class OicSecurityRealm extends SecurityRealm implements Serializable {
     @DataBoundSetter
     public void setLoginQueryParameters(List<LoginQueryParameter> values) {
         this.loginQueryParameters = values;
+        invalidateOidcClients();
     }
 
     public List<LoginQueryParameter> getLoginQueryParameters() {
@@ -590,14 +679,204 @@ public class OicSecurityRealm extends SecurityRealm implements Serializable {
     public void createProxyAwareResourceRetriver() {
         proxyAwareResourceRetriever =
                 ProxyAwareResourceRetriever.createProxyAwareResourceRetriver(isDisableSslVerification());
+        invalidateOidcClients();
     }
 
     ProxyAwareResourceRetriever getResourceRetriever() {
         return proxyAwareResourceRetriever;
     }
 
-    private OidcConfiguration buildOidcConfiguration() {
-        // TODO cache this and use the well known if available.
+    /**
+     * The cache of external authorization decisions, scoped to this realm so that a reconfiguration starts afresh.
+     */
+    @Restricted(NoExternalUse.class)
+    public AuthorizationDecisionCache getAuthorizationDecisionCache() {
+        AuthorizationDecisionCache cache = authorizationDecisionCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = authorizationDecisionCache;
+                if (cache == null) {
+                    cache = new AuthorizationDecisionCache();
+                    authorizationDecisionCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * The client of the external authorization service, built once per realm from
+     * {@link #getExternalAuthServiceUrl()}. Saving the security configuration creates a new realm and hence a new
+     * client, the client of the replaced realm is closed once the requests in flight are done with it.
+     */
+    @Restricted(NoExternalUse.class)
+    public AuthorizationServiceClient getAuthorizationServiceClient() {
+        AuthorizationServiceClient client = authorizationServiceClient;
+        if (client == null) {
+            synchronized (this) {
+                client = authorizationServiceClient;
+                if (client == null) {
+                    client = new AuthorizationServiceClient(externalAuthServiceUrl);
+                    authorizationServiceClient = client;
+                    AuthorizationServiceClient previous = ACTIVE_AUTHORIZATION_SERVICE_CLIENT.getAndSet(client);
+                    if (previous != null) {
+                        // 旧realm的请求可能还在用这个client，过一段时间再关闭
+                        Timer.get()
+                                .schedule(previous::close, AUTHORIZATION_CLIENT_CLOSE_DELAY_SECONDS, TimeUnit.SECONDS);
+                    }
+                }
+            }
+        }
+        return client;
+    }
+
+    /**
+     * The API tokens recently accepted by {@link #handleTokenExpiration}, scoped to this realm.
+     */
+    @Restricted(NoExternalUse.class)
+    public ApiTokenVerificationCache getApiTokenVerificationCache() {
+        ApiTokenVerificationCache cache = apiTokenVerificationCache;
+        if (cache == null) {
+            synchronized (this) {
+                cache = apiTokenVerificationCache;
+                if (cache == null) {
+                    cache = new ApiTokenVerificationCache();
+                    apiTokenVerificationCache = cache;
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * The authorities last determined for each user, by a login or a refresh of its credentials, keyed by
+     * {@link IdStrategy#keyFor}. A refresh in the background can not reach the sessions of the user, so its requests
+     * pick them up, see {@link #applyRefreshedAuthorities}.
+     */
+    private Map<String, List<GrantedAuthority>> getRefreshedAuthorities() {
+        Map<String, List<GrantedAuthority>> authorities = refreshedAuthorities;
+        if (authorities == null) {
+            synchronized (this) {
+                authorities = refreshedAuthorities;
+                if (authorities == null) {
+                    authorities = new ConcurrentHashMap<>();
+                    refreshedAuthorities = authorities;
+                }
+            }
+        }
+        return authorities;
+    }
+
+    /**
+     * @return the circuit breaker of the external authorization service, or {@code null} if the service has not been
+     *     called since this realm was configured
+     */
+    @Restricted(NoExternalUse.class)
+    public AuthorizationCircuitBreaker getAuthorizationCircuitBreaker() {
+        AuthorizationServiceClient client = authorizationServiceClient;
+        return client == null ? null : client.getCircuitBreaker();
+    }
+
+    /**
+     * The background warm up of this realm, started once Jenkins has started.
+     */
+    @Restricted(NoExternalUse.class)
+    public OicWarmUp getWarmUp() {
+        OicWarmUp current = warmUp;
+        if (current == null) {
+            synchronized (this) {
+                current = warmUp;
+                if (current == null) {
+                    current = new OicWarmUp(this::warmUp, Clock.systemUTC());
+                    warmUp = current;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Build what the first requests would otherwise wait for: the provider metadata and keys, with the TLS sessions
+     * to the provider, then the pac4j clients. The clients need the root URL of Jenkins, so they are left to the
+     * first login when it comes from the request or is not configured.
+     * @throws Exception the first failure, after every step has been tried
+     */
+    private void warmUp() throws Exception {
+        RuntimeException failure = null;
+        try {
+            serverConfiguration.toProviderMetadata();
+            JwksTokenVerifier verifier = getTokenVerifier();
+            if (verifier != null) {
+                verifier.prefetch();
+            }
+        } catch (RuntimeException e) {
+            failure = e;
+        }
+        // 后台线程里没有请求，拿不到root url时不创建pac4j client
+        if (!rootURLFromRequest && Jenkins.get().getRootUrl() != null) {
+            try {
+                getOidcClient(false).init();
+                getOidcClient(true).init();
+            } catch (RuntimeException e) {
+                if (failure == null) {
+                    failure = e;
+                } else {
+                    failure.addSuppressed(e);
+                }
+            }
+        } else {
+            LOGGER.fine("No root URL outside of a request, the OpenID Connect clients are built on the first login");
+        }
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    /**
+     * The verifier of the signature of DCE tokens against the keys published by the provider.
+     * @return {@code null} if token verification is disabled or the provider publishes no key set
+     */
+    @Restricted(NoExternalUse.class)
+    public JwksTokenVerifier getTokenVerifier() {
+        if (isDisableTokenVerification()) {
+            return null;
+        }
+        JwksTokenVerifier verifier = tokenVerifier;
+        if (verifier == null) {
+            synchronized (this) {
+                verifier = tokenVerifier;
+                if (verifier == null) {
+                    OIDCProviderMetadata oidcProviderMetadata;
+                    try {
+                        oidcProviderMetadata = serverConfiguration.toProviderMetadata();
+                    } catch (RuntimeException e) {
+                        LOGGER.log(Level.FINE, "Provider metadata unavailable, not verifying tokens locally", e);
+                        return null;
+                    }
+                    if (oidcProviderMetadata == null || oidcProviderMetadata.getJWKSetURI() == null) {
+                        return null;
+                    }
+                    URL jwkSetUrl;
+                    try {
+                        jwkSetUrl = oidcProviderMetadata.getJWKSetURI().toURL();
+                    } catch (MalformedURLException | IllegalArgumentException e) {
+                        LOGGER.log(Level.WARNING, "Invalid JWKS URI " + oidcProviderMetadata.getJWKSetURI(), e);
+                        return null;
+                    }
+                    verifier = new JwksTokenVerifier(
+                            jwkSetUrl,
+                            oidcProviderMetadata.getIssuer() == null
+                                    ? null
+                                    : oidcProviderMetadata.getIssuer().getValue(),
+                            getResourceRetriever());
+                    tokenVerifier = verifier;
+                }
+            }
+        }
+        return verifier;
+    }
+
+    private OidcConfiguration buildOidcConfiguration(OIDCProviderMetadata oidcProviderMetadata, boolean useNonce) {
         OidcConfiguration conf = new CustomOidcConfiguration(this.isDisableSslVerification());
         conf.setClientId(clientId);
         conf.setSecret(clientSecret.getPlainText());
@@ -606,7 +885,6 @@ public class OicSecurityRealm extends SecurityRealm implements Serializable {
         // conf.setPreferredJwsAlgorithm(JWSAlgorithm.HS256);
         // set many more as needed...
 
-        OIDCProviderMetadata oidcProviderMetadata = serverConfiguration.toProviderMetadata();
         filterNonFIPS140CompliantAlgorithms(oidcProviderMetadata);
         OidcOpMetadataResolver opMetadataResolver;
         if (this.isDisableTokenVerification()) {
@@ -625,7 +903,7 @@ public class OicSecurityRealm extends SecurityRealm implements Serializable {
             // auto configuration does not need to supply scopes
             conf.setScope(oidcProviderMetadata.getScopes().toString());
         }
-        conf.setUseNonce(!this.nonceDisabled);
+        conf.setUseNonce(useNonce);
         if (allowedTokenExpirationClockSkewSeconds != null) {
             conf.setMaxClockSkew(allowedTokenExpirationClockSkewSeconds.intValue());
         }
@@ -784,12 +1062,51 @@ public class OicSecurityRealm extends SecurityRealm implements Serializable {
 
     @Restricted(NoExternalUse.class) // exposed for testing only
     protected OidcClient buildOidcClient() {
+        return getOidcClient(false);
+    }
+
+    /**
+     * The pac4j client, shared until the settings of this realm, the provider metadata or the callback URL change:
+     * building it resolves the JWKS of the provider and creates the token validator, which logins and refreshes would
+     * otherwise wait for every time.
+     * @param refresh {@code true} for the client of the refresh token flow, which only checks the nonce if
+     *     {@code checkNonceInRefreshFlow} is set
+     */
+    // 缓存构建好的client，配置版本、provider metadata或回调地址变化时才重新构建
+    private OidcClient getOidcClient(boolean refresh) {
+        long version = oidcClientVersion;
+        OIDCProviderMetadata providerMetadata = serverConfiguration.toProviderMetadata();
+        String callbackUrl = buildOAuthRedirectUrl();
+        boolean useNonce = !nonceDisabled && (!refresh || checkNonceInRefreshFlow);
+        CachedOidcClient cached = refresh ? refreshOidcClient : loginOidcClient;
+        if (cached != null && cached.isFor(version, providerMetadata, callbackUrl, useNonce)) {
+            return cached.client();
+        }
+        OidcClient client = newOidcClient(providerMetadata, callbackUrl, useNonce);
+        // 并发构建时后来的覆盖先来的，两者等价
+        cached = new CachedOidcClient(version, providerMetadata, callbackUrl, useNonce, client);
+        if (refresh) {
+            refreshOidcClient = cached;
+        } else {
+            loginOidcClient = cached;
+        }
+        LOGGER.log(Level.FINE, "Built the OpenID Connect client, version {0}", version);
+        return client;
+    }
+
+    private void invalidateOidcClients() {
+        synchronized (this) {
+            oidcClientVersion++;
+        }
+    }
+
+    private OidcClient newOidcClient(OIDCProviderMetadata providerMetadata, String callbackUrl, boolean useNonce) {
         // 这个其实一直是在build第三方库的config
-        OidcConfiguration oidcConfiguration = buildOidcConfiguration();
+        OidcConfiguration oidcConfiguration = buildOidcConfiguration(providerMetadata, useNonce);
         // 这个client也是第三方的
         OidcClient client = new OidcClient(oidcConfiguration);
         // add the extra settings for the client...
-        client.setCallbackUrl(buildOAuthRedirectUrl());
+        client.setCallbackUrl(callbackUrl);
         client.setAuthenticator(new OidcAuthenticator(oidcConfiguration, client));
         // when building the redirect URL by default pac4j adds the "client_name=DOidcClient" query parameter to the
         // redirectURL.
@@ -798,6 +1115,25 @@ public class OicSecurityRealm extends SecurityRealm implements Serializable {
         return client;
     }
 
+    /**
+     * A pac4j client and what it was built from. The provider metadata is compared by identity: the server
+     * configuration returns the same instance until it fetches or builds new metadata.
+     */
+    private record CachedOidcClient(
+            long version,
+            OIDCProviderMetadata providerMetadata,
+            String callbackUrl,
+            boolean useNonce,
+            OidcClient client) {
+
+        boolean isFor(long version, OIDCProviderMetadata providerMetadata, String callbackUrl, boolean useNonce) {
+            return this.version == version
+                    && this.providerMetadata == providerMetadata
+                    && this.callbackUrl.equals(callbackUrl)
+                    && this.useNonce == useNonce;
+        }
+    }
+
     @DataBoundSetter
     public void setUserNameField(String userNameField) {
         this.userNameField = Util.fixNull(Util.fixEmptyAndTrim(userNameField), "sub");
@@ -919,6 +1255,7 @@ public class OicSecurityRealm extends SecurityRealm implements Serializable {
     @DataBoundSetter
     public void setPkceEnabled(boolean pkceEnabled) {
         this.pkceEnabled = pkceEnabled;
+        invalidateOidcClients();
     }
 
     @DataBoundSetter
@@ -928,11 +1265,13 @@ public class OicSecurityRealm extends SecurityRealm implements Serializable {
                     Messages.OicSecurityRealm_DisableTokenVerificationFipsMode(), "disableTokenVerification");
         }
         this.disableTokenVerification = disableTokenVerification;
+        invalidateOidcClients();
     }
 
     @DataBoundSetter
     public void setNonceDisabled(boolean nonceDisabled) {
         this.nonceDisabled = nonceDisabled;
+        invalidateOidcClients();
     }
 
     @DataBoundSetter
@@ -948,6 +1287,7 @@ public class OicSecurityRealm extends SecurityRealm implements Serializable {
     @DataBoundSetter
     public void setAllowedTokenExpirationClockSkewSeconds(Long allowedTokenExpirationClockSkewSeconds) {
         this.allowedTokenExpirationClockSkewSeconds = allowedTokenExpirationClockSkewSeconds;
+        invalidateOidcClients();
     }
 
     @Override
@@ -969,24 +1309,39 @@ public class OicSecurityRealm extends SecurityRealm implements Serializable {
         // 这里的顺序不能随便改变
 
         List<Filter> filters = new ArrayList<>();
+        // 请求上下文放在最前面，后面的filter共用解析过的用户、凭证和token
+        filters.add((request, response, chain) -> {
+            OicRequestContext.of((HttpServletRequest) request);
+            chain.doFilter(request, response);
+        });
         Filter defaultFilter = super.createFilter(filterConfig);
         filters.add(defaultFilter);
 
-        if (Boolean.TRUE.equals(enableExternalAuth)) {
-            filters.add(new AuthorizationFilter());
-        }
-
         Filter refreshTokenFilter = (request, response, chain) -> {
+            HttpServletRequest httpRequest = (HttpServletRequest) request;
             if (OicSecurityRealm.this.handleTokenExpiration(
-                    (HttpServletRequest) request, (HttpServletResponse) response)) {
+                    httpRequest, (HttpServletResponse) response, OicRequestContext.of(httpRequest))) {
                 chain.doFilter(request, response);
             }
         };
 
-        filters.add(refreshTokenFilter);
+        // 静态资源和匿名请求直接跳过后面的鉴权和token刷新
+        OicFilterBypass bypass = new OicFilterBypass();
+        filterBypass = bypass;
+        filters.add(bypass.wrap(
+                Boolean.TRUE.equals(enableExternalAuth) ? new AuthorizationFilter() : null, refreshTokenFilter));
         return new ChainedServletFilter2(filters);
     }
 
+    /**
+     * @return the counters of the requests that skipped the filters of this realm, {@code null} before
+     *     {@link #createFilter} was called
+     */
+    @Restricted(NoExternalUse.class)
+    public OicFilterBypass getFilterBypass() {
+        return filterBypass;
+    }
+
     /*
      * Acegi has this notion that first an {@link Authentication} object is created
      * by collecting user information and then the act of authentication is done
@@ -1124,6 +1479,22 @@ public class OicSecurityRealm extends SecurityRealm implements Serializable {
     private UsernamePasswordAuthenticationToken loginAndSetUserData(
             String userName, JWT idToken, Map<String, Object> userInfo, OicCredentials credentials)
             throws IOException, ParseException {
+        UsernamePasswordAuthenticationToken token = setUserData(userName, idToken, userInfo, credentials);
+
+        // 将认证令牌设置到Spring安全上下文中，完成用户认证
+        SecurityContextHolder.getContext().setAuthentication(token);
+        SecurityListener.fireLoggedIn(userName);
+
+        return token;
+    }
+
+    /**
+     * Determine the authorities of the user and update its properties and credentials, without logging it in.
+     * The authorities are also recorded for {@link #applyRefreshedAuthorities}.
+     */
+    private UsernamePasswordAuthenticationToken setUserData(
+            String userName, JWT idToken, Map<String, Object> userInfo, OicCredentials credentials)
+            throws IOException, ParseException {
 
         List<GrantedAuthority> grantedAuthorities = determineAuthorities(idToken, userInfo);
         if (LOGGER.isLoggable(Level.FINEST)) {
@@ -1139,9 +1510,6 @@ public class OicSecurityRealm extends SecurityRealm implements Serializable {
         UsernamePasswordAuthenticationToken token =
                 new UsernamePasswordAuthenticationToken(userName, "", grantedAuthorities);
 
-        // 将认证令牌设置到Spring安全上下文中，完成用户认证
-        SecurityContextHolder.getContext().setAuthentication(token);
-
         User user = User.get2(token);
         if (user == null) {
             // should not happen
@@ -1150,35 +1518,43 @@ public class OicSecurityRealm extends SecurityRealm implements Serializable {
 
         // 后面都是在设置用户的属性。email， 全名等
         String email = determineStringField(emailFieldExpr, idToken, userInfo);
-        if (email != null) {
-            user.addProperty(new Mailer.UserProperty(email));
-        }
-
         String fullName = determineStringField(fullNameFieldExpr, idToken, userInfo);
-        if (fullName != null) {
-            user.setFullName(fullName);
-        }
-
         // Set avatar if possible
         String avatarUrl = determineStringField(avatarFieldExpr, idToken, userInfo);
-        OicAvatarProperty oicAvatarProperty;
         if (avatarUrl != null) {
             LOGGER.finest(() -> "Avatar url is: " + avatarUrl);
-            OicAvatarProperty.AvatarImage avatarImage = new OicAvatarProperty.AvatarImage(avatarUrl);
-            oicAvatarProperty = new OicAvatarProperty(avatarImage);
         } else {
             LOGGER.finest(() -> "No avatar URL found for user " + user.getId() + ". Ensure to remove existing avatar");
-            oicAvatarProperty = new OicAvatarProperty(null);
         }
-        user.addProperty(oicAvatarProperty);
 
-        // 将OIDC凭据添加到用户属性中，用于后续的令牌刷新等操作
-        user.addProperty(credentials);
+        // 所有属性作为一次修改，没有变化的不写盘
+        OicUserWriter.get().update(user, u -> {
+            boolean changed = false;
+            Mailer.UserProperty mail = u.getProperty(Mailer.UserProperty.class);
+            if (email != null
+                    && (mail == null || !mail.hasExplicitlyConfiguredAddress() || !email.equals(mail.getAddress()))) {
+                u.addProperty(new Mailer.UserProperty(email));
+                changed = true;
+            }
+            if (fullName != null && !fullName.equals(u.getFullName())) {
+                u.setFullName(fullName);
+                changed = true;
+            }
+            OicAvatarProperty avatar = u.getProperty(OicAvatarProperty.class);
+            if (avatar == null || !Objects.equals(avatarUrl, avatar.getAvatarUrl())) {
+                u.addProperty(new OicAvatarProperty(
+                        avatarUrl != null ? new OicAvatarProperty.AvatarImage(avatarUrl) : null));
+                changed = true;
+            }
+            // 将OIDC凭据添加到用户属性中，用于后续的令牌刷新等操作
+            return OicCredentialsStore.get().store(u, credentials) || changed;
+        });
+
+        getRefreshedAuthorities().put(User.idStrategy().keyFor(user.getId()), List.copyOf(grantedAuthorities));
 
         OicUserDetails userDetails = new OicUserDetails(userName, grantedAuthorities);
-        // 通知系统用户已认证和登录
+        // 通知系统用户已认证
         SecurityListener.fireAuthenticated2(userDetails);
-        SecurityListener.fireLoggedIn(userName);
 
         return token;
     }
@@ -1317,14 +1693,15 @@ public class OicSecurityRealm extends SecurityRealm implements Serializable {
 
         Assert.notNull(user, "User must not be null");
 
-        OicCredentials credentials = user.getProperty(OicCredentials.class);
+        OicCredentials credentials = OicCredentialsStore.get().load(user);
 
         if (credentials != null) {
             if (this.logoutFromOpenidProvider
                     && serverConfiguration.toProviderMetadata().getEndSessionEndpointURI() != null) {
                 // This ensures that token will be expired at the right time with API Key calls, but no refresh can be
                 // made.
-                user.addProperty(new OicCredentials(null, null, null, CLOCK.millis()));
+                OicCredentials expired = new OicCredentials(null, null, null, CLOCK.millis());
+                OicUserWriter.get().update(user, u -> OicCredentialsStore.get().store(u, expired));
             }
 
             req.setAttribute(ID_TOKEN_REQUEST_ATTRIBUTE, credentials.getIdToken());
@@ -1514,56 +1891,55 @@ public class OicSecurityRealm extends SecurityRealm implements Serializable {
      */
     public boolean handleTokenExpiration(HttpServletRequest httpRequest, HttpServletResponse httpResponse)
             throws IOException {
+        return handleTokenExpiration(httpRequest, httpResponse, new OicRequestContext(httpRequest));
+    }
+
+    /**
+     * Handles Token Expiration, with the user and credentials already resolved for the request.
+     * @throws IOException a low level exception
+     */
+    boolean handleTokenExpiration(
+            HttpServletRequest httpRequest, HttpServletResponse httpResponse, OicRequestContext context)
+            throws IOException {
         if (httpRequest.getRequestURI().endsWith("/logout")) {
             // No need to refresh token when logging out
             return true;
         }
 
-        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
-        User user = User.get2(authentication);
+        User user = context.getUser();
         if (user == null) {
             return true;
         }
 
         if (isAllowTokenAccessWithoutOicSession()) {
             // check if this is a valid api token based request
-            String authHeader = httpRequest.getHeader("Authorization");
-
-            if (authHeader != null && authHeader.startsWith("Basic ")) {
-                String token = authHeader.replace("Basic ", "");
-                String[] split = org.apache.commons.lang3.StringUtils.split(token, ".");
-                if (split.length == 3) {
-                    // 说明是来自DCE的jwt
-                    String from = httpRequest.getHeader(OicConstants.CUSTOM_SOURCE_HEADER);
-                    if (from != null && from.equals(OicConstants.CUSTOM_SOURCE_HEADER_VALUE) && Boolean.TRUE.equals(enableExternalAuth)) {
-                        // 这里是DCE的token，直接返回true
-                        return true;
-                    }
-                } else {
-                    // jenkins的 token, user/pass 的token 是 base64("username:apitoken") 这样的形式
-                    String decodeToken = new String(Base64.getDecoder().decode(token), StandardCharsets.UTF_8).split(":")[1];
-                    ApiTokenProperty apiTokenProperty = user.getProperty(ApiTokenProperty.class);
-                    if (apiTokenProperty != null && apiTokenProperty.matchesPassword(decodeToken)) {
-                        // this was a valid jenkins token being used, exit this filter and let
-                        // the rest of chain be processed
-                        return true;
-                    } // else do nothing and continue evaluating this request
+            AuthorizationHeader authHeader = context.getAuthorizationHeader();
+            if (authHeader.getKind() == AuthorizationHeader.Kind.DCE_TOKEN) {
+                String from = httpRequest.getHeader(OicConstants.CUSTOM_SOURCE_HEADER);
+                if (from != null && from.equals(OicConstants.CUSTOM_SOURCE_HEADER_VALUE) && Boolean.TRUE.equals(enableExternalAuth)) {
+                    // 这里是DCE的token，直接返回true
+                    return true;
                 }
-            }
+            } else if (authHeader.getKind() == AuthorizationHeader.Kind.BASIC && isValidApiToken(user, authHeader)) {
+                // this was a valid jenkins token being used, exit this filter and let
+                // the rest of chain be processed
+                return true;
+            } // else do nothing and continue evaluating this request
         }
 
-        OicCredentials credentials = user.getProperty(OicCredentials.class);
+        OicCredentials credentials = context.getCredentials();
 
         if (credentials == null) {
             return true;
         }
+        // 记录活跃用户，由后台任务在token过期前提前刷新
+        OicTokenRefreshWork.touch(user.getId());
+        applyRefreshedAuthorities(user);
 
         if (isExpired(credentials)) {
-            if (serverConfiguration.toProviderMetadata().getGrantTypes() != null
-                    && serverConfiguration.toProviderMetadata().getGrantTypes().contains(GrantType.REFRESH_TOKEN)
-                    && !Strings.isNullOrEmpty(credentials.getRefreshToken())) {
+            if (isRefreshTokenGrantSupported() && !Strings.isNullOrEmpty(credentials.getRefreshToken())) {
                 LOGGER.log(Level.FINEST, "Attempting to refresh credential for user: {0}", user.getId());
-                boolean retVal = refreshExpiredToken(user.getId(), credentials, httpRequest, httpResponse);
+                boolean retVal = refreshExpiredTokenOnce(user, credentials, httpRequest, httpResponse);
                 LOGGER.log(Level.FINEST, "Refresh credential for user returned {0}", retVal);
                 return retVal;
             } else if (!isTokenExpirationCheckDisabled()) {
@@ -1575,6 +1951,42 @@ public class OicSecurityRealm extends SecurityRealm implements Serializable {
         return true;
     }
 
+    /**
+     * Replace the authorities of the current request, and so of its session, by the ones last determined for the user,
+     * if they differ, so that a group removed at the provider and seen by a refresh in the background is not kept for
+     * the rest of the session.
+     */
+    private void applyRefreshedAuthorities(User user) {
+        List<GrantedAuthority> refreshed = getRefreshedAuthorities().get(User.idStrategy().keyFor(user.getId()));
+        Authentication authentication = SecurityContextHolder.getContext().getAuthentication();
+        if (refreshed == null
+                || !(authentication instanceof UsernamePasswordAuthenticationToken)
+                || !User.idStrategy().equals(authentication.getName(), user.getId())
+                || new HashSet<>(authentication.getAuthorities()).equals(new HashSet<>(refreshed))) {
+            return;
+        }
+        LOGGER.log(Level.FINE, "Updating the authorities of {0} to {1}", new Object[] {user.getId(), refreshed});
+        SecurityContextHolder.getContext()
+                .setAuthentication(new UsernamePasswordAuthenticationToken(authentication.getName(), "", refreshed));
+    }
+
+    /**
+     * @return {@code true} if the password of the Basic header is an API token of the user, verified recently or now
+     */
+    private boolean isValidApiToken(User user, AuthorizationHeader authHeader) {
+        ApiTokenVerificationCache cache = getApiTokenVerificationCache();
+        String tokenDigest = JwtUtils.digest(authHeader.getPassword());
+        if (cache.isVerified(user.getId(), tokenDigest)) {
+            return true;
+        }
+        ApiTokenProperty apiTokenProperty = user.getProperty(ApiTokenProperty.class);
+        if (apiTokenProperty != null && apiTokenProperty.matchesPassword(authHeader.getPassword())) {
+            cache.verified(user.getId(), tokenDigest);
+            return true;
+        }
+        return false;
+    }
+
     private void redirectToLoginUrl(HttpServletRequest req, HttpServletResponse res) throws IOException {
         if (req != null && (req.getSession(false) != null || Strings.isNullOrEmpty(req.getHeader("Authorization")))) {
             req.getSession().invalidate();
@@ -1584,6 +1996,192 @@ public class OicSecurityRealm extends SecurityRealm implements Serializable {
         }
     }
 
+    private boolean isRefreshTokenGrantSupported() {
+        OIDCProviderMetadata oidcProviderMetadata = serverConfiguration.toProviderMetadata();
+        return oidcProviderMetadata.getGrantTypes() != null
+                && oidcProviderMetadata.getGrantTypes().contains(GrantType.REFRESH_TOKEN);
+    }
+
+    /**
+     * Refresh the credentials of a user outside of any request, shortly before they expire, so that requests do not
+     * wait for the provider. Like {@link #refreshExpiredToken} this reads the userinfo again and determines the
+     * authorities of the user, which its next request applies to its session. Unlike it, this neither logs the user in
+     * again nor answers a request: when the credentials can not be refreshed they are left as they are, and the next
+     * request after they expire refreshes them or sends the user back to the login page.
+     * @return the refreshed credentials, {@code null} if they were not refreshed
+     */
+    OicCredentials refreshCredentialsInBackground(User user, OicCredentials credentials) {
+        if (Strings.isNullOrEmpty(credentials.getRefreshToken()) || !isRefreshTokenGrantSupported()) {
+            return null;
+        }
+        RefreshOutcome outcome;
+        try {
+            outcome = TOKEN_REFRESHES.execute(User.idStrategy().keyFor(user.getId()), () -> {
+                if (!credentials.equals(OicCredentialsStore.get().load(user))) {
+                    // 已经被用户请求刷新过了
+                    return RefreshOutcome.REFRESHED;
+                }
+                return doRefreshCredentialsInBackground(user, credentials) != null
+                        ? RefreshOutcome.REFRESHED
+                        : RefreshOutcome.SKIPPED;
+            });
+        } catch (ExecutionException e) {
+            LOGGER.log(Level.FINE, "Failed to refresh the credentials of " + user.getId() + " in the background", e);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+        return outcome == RefreshOutcome.REFRESHED ? OicCredentialsStore.get().load(user) : null;
+    }
+
+    private OicCredentials doRefreshCredentialsInBackground(User user, OicCredentials credentials) {
+        try {
+            OidcClient client = getOidcClient(true);
+            client.init();
+            org.pac4j.oidc.credentials.OidcCredentials refreshed = new org.pac4j.oidc.credentials.OidcCredentials();
+            refreshed.setRefreshTokenObject(new RefreshToken(credentials.getRefreshToken()));
+            ((OidcAuthenticator) client.getAuthenticator()).refresh(refreshed);
+
+            AccessToken accessToken = refreshed.toAccessToken();
+            if (accessToken == null) {
+                return null;
+            }
+            JWT idToken = refreshed.toIdToken();
+            if (idToken != null) {
+                // 没有经过pac4j的profile creator，新的id token需要自己校验
+                client.getConfiguration().getOpMetadataResolver().getTokenValidator().validate(idToken, null);
+            } else {
+                idToken = JWTParser.parse(credentials.getIdToken());
+            }
+            // 和请求路径一样重新读取userinfo，IdP上组的变化在会话期间也能生效
+            Map<String, Object> userInfo = fetchUserInfo(client, accessToken);
+            String username = determineStringField(userNameFieldExpr, idToken, userInfo);
+            if (!User.idStrategy().equals(user.getId(), username)) {
+                LOGGER.log(
+                        Level.FINE,
+                        "Not refreshing credentials of {0}, user name {1} does not match",
+                        new Object[] {user.getId(), username});
+                return null;
+            }
+            if (failedCheckOfTokenField(idToken)) {
+                return null;
+            }
+            RefreshToken refreshToken = Objects.requireNonNullElse(
+                    refreshed.toRefreshToken(), new RefreshToken(credentials.getRefreshToken()));
+
+            OicCredentials refreshedCredentials = new OicCredentials(
+                    accessToken.getValue(),
+                    idToken.getParsedString(),
+                    refreshToken.getValue(),
+                    accessToken.getLifetime(),
+                    CLOCK.millis(),
+                    getAllowedTokenExpirationClockSkewSeconds());
+            // 不登录，只更新用户属性、凭据和权限，权限由用户的下一个请求带到会话中
+            setUserData(user.getId(), idToken, userInfo, refreshedCredentials);
+            return refreshedCredentials;
+        } catch (Exception e) {
+            // 后台刷新失败不影响用户，过期后由请求路径按原有逻辑处理
+            LOGGER.log(Level.FINE, "Failed to refresh the credentials of " + user.getId() + " in the background", e);
+            return null;
+        }
+    }
+
+    /**
+     * Call the userinfo endpoint of the provider, as pac4j does when it renews the profile of a request.
+     * @return the claims of the user, {@code null} if the provider has no userinfo endpoint
+     */
+    @CheckForNull
+    private Map<String, Object> fetchUserInfo(OidcClient client, AccessToken accessToken)
+            throws IOException, ParseException, com.nimbusds.oauth2.sdk.ParseException {
+        URI userInfoEndpoint =
+                client.getConfiguration().getOpMetadataResolver().load().getUserInfoEndpointURI();
+        if (userInfoEndpoint == null) {
+            return null;
+        }
+        HTTPRequest httpRequest =
+                new UserInfoRequest(userInfoEndpoint, new BearerAccessToken(accessToken.getValue())).toHTTPRequest();
+        client.getConfiguration().configureHttpRequest(httpRequest);
+        UserInfoResponse response = UserInfoResponse.parse(httpRequest.send());
+        if (!response.indicatesSuccess()) {
+            throw new IOException("Failed to get the user info: "
+                    + response.toErrorResponse().getErrorObject().getCode());
+        }
+        UserInfoSuccessResponse success = response.toSuccessResponse();
+        if (success.getUserInfo() != null) {
+            return success.getUserInfo().toJSONObject();
+        }
+        return success.getUserInfoJWT().getJWTClaimsSet().getClaims();
+    }
+
+    /**
+     * Refresh expired credentials, coalescing the refreshes of the parallel requests of a user: one request refreshes
+     * them and the others wait for it, up to {@code OIC_TOKEN_REFRESH_WAIT_MS}, then use the refreshed credentials.
+     */
+    private boolean refreshExpiredTokenOnce(
+            User user, OicCredentials credentials, HttpServletRequest httpRequest, HttpServletResponse httpResponse)
+            throws IOException {
+        String key = User.idStrategy().keyFor(user.getId());
+        // 后台刷新放弃时由当前请求自己再刷新一次
+        for (int attempt = 0; attempt < 2; attempt++) {
+            AtomicBoolean refreshedHere = new AtomicBoolean();
+            RefreshOutcome outcome;
+            try {
+                outcome = TOKEN_REFRESHES.execute(
+                        key,
+                        () -> {
+                            refreshedHere.set(true);
+                            // 可能在进入之前别的请求刚刚刷新完
+                            OicCredentials current = OicCredentialsStore.get().load(user);
+                            if (current != null && !current.equals(credentials) && !isExpired(current)) {
+                                return RefreshOutcome.REFRESHED;
+                            }
+                            return refreshExpiredToken(
+                                            user.getId(),
+                                            current != null ? current : credentials,
+                                            httpRequest,
+                                            httpResponse)
+                                    ? RefreshOutcome.REFRESHED
+                                    : RefreshOutcome.FAILED;
+                        },
+                        TOKEN_REFRESH_WAIT_MS,
+                        TimeUnit.MILLISECONDS);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException ioException) {
+                    throw ioException;
+                }
+                if (e.getCause() instanceof RuntimeException runtimeException) {
+                    throw runtimeException;
+                }
+                throw new IOException(e.getCause());
+            } catch (InterruptedException | TimeoutException e) {
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
+                LOGGER.log(Level.WARNING, "Gave up waiting for the credentials of {0} to be refreshed", user.getId());
+                httpResponse.sendError(
+                        HttpServletResponse.SC_UNAUTHORIZED, Messages.OicSecurityRealm_TokenRefreshFailure());
+                return false;
+            }
+            if (refreshedHere.get()) {
+                return outcome == RefreshOutcome.REFRESHED;
+            }
+            LOGGER.log(Level.FINEST, "Waited for the refresh of the credentials of {0}: {1}", new Object[] {
+                user.getId(), outcome
+            });
+            if (outcome == RefreshOutcome.REFRESHED) {
+                return true;
+            }
+            if (outcome == RefreshOutcome.FAILED) {
+                httpResponse.sendError(
+                        HttpServletResponse.SC_UNAUTHORIZED, Messages.OicSecurityRealm_TokenRefreshFailure());
+                return false;
+            }
+        }
+        httpResponse.sendError(HttpServletResponse.SC_UNAUTHORIZED, Messages.OicSecurityRealm_TokenRefreshFailure());
+        return false;
+    }
+
     public boolean isExpired(OicCredentials credentials) {
         if (credentials.getExpiresAtMillis() == null) {
             return false;
@@ -1603,15 +2201,14 @@ public class OicSecurityRealm extends SecurityRealm implements Serializable {
         FrameworkParameters parameters = new JEEFrameworkParameters(httpRequest, httpResponse);
         WebContext webContext = JEEContextFactory.INSTANCE.newContext(parameters);
         SessionStore sessionStore = JEESessionStoreFactory.INSTANCE.newSessionStore(parameters);
-        OidcClient client = buildOidcClient();
+        OidcClient client = getOidcClient(true);
         // PAC4J maintains the nonce even though servers should not respond with an id token containing the nonce
         // https://openid.net/specs/openid-connect-core-1_0.html#RefreshTokenResponse
         // it SHOULD NOT have a nonce Claim, even when the ID Token issued at the time of the original authentication
         // contained nonce;
         // however, if it is present, its value MUST be the same as in the ID Token issued at the time of the original
         // authentication
-        // by default we will strip out the nonce unless the user has opted into it.
-        client.getConfiguration().setUseNonce(!nonceDisabled && checkNonceInRefreshFlow);
+        // by default we will strip out the nonce unless the user has opted into it, hence a client of its own.
         try {
             OidcProfile profile = new OidcProfile();
             profile.setAccessToken(new BearerAccessToken(credentials.getAccessToken()));
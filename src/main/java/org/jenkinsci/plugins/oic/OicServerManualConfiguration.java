@@ -49,6 +49,15 @@ public class OicServerManualConfiguration extends OicServerConfiguration {
     private boolean useRefreshTokens;
     private String issuer;
 
+    /**
+     * The metadata built from this configuration, kept so that the realm keeps its client cached, see
+     * {@link #toProviderMetadata()}
+     */
+    private transient volatile OIDCProviderMetadata providerMetadata;
+
+    /** whether {@link #providerMetadata} was built for FIPS-140 */
+    private transient volatile boolean providerMetadataFips;
+
     @DataBoundConstructor
     public OicServerManualConfiguration(String issuer, String tokenServerUrl, String authorizationServerUrl)
             throws FormException {
@@ -60,31 +69,37 @@ public class OicServerManualConfiguration extends OicServerConfiguration {
     @DataBoundSetter
     public void setTokenAuthMethod(TokenAuthMethod tokenAuthMethod) throws FormException {
         this.tokenAuthMethod = validateNonNull("tokenAuthMethod", tokenAuthMethod);
+        this.providerMetadata = null;
     }
 
     @DataBoundSetter
     public void setEndSessionUrl(@Nullable String endSessionUrl) {
         this.endSessionUrl = Util.fixEmptyAndTrim(endSessionUrl);
+        this.providerMetadata = null;
     }
 
     @DataBoundSetter
     public void setJwksServerUrl(@Nullable String jwksServerUrl) {
         this.jwksServerUrl = Util.fixEmptyAndTrim(jwksServerUrl);
+        this.providerMetadata = null;
     }
 
     @DataBoundSetter
     public void setScopes(@NonNull String scopes) {
         this.scopes = Objects.requireNonNull(scopes);
+        this.providerMetadata = null;
     }
 
     @DataBoundSetter
     public void setUserInfoServerUrl(@Nullable String userInfoServerUrl) {
         this.userInfoServerUrl = Util.fixEmptyAndTrim(userInfoServerUrl);
+        this.providerMetadata = null;
     }
 
     @DataBoundSetter
     public void setUseRefreshTokens(boolean useRefreshTokens) {
         this.useRefreshTokens = useRefreshTokens;
+        this.providerMetadata = null;
     }
 
     public String getAuthorizationServerUrl() {
@@ -123,8 +138,23 @@ public class OicServerManualConfiguration extends OicServerConfiguration {
         return userInfoServerUrl;
     }
 
+    /**
+     * Build the provider metadata from this configuration, once: the same instance is returned until a setter
+     * changes the configuration or the FIPS-140 mode changes.
+     */
     @Override
     public OIDCProviderMetadata toProviderMetadata() {
+        boolean fips = FIPS140.useCompliantAlgorithms();
+        OIDCProviderMetadata built = this.providerMetadata;
+        if (built == null || providerMetadataFips != fips) {
+            built = buildProviderMetadata();
+            this.providerMetadataFips = fips;
+            this.providerMetadata = built;
+        }
+        return built;
+    }
+
+    private OIDCProviderMetadata buildProviderMetadata() {
         try {
             final OIDCProviderMetadata providerMetadata;
             if (jwksServerUrl == null) {
@@ -2,12 +2,10 @@ package org.jenkinsci.plugins.oic;
 
 import com.nimbusds.jose.Algorithm;
 import com.nimbusds.jose.JWSAlgorithm;
-import com.nimbusds.jose.util.ResourceRetriever;
 import com.nimbusds.oauth2.sdk.ParseException;
 import com.nimbusds.oauth2.sdk.Scope;
 import com.nimbusds.oauth2.sdk.auth.ClientAuthenticationMethod;
 import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
-import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.Extension;
 import hudson.RelativePath;
 import hudson.Util;
@@ -16,14 +14,9 @@ import hudson.util.FormValidation;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.net.URL;
-import java.net.http.HttpHeaders;
-import java.time.LocalDateTime;
-import java.time.ZonedDateTime;
-import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Objects;
-import java.util.Optional;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
@@ -46,12 +39,7 @@ public class OicServerWellKnownConfiguration extends OicServerConfiguration {
     private final String wellKnownOpenIDConfigurationUrl;
     private String scopesOverride;
 
-    /**
-     * Time of the wellknown configuration expiration
-     */
-    private transient LocalDateTime wellKnownExpires = null;
-
-    private transient volatile OIDCProviderMetadata oidcProviderMetadata;
+    private transient volatile ProviderMetadataHolder providerMetadataHolder;
 
     @DataBoundConstructor
     public OicServerWellKnownConfiguration(String wellKnownOpenIDConfigurationUrl) {
@@ -61,6 +49,7 @@ public class OicServerWellKnownConfiguration extends OicServerConfiguration {
     @DataBoundSetter
     public void setScopesOverride(String scopesOverride) {
         this.scopesOverride = Util.fixEmptyAndTrim(scopesOverride);
+        providerMetadataHolder = null;
     }
 
     public String getScopesOverride() {
@@ -71,112 +60,130 @@ public class OicServerWellKnownConfiguration extends OicServerConfiguration {
         return wellKnownOpenIDConfigurationUrl;
     }
 
+    /**
+     * Start from the copy of the document in the {@link ProviderDocumentSnapshot}, if any, so that logins do not wait
+     * for the provider after a restart.
+     */
+    protected Object readResolve() {
+        ProviderDocumentSnapshot snapshot = ProviderDocumentSnapshot.get();
+        ProviderDocumentSnapshot.Document document =
+                snapshot == null ? null : snapshot.get(wellKnownOpenIDConfigurationUrl);
+        if (document != null) {
+            try {
+                ProviderMetadataHolder holder = new ProviderMetadataHolder(this::loadProviderMetadata);
+                holder.seed(postProcess(OIDCProviderMetadata.parse(document.content())), document.fetchedAtMillis());
+                providerMetadataHolder = holder;
+            } catch (ParseException e) {
+                LOGGER.log(Level.WARNING, "Ignoring the unparsable snapshot of the wellknown OpenID Configuration", e);
+            }
+        }
+        return this;
+    }
+
     @Restricted(DoNotUse.class) // for testing only
     void invalidateProviderMetadata() {
-        oidcProviderMetadata = null;
+        providerMetadataHolder = null;
+    }
+
+    /**
+     * @return the current snapshot of the provider metadata, {@code null} if it has not been loaded
+     */
+    @Restricted(DoNotUse.class) // for testing only
+    ProviderMetadataHolder.Snapshot getProviderMetadataSnapshot() {
+        ProviderMetadataHolder holder = providerMetadataHolder;
+        return holder == null ? null : holder.getSnapshot();
     }
 
     /**
-     * Obtain the provider configuration from the configured well known URL if it
-     * has not yet been obtained or requires a refresh.
+     * Obtain the provider configuration from the configured well known URL. Only the first call waits for the
+     * download, later calls get the last downloaded copy while it is refreshed in the background, see
+     * {@link ProviderMetadataHolder}.
      */
     @Override
     public OIDCProviderMetadata toProviderMetadata() {
         // we perform this download manually rather than letting pac4j perform it
         // so that we can cache and expire the result.
         // pac4j will cache the result yet never expire it.
-        LocalDateTime now = LocalDateTime.now();
-        if (this.wellKnownExpires != null && this.wellKnownExpires.isBefore(now)) {
-            // configuration is still fresh
-            return oidcProviderMetadata;
+        ProviderMetadataHolder holder = providerMetadataHolder;
+        if (holder == null) {
+            synchronized (this) {
+                holder = providerMetadataHolder;
+                if (holder == null) {
+                    holder = new ProviderMetadataHolder(this::loadProviderMetadata);
+                    providerMetadataHolder = holder;
+                }
+            }
         }
+        // the same instance is returned until it is refreshed, which keeps the client of the realm cached
+        return holder.get();
+    }
 
+    private ProviderMetadataHolder.Loaded loadProviderMetadata() throws IOException, ParseException {
         // Download OIDC metadata
         // we need to configure timeouts, headers as well as SSL (hostname verifier etc..)
         // which may be disabled in the configuration
-        ResourceRetriever rr = ((OicSecurityRealm) (Jenkins.get().getSecurityRealm())).getResourceRetriever();
+        ProxyAwareResourceRetriever rr =
+                ((OicSecurityRealm) (Jenkins.get().getSecurityRealm())).getResourceRetriever();
+        ProxyAwareResourceRetriever.Response response;
+        OIDCProviderMetadata _oidcProviderMetadata;
         try {
-            OIDCProviderMetadata _oidcProviderMetadata =
-                    OIDCProviderMetadata.parse(rr.retrieveResource(new URL(wellKnownOpenIDConfigurationUrl))
-                            .getContent());
-            String _scopesOverride = getScopesOverride();
-            if (_scopesOverride != null) {
-                // split the scopes by space
-                String[] splitScopes = _scopesOverride.split("\\s+");
-                _oidcProviderMetadata.setScopes(new Scope(splitScopes));
-            }
-            // we do not expose enough to be able to configure all authentication methods,
-            // so limit supported auth methods to CLIENT_SECRET_BASIC / CLIENT_SECRET_POST
-            List<ClientAuthenticationMethod> tokenEndpointAuthMethods =
-                    _oidcProviderMetadata.getTokenEndpointAuthMethods();
-            if (tokenEndpointAuthMethods != null) {
-                List<ClientAuthenticationMethod> filteredEndpointAuthMethods =
-                        new ArrayList<>(tokenEndpointAuthMethods);
-                filteredEndpointAuthMethods.removeIf(cam -> cam != ClientAuthenticationMethod.CLIENT_SECRET_BASIC
-                        && cam != ClientAuthenticationMethod.CLIENT_SECRET_POST);
-                if (filteredEndpointAuthMethods.isEmpty()) {
-                    LOGGER.log(
-                            Level.WARNING,
-                            "OIDC well-known configuration reports only unsupported token authentication methods (authentication may not work): "
-                                    + tokenEndpointAuthMethods.stream()
-                                            .map(Object::toString)
-                                            .collect(Collectors.joining(",", "[", "]")));
-                    _oidcProviderMetadata.setTokenEndpointAuthMethods(null);
-                } else {
-                    _oidcProviderMetadata.setTokenEndpointAuthMethods(filteredEndpointAuthMethods);
-                }
-            }
-            // do not allow the "none" singing algorithm for security
-            List<JWSAlgorithm> idTokenJWSAlgs = _oidcProviderMetadata.getIDTokenJWSAlgs();
-            if (idTokenJWSAlgs != null && idTokenJWSAlgs.contains(Algorithm.NONE)) {
-                ArrayList<JWSAlgorithm> _idTokenJWSAlgs = new ArrayList<>(idTokenJWSAlgs);
-                _idTokenJWSAlgs.remove(Algorithm.NONE);
-                _oidcProviderMetadata.setIDTokenJWSAlgs(_idTokenJWSAlgs);
+            response = rr.retrieveResourceWithHeaders(new URL(wellKnownOpenIDConfigurationUrl));
+            ProviderMetadataHolder holder = providerMetadataHolder;
+            ProviderMetadataHolder.Snapshot previous = holder == null ? null : holder.getSnapshot();
+            if (response.notModified() && previous != null) {
+                // unchanged, keep the same instance so that the client of the realm stays cached
+                return new ProviderMetadataHolder.Loaded(
+                        previous.metadata(), response.getHeader("Cache-Control"), response.getHeader("Expires"));
             }
-            oidcProviderMetadata = _oidcProviderMetadata;
-            // we have no access to the HTTP Headers to be able to find a expirey headers.
-            // for now use the default expirey of 1hr.
-            // we are already calling HTTP endpoints as part of the flow, so making one extra call an hour
-            // should not cause any issues.
-            // once this is validate, the OicSecurityRealm can be simplified to cache the built client
-            // and have a periodic task to invalidate it when auto config is being used.
-            setWellKnownExpires(null);
-            return oidcProviderMetadata;
+            _oidcProviderMetadata = postProcess(OIDCProviderMetadata.parse(response.resource().getContent()));
         } catch (MalformedURLException e) {
             LOGGER.log(Level.SEVERE, "Invalid WellKnown OpenID Configuration URL", e);
+            throw e;
         } catch (ParseException e) {
             LOGGER.log(Level.SEVERE, "Could not parse wellknown OpenID Configuration", e);
+            throw e;
         } catch (IOException e) {
             LOGGER.log(Level.SEVERE, "Error while loading wellknown OpenID Configuration", e);
+            throw e;
         }
-        if (oidcProviderMetadata != null) {
-            // return the previously downloaded but expired copy with the hope it still works.
-            // although if the well known url is down it is unlikely the rest of the provider is healthy, still. we can
-            // hope.
-            return oidcProviderMetadata;
-        }
-        throw new IllegalStateException("Well known configuration could not be loaded, login can not proceed.");
+        return new ProviderMetadataHolder.Loaded(
+                _oidcProviderMetadata, response.getHeader("Cache-Control"), response.getHeader("Expires"));
     }
 
-    /**
-     * Parse headers to determine expiration date.
-     * Sets the expiry time to 1 hour from the current time if the header is not available.
-     */
-    private void setWellKnownExpires(@CheckForNull HttpHeaders headers) {
-        Optional<String> expires = headers == null ? Optional.empty() : headers.firstValue("Expires");
-        // expires 0 means no cache
-        // we could (should?) have a look at Cache-Control header and max-age but for
-        // simplicity we can just leave it default TTL 1h refresh which sounds reasonable for such file
-        if (expires.isPresent() && !"0".equals(expires.get())) {
-            ZonedDateTime zdt = ZonedDateTime.parse(expires.get(), DateTimeFormatter.RFC_1123_DATE_TIME);
-            if (zdt != null) {
-                this.wellKnownExpires = zdt.toLocalDateTime();
-                return;
+    private OIDCProviderMetadata postProcess(OIDCProviderMetadata _oidcProviderMetadata) {
+        String _scopesOverride = getScopesOverride();
+        if (_scopesOverride != null) {
+            // split the scopes by space
+            String[] splitScopes = _scopesOverride.split("\\s+");
+            _oidcProviderMetadata.setScopes(new Scope(splitScopes));
+        }
+        // we do not expose enough to be able to configure all authentication methods,
+        // so limit supported auth methods to CLIENT_SECRET_BASIC / CLIENT_SECRET_POST
+        List<ClientAuthenticationMethod> tokenEndpointAuthMethods = _oidcProviderMetadata.getTokenEndpointAuthMethods();
+        if (tokenEndpointAuthMethods != null) {
+            List<ClientAuthenticationMethod> filteredEndpointAuthMethods = new ArrayList<>(tokenEndpointAuthMethods);
+            filteredEndpointAuthMethods.removeIf(cam -> cam != ClientAuthenticationMethod.CLIENT_SECRET_BASIC
+                    && cam != ClientAuthenticationMethod.CLIENT_SECRET_POST);
+            if (filteredEndpointAuthMethods.isEmpty()) {
+                LOGGER.log(
+                        Level.WARNING,
+                        "OIDC well-known configuration reports only unsupported token authentication methods (authentication may not work): "
+                                + tokenEndpointAuthMethods.stream()
+                                        .map(Object::toString)
+                                        .collect(Collectors.joining(",", "[", "]")));
+                _oidcProviderMetadata.setTokenEndpointAuthMethods(null);
+            } else {
+                _oidcProviderMetadata.setTokenEndpointAuthMethods(filteredEndpointAuthMethods);
             }
         }
-
-        // default to 1 hour refresh
-        this.wellKnownExpires = LocalDateTime.now().plusSeconds(3600);
+        // do not allow the "none" singing algorithm for security
+        List<JWSAlgorithm> idTokenJWSAlgs = _oidcProviderMetadata.getIDTokenJWSAlgs();
+        if (idTokenJWSAlgs != null && idTokenJWSAlgs.contains(Algorithm.NONE)) {
+            ArrayList<JWSAlgorithm> _idTokenJWSAlgs = new ArrayList<>(idTokenJWSAlgs);
+            _idTokenJWSAlgs.remove(Algorithm.NONE);
+            _oidcProviderMetadata.setIDTokenJWSAlgs(_idTokenJWSAlgs);
+        }
+        return _oidcProviderMetadata;
     }
 
     @Extension
@@ -0,0 +1,143 @@
+package org.jenkinsci.plugins.oic;
+
+import hudson.Extension;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import hudson.model.User;
+import hudson.security.SecurityRealm;
+import java.time.Clock;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Refreshes the {@link OicCredentials} of active users shortly before they expire, so that their requests do not wait
+ * for the token endpoint of the provider.
+ * A user is active when one of its requests went through {@link OicSecurityRealm#handleTokenExpiration} within the
+ * last {@code OIC_TOKEN_REFRESH_ACTIVE_SECONDS}. Each credential is refreshed {@code OIC_TOKEN_REFRESH_LEAD_SECONDS}
+ * before it expires, plus a jitter of up to {@code OIC_TOKEN_REFRESH_JITTER_SECONDS}, fixed for each user, so that the
+ * credentials of users who logged in together are not all refreshed at once.
+ */
+// 后台提前刷新活跃用户的token，避免用户请求同步等待IdP
+@Extension
+@Restricted(NoExternalUse.class)
+public class OicTokenRefreshWork extends AsyncPeriodicWork {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OicTokenRefreshWork.class);
+
+    @SuppressWarnings("boxing")
+    private static final long PERIOD_SECONDS = SystemProperties.getLong("OIC_TOKEN_REFRESH_PERIOD_SECONDS", 30L);
+
+    /** How long before their expiry credentials are refreshed, {@code 0} disables the background refresh */
+    @SuppressWarnings("boxing")
+    private static final long LEAD_SECONDS = SystemProperties.getLong("OIC_TOKEN_REFRESH_LEAD_SECONDS", 120L);
+
+    @SuppressWarnings("boxing")
+    private static final long JITTER_SECONDS = SystemProperties.getLong("OIC_TOKEN_REFRESH_JITTER_SECONDS", 60L);
+
+    @SuppressWarnings("boxing")
+    private static final long ACTIVE_SECONDS = SystemProperties.getLong("OIC_TOKEN_REFRESH_ACTIVE_SECONDS", 1800L);
+
+    private static final Clock CLOCK = Clock.systemUTC();
+
+    /** when each active user was last seen, in milliseconds since the epoch */
+    private static final Map<String, Long> ACTIVE_USERS = new ConcurrentHashMap<>();
+
+    private static final AtomicLong REFRESHED_COUNT = new AtomicLong();
+    private static final AtomicLong FAILED_COUNT = new AtomicLong();
+
+    public OicTokenRefreshWork() {
+        super("OIC token refresh");
+    }
+
+    /**
+     * Record that the user has just made a request with its credentials.
+     */
+    static void touch(String userId) {
+        if (LEAD_SECONDS > 0) {
+            ACTIVE_USERS.put(userId, CLOCK.millis());
+        }
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.SECONDS.toMillis(PERIOD_SECONDS);
+    }
+
+    @Override
+    protected void execute(TaskListener listener) {
+        if (LEAD_SECONDS <= 0) {
+            return;
+        }
+        SecurityRealm securityRealm = Jenkins.get().getSecurityRealm();
+        if (!(securityRealm instanceof OicSecurityRealm oicSecurityRealm)) {
+            ACTIVE_USERS.clear();
+            return;
+        }
+        long now = CLOCK.millis();
+        for (Iterator<Map.Entry<String, Long>> it = ACTIVE_USERS.entrySet().iterator(); it.hasNext(); ) {
+            Map.Entry<String, Long> entry = it.next();
+            if (now - entry.getValue() > TimeUnit.SECONDS.toMillis(ACTIVE_SECONDS)) {
+                it.remove();
+                continue;
+            }
+            User user = User.getById(entry.getKey(), false);
+            OicCredentials credentials = user == null ? null : OicCredentialsStore.get().load(user);
+            if (credentials == null || credentials.getExpiresAtMillis() == null) {
+                continue;
+            }
+            long jitterMillis = jitterMillis(entry.getKey(), TimeUnit.SECONDS.toMillis(JITTER_SECONDS));
+            if (!isDue(credentials.getExpiresAtMillis(), now, TimeUnit.SECONDS.toMillis(LEAD_SECONDS), jitterMillis)) {
+                continue;
+            }
+            if (oicSecurityRealm.refreshCredentialsInBackground(user, credentials) != null) {
+                REFRESHED_COUNT.incrementAndGet();
+                LOGGER.debug("Refreshed the credentials of {} in the background", user.getId());
+            } else {
+                FAILED_COUNT.incrementAndGet();
+                // 刷新失败就不再重试，等过期后由请求路径处理
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * The jitter of a user is the same on every run: drawn again on each run, it would make the user due as soon as one
+     * draw is large enough, and bring all the refreshes close to the lead plus the maximum jitter.
+     * @return the jitter of the user, between {@code 0} and {@code maxJitterMillis}
+     */
+    static long jitterMillis(String userId, long maxJitterMillis) {
+        // 同一用户每次取同样的值，id相近的用户也要分散开
+        long hash = userId.hashCode() * 0x9E3779B97F4A7C15L;
+        return Math.floorMod(hash ^ (hash >>> 32), maxJitterMillis + 1);
+    }
+
+    /**
+     * @return {@code true} if credentials expiring at {@code expiresAtMillis} are to be refreshed now
+     */
+    static boolean isDue(long expiresAtMillis, long now, long leadMillis, long jitterMillis) {
+        return now >= expiresAtMillis - leadMillis - jitterMillis;
+    }
+
+    /**
+     * @return the number of credentials refreshed in the background
+     */
+    public static long getRefreshedCount() {
+        return REFRESHED_COUNT.get();
+    }
+
+    /**
+     * @return the number of credentials that could not be refreshed in the background
+     */
+    public static long getFailedCount() {
+        return FAILED_COUNT.get();
+    }
+}
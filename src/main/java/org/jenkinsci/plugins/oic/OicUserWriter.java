@@ -0,0 +1,185 @@
+package org.jenkinsci.plugins.oic;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.BulkChange;
+import hudson.init.Terminator;
+import hudson.model.User;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Applies the updates of a login or of a token refresh to a {@link User} as a single change, and only writes its
+ * {@code config.xml} if something changed.
+ * <p>
+ * When {@code OIC_USER_WRITE_BEHIND_MS} is set, the write is deferred by that many milliseconds instead of being made
+ * by the request: the updates of a user within the delay are written once, and whatever is pending is written when
+ * Jenkins shuts down. A crash loses the pending writes, so the users concerned may have to log in again.
+ */
+// 登录和刷新token时合并用户属性的修改，只在有变化时写config.xml，可选延迟到后台批量写
+@Restricted(NoExternalUse.class)
+public final class OicUserWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OicUserWriter.class);
+
+    /** How long writes are deferred, {@code 0} writes them in the request */
+    @SuppressWarnings("boxing")
+    private static final long WRITE_BEHIND_MS = SystemProperties.getLong("OIC_USER_WRITE_BEHIND_MS", 0L);
+
+    private static final OicUserWriter INSTANCE = new OicUserWriter(WRITE_BEHIND_MS, null);
+
+    private final long writeBehindMillis;
+    private final Scheduler scheduler;
+
+    /** ids of the users with changes not written yet */
+    private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+
+    private final AtomicLong writeCount = new AtomicLong();
+    private final AtomicLong skippedCount = new AtomicLong();
+
+    /**
+     * @param writeBehindMillis how long writes are deferred, {@code 0} to write them in the request
+     * @param scheduler runs the deferred writes, {@code null} to use the Jenkins {@link Timer}
+     */
+    OicUserWriter(long writeBehindMillis, @CheckForNull Scheduler scheduler) {
+        this.writeBehindMillis = writeBehindMillis;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * @return the writer of the users of this Jenkins
+     */
+    public static OicUserWriter get() {
+        return INSTANCE;
+    }
+
+    /**
+     * Updates of a user, applied in memory.
+     */
+    @FunctionalInterface
+    interface Update {
+        /**
+         * @return {@code true} if the user was changed
+         */
+        boolean apply(User user) throws IOException;
+    }
+
+    /**
+     * Runs a deferred write.
+     */
+    @FunctionalInterface
+    interface Scheduler {
+        void schedule(Runnable task, long delayMillis);
+    }
+
+    /**
+     * Apply {@code update} to the user and persist the user if it changed.
+     */
+    void update(User user, Update update) throws IOException {
+        boolean changed;
+        try (BulkChange bc = new BulkChange(user)) {
+            changed = update.apply(user);
+            if (changed && writeBehindMillis <= 0) {
+                bc.commit();
+                writeCount.incrementAndGet();
+            }
+            // 否则关闭时abort：内存中的修改保留，只是不写盘
+        }
+        if (!changed) {
+            skippedCount.incrementAndGet();
+        } else if (writeBehindMillis > 0) {
+            pending.add(user.getId());
+            if (scheduled.compareAndSet(false, true)) {
+                schedule();
+            }
+        }
+    }
+
+    private void schedule() {
+        if (scheduler != null) {
+            scheduler.schedule(this::writeScheduled, writeBehindMillis);
+        } else {
+            Timer.get().schedule(this::writeScheduled, writeBehindMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void writeScheduled() {
+        scheduled.set(false);
+        writePending();
+        if (!pending.isEmpty() && scheduled.compareAndSet(false, true)) {
+            // 写盘期间又有新的修改
+            schedule();
+        }
+    }
+
+    /**
+     * Write the users with pending changes.
+     */
+    void writePending() {
+        List<String> ids = new ArrayList<>(pending);
+        for (String id : ids) {
+            // 先移除再写，写盘期间的新修改会再次加入
+            pending.remove(id);
+            User user = User.getById(id, false);
+            if (user == null) {
+                continue;
+            }
+            try {
+                user.save();
+                writeCount.incrementAndGet();
+            } catch (IOException e) {
+                LOGGER.warn("Failed to save the user {}", id, e);
+            }
+        }
+    }
+
+    @Terminator
+    @Restricted(NoExternalUse.class)
+    public static void writePendingOnShutdown() {
+        INSTANCE.flush();
+    }
+
+    /**
+     * Write whatever is pending now, rather than when it is scheduled.
+     */
+    void flush() {
+        if (!pending.isEmpty()) {
+            LOGGER.info("Saving {} users with pending changes", pending.size());
+            writePending();
+        }
+    }
+
+    /**
+     * @return the number of times a user was written
+     */
+    public long getWriteCount() {
+        return writeCount.get();
+    }
+
+    /**
+     * @return the number of updates that did not change the user and were not written
+     */
+    public long getSkippedCount() {
+        return skippedCount.get();
+    }
+
+    /**
+     * @return the number of users with changes not written yet
+     */
+    public int getPendingCount() {
+        return pending.size();
+    }
+}
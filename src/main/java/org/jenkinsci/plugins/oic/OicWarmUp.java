@@ -0,0 +1,130 @@
+package org.jenkinsci.plugins.oic;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.security.SecurityRealm;
+import java.time.Clock;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicReference;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Builds the expensive parts of a {@link OicSecurityRealm} in the background once Jenkins has started: the provider
+ * metadata, the keys of the provider and the pac4j clients, so that the first logins after a restart do not wait for
+ * them. Its state and duration tell when the realm is ready, they are shown by
+ * {@link org.jenkinsci.plugins.oic.monitor.OicStatusLink} and a failure is also warned about by
+ * {@link org.jenkinsci.plugins.oic.monitor.OicProviderMonitor}.
+ * <p>
+ * Set {@code OIC_WARM_UP} to {@code false} to disable it.
+ */
+// 启动后在后台预热provider metadata、jwks和pac4j client，避免重启后第一批登录请求变慢
+@Restricted(NoExternalUse.class)
+public final class OicWarmUp {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(OicWarmUp.class);
+
+    private static final boolean ENABLED = SystemProperties.getBoolean("OIC_WARM_UP", true);
+
+    public enum State {
+        /** not started */
+        PENDING,
+        RUNNING,
+        READY,
+        /** the realm is built lazily on the first request instead */
+        FAILED
+    }
+
+    /**
+     * The work to do.
+     */
+    @FunctionalInterface
+    interface Step {
+        void run() throws Exception;
+    }
+
+    private final Step step;
+    private final Clock clock;
+    private final AtomicReference<State> state = new AtomicReference<>(State.PENDING);
+    private volatile long durationMillis = -1;
+    private volatile String failure;
+
+    OicWarmUp(Step step, Clock clock) {
+        this.step = step;
+        this.clock = clock;
+    }
+
+    @Initializer(after = InitMilestone.JOB_CONFIG_ADAPTED)
+    public static void warmUpOnStartup() {
+        if (!ENABLED) {
+            return;
+        }
+        SecurityRealm securityRealm = Jenkins.get().getSecurityRealm();
+        if (securityRealm instanceof OicSecurityRealm oicSecurityRealm) {
+            oicSecurityRealm.getWarmUp().start(null);
+        }
+    }
+
+    /**
+     * Start warming up, unless it already started.
+     * @param executor runs the warm up, {@code null} to use the Jenkins {@link Timer}
+     * @return {@code true} if it started
+     */
+    boolean start(@CheckForNull Executor executor) {
+        if (!state.compareAndSet(State.PENDING, State.RUNNING)) {
+            return false;
+        }
+        (executor != null ? executor : Timer.get()).execute(this::run);
+        return true;
+    }
+
+    private void run() {
+        long start = clock.millis();
+        try {
+            step.run();
+            durationMillis = clock.millis() - start;
+            state.set(State.READY);
+            LOGGER.info("OpenID Connect realm warmed up in {} ms", durationMillis);
+        } catch (Exception e) {
+            durationMillis = clock.millis() - start;
+            failure = e.toString();
+            state.set(State.FAILED);
+            LOGGER.warn("Failed to warm up the OpenID Connect realm, it is built on the first request instead", e);
+        }
+    }
+
+    public State getState() {
+        return state.get();
+    }
+
+    public boolean isReady() {
+        return state.get() == State.READY;
+    }
+
+    /**
+     * @return how long the warm up took, {@code -1} if it has not finished
+     */
+    public long getDurationMillis() {
+        return durationMillis;
+    }
+
+    /**
+     * @return why the warm up failed, {@code null} if it did not
+     */
+    @CheckForNull
+    public String getFailure() {
+        return failure;
+    }
+
+    @Override
+    public String toString() {
+        return "OicWarmUp{" + "state=" + state.get() + ", durationMillis=" + durationMillis + ", failure=" + failure
+                + '}';
+    }
+}
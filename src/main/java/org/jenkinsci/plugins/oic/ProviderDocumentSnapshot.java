@@ -0,0 +1,242 @@
+package org.jenkinsci.plugins.oic;
+
+import com.nimbusds.jose.util.JSONObjectUtils;
+import com.nimbusds.jose.util.Resource;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.util.AtomicFileWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.ParseException;
+import java.time.Clock;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import jenkins.model.Jenkins;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The last good copy of the documents of the provider, such as the well-known configuration and the key set, kept in
+ * {@code JENKINS_HOME/oic-provider-snapshot.json} so that they are at hand right after a restart, and when the
+ * provider can not be reached. {@link ProxyAwareResourceRetriever} records every document it retrieves, and
+ * {@link OicServerWellKnownConfiguration} starts from the snapshot of its document when it is loaded from disk.
+ * A document older than {@code OIC_PROVIDER_SNAPSHOT_MAX_AGE_HOURS} is not used in place of the provider. Its
+ * age is shown by {@link org.jenkinsci.plugins.oic.monitor.OicStatusLink}.
+ * <p>
+ * Set {@code OIC_PROVIDER_SNAPSHOT} to {@code false} to disable it.
+ */
+// 身份提供方文档（well-known、jwks）的磁盘快照，重启后立即可用，身份提供方不可用时兜底
+@Restricted(NoExternalUse.class)
+public final class ProviderDocumentSnapshot {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProviderDocumentSnapshot.class);
+
+    private static final boolean ENABLED = SystemProperties.getBoolean("OIC_PROVIDER_SNAPSHOT", true);
+
+    static final String FILE_NAME = "oic-provider-snapshot.json";
+
+    /** Maximum number of documents kept, the oldest is dropped to make room */
+    static final int MAX_DOCUMENTS = 64;
+
+    /** Age after which a document is no longer used when the provider can not be reached */
+    @SuppressWarnings("boxing")
+    private static final long MAX_FALLBACK_AGE_HOURS =
+            SystemProperties.getLong("OIC_PROVIDER_SNAPSHOT_MAX_AGE_HOURS", 24L);
+
+    private static volatile ProviderDocumentSnapshot instance;
+
+    /**
+     * A document as it was last retrieved, or revalidated, from the provider.
+     */
+    record Document(
+            String content,
+            @CheckForNull String contentType,
+            @CheckForNull String etag,
+            @CheckForNull String lastModified,
+            long fetchedAtMillis) {
+
+        Resource toResource() {
+            return new Resource(content, contentType);
+        }
+    }
+
+    private final File file;
+    private final Executor executor;
+    private final Clock clock;
+    private final long maxFallbackAgeMillis;
+    private final Map<String, Document> documents = new ConcurrentHashMap<>();
+    /** URLs whose last retrieval failed and were answered from the snapshot */
+    private final Set<String> fallbacks = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean saveScheduled = new AtomicBoolean();
+
+    ProviderDocumentSnapshot(File file, @CheckForNull Executor executor, Clock clock) {
+        this(file, executor, clock, MAX_FALLBACK_AGE_HOURS * 3_600_000);
+    }
+
+    /**
+     * @param executor writes the file, {@code null} to use the Jenkins {@link Timer}
+     */
+    ProviderDocumentSnapshot(File file, @CheckForNull Executor executor, Clock clock, long maxFallbackAgeMillis) {
+        this.file = file;
+        this.executor = executor;
+        this.clock = clock;
+        this.maxFallbackAgeMillis = maxFallbackAgeMillis;
+        load();
+    }
+
+    /**
+     * @return the snapshot of this Jenkins, {@code null} if disabled or if Jenkins is not running
+     */
+    @CheckForNull
+    public static ProviderDocumentSnapshot get() {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (!ENABLED || jenkins == null) {
+            return null;
+        }
+        File file = new File(jenkins.getRootDir(), FILE_NAME);
+        ProviderDocumentSnapshot snapshot = instance;
+        if (snapshot == null || !snapshot.file.equals(file)) {
+            synchronized (ProviderDocumentSnapshot.class) {
+                snapshot = instance;
+                if (snapshot == null || !snapshot.file.equals(file)) {
+                    snapshot = new ProviderDocumentSnapshot(file, null, Clock.systemUTC());
+                    instance = snapshot;
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the last good copy of the document at this URL, {@code null} if there is none
+     */
+    @CheckForNull
+    Document get(String url) {
+        return documents.get(url);
+    }
+
+    /**
+     * @return the copy of the document at this URL to use while the provider can not be reached, {@code null} if
+     *     there is none or if it is too old
+     */
+    @CheckForNull
+    Document getFallback(String url) {
+        Document document = documents.get(url);
+        if (document == null || clock.millis() - document.fetchedAtMillis() > maxFallbackAgeMillis) {
+            return null;
+        }
+        fallbacks.add(url);
+        return document;
+    }
+
+    /**
+     * Record the document just retrieved from this URL, the file is written shortly after.
+     */
+    void put(String url, Document document) {
+        if (documents.size() >= MAX_DOCUMENTS && !documents.containsKey(url)) {
+            // 满了以后丢掉最旧的文档，新的URL照样记录
+            documents.entrySet().stream()
+                    .min(Comparator.comparingLong(entry -> entry.getValue().fetchedAtMillis()))
+                    .ifPresent(oldest -> {
+                        documents.remove(oldest.getKey());
+                        fallbacks.remove(oldest.getKey());
+                    });
+        }
+        documents.put(url, document);
+        fallbacks.remove(url);
+        if (saveScheduled.compareAndSet(false, true)) {
+            (executor != null ? executor : Timer.get()).execute(() -> {
+                saveScheduled.set(false);
+                save();
+            });
+        }
+    }
+
+    long now() {
+        return clock.millis();
+    }
+
+    /**
+     * @return how old the oldest document is, in milliseconds, {@code -1} if there is none
+     */
+    public long getAgeMillis() {
+        long oldest = documents.values().stream()
+                .mapToLong(Document::fetchedAtMillis)
+                .min()
+                .orElse(-1);
+        return oldest < 0 ? -1 : Math.max(0, clock.millis() - oldest);
+    }
+
+    public int getDocumentCount() {
+        return documents.size();
+    }
+
+    /**
+     * @return the number of documents whose last retrieval failed and that are served from this snapshot instead
+     */
+    public int getFallbackCount() {
+        return fallbacks.size();
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try {
+            Map<String, Object> json = JSONObjectUtils.parse(Files.readString(file.toPath(), StandardCharsets.UTF_8));
+            Map<String, Object> stored = JSONObjectUtils.getJSONObject(json, "documents");
+            if (stored != null) {
+                for (String url : stored.keySet()) {
+                    Map<String, Object> document = JSONObjectUtils.getJSONObject(stored, url);
+                    documents.put(
+                            url,
+                            new Document(
+                                    JSONObjectUtils.getString(document, "content"),
+                                    JSONObjectUtils.getString(document, "contentType"),
+                                    JSONObjectUtils.getString(document, "etag"),
+                                    JSONObjectUtils.getString(document, "lastModified"),
+                                    JSONObjectUtils.getLong(document, "fetchedAt")));
+                }
+            }
+            LOGGER.info("Loaded {} provider documents from {}, {} ms old", documents.size(), file, getAgeMillis());
+        } catch (IOException | ParseException | RuntimeException e) {
+            // 快照损坏时丢弃，重新从身份提供方获取
+            LOGGER.warn("Ignoring the unreadable provider snapshot {}", file, e);
+            documents.clear();
+        }
+    }
+
+    synchronized void save() {
+        Map<String, Object> stored = new LinkedHashMap<>();
+        documents.forEach((url, document) -> {
+            Map<String, Object> json = new LinkedHashMap<>();
+            json.put("content", document.content());
+            json.put("contentType", document.contentType());
+            json.put("etag", document.etag());
+            json.put("lastModified", document.lastModified());
+            json.put("fetchedAt", document.fetchedAtMillis());
+            stored.put(url, json);
+        });
+        try {
+            AtomicFileWriter writer = new AtomicFileWriter(file.toPath(), StandardCharsets.UTF_8);
+            try {
+                writer.write(JSONObjectUtils.toJSONString(Map.of("version", 1, "documents", stored)));
+                writer.commit();
+            } finally {
+                writer.abort();
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Failed to write the provider snapshot {}", file, e);
+        }
+    }
+}
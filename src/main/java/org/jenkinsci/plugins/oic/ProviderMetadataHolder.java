@@ -0,0 +1,217 @@
+package org.jenkinsci.plugins.oic;
+
+import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import java.time.Clock;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+import jenkins.util.SystemProperties;
+import jenkins.util.Timer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the provider metadata of a {@link OicServerWellKnownConfiguration}. Callers get the current snapshot without
+ * waiting, except for the very first load. A single background refresh renews the snapshot once
+ * {@code OIC_WELL_KNOWN_REFRESH_PERCENT} of its lifetime has passed. The lifetime comes from the
+ * {@code Cache-Control} or {@code Expires} header of the document, bounded by {@code OIC_WELL_KNOWN_MIN_TTL_SECONDS}
+ * and {@code OIC_WELL_KNOWN_MAX_TTL_SECONDS}, and defaults to {@code OIC_WELL_KNOWN_TTL_SECONDS}. When a refresh
+ * fails the last good snapshot keeps being served, and the refresh is retried after the minimum lifetime.
+ * <p>
+ * A snapshot is never modified once published, a refresh publishes a new one.
+ */
+// 持有well-known配置的快照，调用方从不阻塞（首次加载除外），后台按缓存头提前刷新，失败时继续使用旧的
+final class ProviderMetadataHolder {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProviderMetadataHolder.class);
+
+    /** Lifetime of the document when the provider sends no caching header */
+    @SuppressWarnings("boxing")
+    private static final long TTL_SECONDS = SystemProperties.getLong("OIC_WELL_KNOWN_TTL_SECONDS", 3600L);
+
+    @SuppressWarnings("boxing")
+    private static final long MIN_TTL_SECONDS = SystemProperties.getLong("OIC_WELL_KNOWN_MIN_TTL_SECONDS", 60L);
+
+    @SuppressWarnings("boxing")
+    private static final long MAX_TTL_SECONDS = SystemProperties.getLong("OIC_WELL_KNOWN_MAX_TTL_SECONDS", 86_400L);
+
+    /** Share of the lifetime of a snapshot after which it is refreshed in the background, in percent */
+    @SuppressWarnings("boxing")
+    private static final int REFRESH_PERCENT = SystemProperties.getInteger("OIC_WELL_KNOWN_REFRESH_PERCENT", 80);
+
+    /**
+     * Loads the document.
+     */
+    @FunctionalInterface
+    interface Loader {
+        /**
+         * @throws Exception if the document could not be loaded or parsed
+         */
+        Loaded load() throws Exception;
+    }
+
+    /**
+     * A loaded document and the caching headers of its response.
+     */
+    record Loaded(
+            OIDCProviderMetadata metadata, @CheckForNull String cacheControl, @CheckForNull String expires) {}
+
+    /**
+     * The metadata in use, and when to refresh it.
+     */
+    record Snapshot(OIDCProviderMetadata metadata, long fetchedAtMillis, long expiresAtMillis, long refreshAtMillis) {}
+
+    private final Loader loader;
+    private final Executor executor;
+    private final Clock clock;
+    private final long defaultTtlMillis;
+    private final long minTtlMillis;
+    private final long maxTtlMillis;
+
+    private final AtomicBoolean refreshing = new AtomicBoolean();
+
+    private volatile Snapshot snapshot;
+
+    ProviderMetadataHolder(Loader loader) {
+        this(loader, null, Clock.systemUTC(), TTL_SECONDS * 1000, MIN_TTL_SECONDS * 1000, MAX_TTL_SECONDS * 1000);
+    }
+
+    /**
+     * @param executor runs the background refreshes, {@code null} to use the Jenkins {@link Timer}
+     */
+    ProviderMetadataHolder(
+            Loader loader,
+            Executor executor,
+            Clock clock,
+            long defaultTtlMillis,
+            long minTtlMillis,
+            long maxTtlMillis) {
+        this.loader = loader;
+        this.executor = executor;
+        this.clock = clock;
+        this.defaultTtlMillis = defaultTtlMillis;
+        this.minTtlMillis = minTtlMillis;
+        this.maxTtlMillis = maxTtlMillis;
+    }
+
+    /**
+     * @return the current metadata, loading it if it has never been loaded
+     * @throws IllegalStateException if it has never been loaded and can not be loaded now
+     */
+    OIDCProviderMetadata get() {
+        Snapshot current = snapshot;
+        if (current == null) {
+            return loadFirst().metadata();
+        }
+        if (clock.millis() >= current.refreshAtMillis() && refreshing.compareAndSet(false, true)) {
+            Executor refreshExecutor = executor != null ? executor : Timer.get();
+            refreshExecutor.execute(() -> {
+                try {
+                    refresh();
+                } finally {
+                    refreshing.set(false);
+                }
+            });
+        }
+        return current.metadata();
+    }
+
+    /**
+     * Start from a copy loaded from disk rather than from the provider. It is served right away, and refreshed in the
+     * background on the first {@link #get()}.
+     * @param fetchedAtMillis when the copy was retrieved from the provider
+     */
+    synchronized void seed(OIDCProviderMetadata metadata, long fetchedAtMillis) {
+        if (snapshot == null) {
+            snapshot = new Snapshot(metadata, fetchedAtMillis, fetchedAtMillis, clock.millis());
+        }
+    }
+
+    /**
+     * @return the current snapshot, {@code null} if the metadata has never been loaded
+     */
+    @CheckForNull
+    Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    private synchronized Snapshot loadFirst() {
+        // 并发的首次加载只下载一次
+        Snapshot current = snapshot;
+        if (current != null) {
+            return current;
+        }
+        try {
+            current = load();
+        } catch (Exception e) {
+            throw new IllegalStateException("Well known configuration could not be loaded, login can not proceed.", e);
+        }
+        snapshot = current;
+        return current;
+    }
+
+    private void refresh() {
+        Snapshot previous = snapshot;
+        try {
+            snapshot = load();
+            LOGGER.debug("Refreshed the provider metadata");
+        } catch (Exception e) {
+            // 刷新失败继续用旧的快照，过一段时间再试
+            long now = clock.millis();
+            LOGGER.warn("Failed to refresh the provider metadata, keeping the previous one: {}", e.getMessage());
+            if (previous != null) {
+                snapshot = new Snapshot(
+                        previous.metadata(), previous.fetchedAtMillis(), previous.expiresAtMillis(), now + minTtlMillis);
+            }
+        }
+    }
+
+    private Snapshot load() throws Exception {
+        Loaded loaded = loader.load();
+        long now = clock.millis();
+        long ttlMillis = ttlMillis(loaded.cacheControl(), loaded.expires(), now);
+        return new Snapshot(loaded.metadata(), now, now + ttlMillis, now + ttlMillis * REFRESH_PERCENT / 100);
+    }
+
+    /**
+     * @return how long a document served with these headers may be used, in milliseconds
+     */
+    long ttlMillis(@CheckForNull String cacheControl, @CheckForNull String expires, long nowMillis) {
+        Long ttl = null;
+        if (cacheControl != null) {
+            for (String directive : cacheControl.toLowerCase(Locale.ROOT).split(",")) {
+                directive = directive.trim();
+                if (directive.equals("no-cache") || directive.equals("no-store")) {
+                    ttl = 0L;
+                    break;
+                }
+                if (directive.startsWith("max-age=")) {
+                    try {
+                        ttl = Long.parseLong(directive.substring("max-age=".length()).trim()) * 1000;
+                    } catch (NumberFormatException e) {
+                        // ignore the directive
+                    }
+                }
+            }
+        }
+        if (ttl == null && expires != null) {
+            try {
+                ttl = ZonedDateTime.parse(expires.trim(), DateTimeFormatter.RFC_1123_DATE_TIME)
+                                .toInstant()
+                                .toEpochMilli()
+                        - nowMillis;
+            } catch (DateTimeParseException e) {
+                // "0" and other invalid dates mean already expired
+                ttl = 0L;
+            }
+        }
+        if (ttl == null) {
+            ttl = defaultTtlMillis;
+        }
+        return Math.min(Math.max(ttl, minTtlMillis), maxTtlMillis);
+    }
+}
@@ -1,21 +1,32 @@
 package org.jenkinsci.plugins.oic;
 
+import com.nimbusds.jose.util.BoundedInputStream;
 import com.nimbusds.jose.util.DefaultResourceRetriever;
+import com.nimbusds.jose.util.IOUtils;
+import com.nimbusds.jose.util.Resource;
 import com.nimbusds.jose.util.ResourceRetriever;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.ProxyConfiguration;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
 import jenkins.security.FIPS140;
 import jenkins.util.SystemProperties;
 import org.jenkinsci.plugins.oic.ssl.IgnoringHostNameVerifier;
 import org.jenkinsci.plugins.oic.ssl.TLSUtils;
 import org.pac4j.core.context.HttpConstants;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
  * A {@link ResourceRetriever} that is configured with sane connection/timeout defaults and the Jenkins proxy.
@@ -23,6 +34,8 @@ import org.pac4j.core.context.HttpConstants;
 // 工具类，适用于需要自定义代理或者TLS的环境
 class ProxyAwareResourceRetriever extends DefaultResourceRetriever {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(ProxyAwareResourceRetriever.class);
+
     @SuppressWarnings("boxing")
     private static final int CONNECTION_TIMEOUT_MS = SystemProperties.getInteger("OIC_CONNECTION_TIMEOUT_MS", 2_000);
 
@@ -32,17 +45,50 @@ class ProxyAwareResourceRetriever extends DefaultResourceRetriever {
     @SuppressWarnings("boxing")
     private static final int SIZE_LIMIT = SystemProperties.getInteger("OIC_CONNECTION_SIZE_LIMIT", 0);
 
+    /** Maximum number of URLs whose validators are remembered */
+    private static final int MAX_VALIDATED_URLS = 64;
+
     private final boolean disableTLSValidation;
 
-    private ProxyAwareResourceRetriever(boolean disableTLSValidation)
+    /** shared with the other outbound calls, see {@link TLSUtils#getSSLSocketFactory(boolean)} */
+    private final SSLSocketFactory sslSocketFactory;
+
+    @CheckForNull
+    private final ProviderDocumentSnapshot snapshot;
+
+    /** The last response of every URL that sent an {@code ETag} or {@code Last-Modified}, by URL */
+    private final Map<String, Response> validatedResponses = new ConcurrentHashMap<>();
+
+    /**
+     * A resource and the headers of the response that carried it.
+     * @param notModified {@code true} if the server answered {@code 304 Not Modified}, the resource is then the one
+     *     of the previous response
+     */
+    record Response(Resource resource, Map<String, List<String>> headers, boolean notModified) {
+
+        /**
+         * @return the first value of the header, whatever its case, {@code null} if absent
+         */
+        @CheckForNull
+        String getHeader(String name) {
+            List<String> values = headers.get(name);
+            return values == null || values.isEmpty() ? null : values.get(0);
+        }
+    }
+
+    private ProxyAwareResourceRetriever(boolean disableTLSValidation, @CheckForNull ProviderDocumentSnapshot snapshot)
             throws KeyManagementException, NoSuchAlgorithmException {
-        super(
-                CONNECTION_TIMEOUT_MS,
-                READ_TIMEOUT_MS,
-                SIZE_LIMIT,
-                true,
-                disableTLSValidation ? TLSUtils.createAnythingGoesSSLSocketFactory() : null);
+        this(disableTLSValidation, TLSUtils.getSSLSocketFactory(disableTLSValidation), snapshot);
+    }
+
+    private ProxyAwareResourceRetriever(
+            boolean disableTLSValidation,
+            SSLSocketFactory sslSocketFactory,
+            @CheckForNull ProviderDocumentSnapshot snapshot) {
+        super(CONNECTION_TIMEOUT_MS, READ_TIMEOUT_MS, SIZE_LIMIT, true, sslSocketFactory);
         this.disableTLSValidation = disableTLSValidation;
+        this.sslSocketFactory = sslSocketFactory;
+        this.snapshot = snapshot;
         // set the same default headers as the in the default client should a resolver not be specified
         // https://github.com/pac4j/pac4j/blob/pac4j-parent-5.7.7/pac4j-oidc/src/main/java/org/pac4j/oidc/config/OidcConfiguration.java#L179-L193
         setHeaders(Map.of(HttpConstants.ACCEPT_HEADER, List.of(HttpConstants.APPLICATION_JSON)));
@@ -59,16 +105,175 @@ class ProxyAwareResourceRetriever extends DefaultResourceRetriever {
         return con;
     }
 
+    /**
+     * The server answered with an error status.
+     */
+    static final class HttpStatusException extends IOException {
+
+        private static final long serialVersionUID = 1L;
+
+        private final int statusCode;
+
+        HttpStatusException(int statusCode, String message) {
+            super("HTTP " + statusCode + ": " + message);
+            this.statusCode = statusCode;
+        }
+
+        int getStatusCode() {
+            return statusCode;
+        }
+    }
+
+    /**
+     * Retrieve the resource, or reuse the one of the previous response if the server says it has not changed since.
+     * If the server can not be reached, or the response can not be read, the copy in the
+     * {@link ProviderDocumentSnapshot}, if any and recent enough, is returned. An error status of the server is
+     * reported as is.
+     */
+    @Override
+    public Resource retrieveResource(URL url) throws IOException {
+        try {
+            return retrieveResourceWithHeaders(url).resource();
+        } catch (HttpStatusException e) {
+            // 服务端明确返回的错误不用快照掩盖
+            throw e;
+        } catch (IOException e) {
+            ProviderDocumentSnapshot.Document document = snapshot == null ? null : snapshot.getFallback(url.toString());
+            if (document == null) {
+                throw e;
+            }
+            // 身份提供方不可用时用快照兜底
+            LOGGER.warn(
+                    "Failed to retrieve {}, using the copy of {} ms ago: {}",
+                    url,
+                    snapshot.now() - document.fetchedAtMillis(),
+                    e.getMessage());
+            return document.toResource();
+        }
+    }
+
+    /**
+     * Like {@link #retrieveResource(URL)}, but also return the response headers, for callers that honor the caching
+     * headers of the server. The validators of the previous response of the URL, if any, are sent with
+     * {@code If-None-Match} and {@code If-Modified-Since}.
+     */
+    // 带上次响应的ETag/Last-Modified做条件请求，304时复用上次的内容
+    Response retrieveResourceWithHeaders(URL url) throws IOException {
+        String key = url.toString();
+        Response previous = validatedResponses.get(key);
+        if (previous == null && snapshot != null) {
+            // 重启后第一次请求也带上快照里的校验值
+            ProviderDocumentSnapshot.Document document = snapshot.get(key);
+            if (document != null) {
+                previous = toResponse(document);
+            }
+        }
+        HttpURLConnection con = openHTTPConnection(url);
+        try {
+            con.setConnectTimeout(getConnectTimeout());
+            con.setReadTimeout(getReadTimeout());
+            if (con instanceof HttpsURLConnection httpsCon) {
+                httpsCon.setSSLSocketFactory(sslSocketFactory);
+            }
+            if (getHeaders() != null) {
+                getHeaders().forEach((name, values) -> values.forEach(value -> con.addRequestProperty(name, value)));
+            }
+            if (previous != null) {
+                String etag = previous.getHeader("ETag");
+                if (etag != null) {
+                    con.setRequestProperty("If-None-Match", etag);
+                }
+                String lastModified = previous.getHeader("Last-Modified");
+                if (lastModified != null) {
+                    con.setRequestProperty("If-Modified-Since", lastModified);
+                }
+            }
+            int statusCode = con.getResponseCode();
+            Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+            con.getHeaderFields().forEach((name, values) -> {
+                // the status line has no name
+                if (name != null) {
+                    headers.put(name, values);
+                }
+            });
+            if (statusCode == HttpURLConnection.HTTP_NOT_MODIFIED && previous != null) {
+                // the headers of a 304 update the stored ones
+                Map<String, List<String>> updated = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                updated.putAll(previous.headers());
+                updated.putAll(headers);
+                Response response = new Response(previous.resource(), updated, true);
+                validatedResponses.put(key, response);
+                recordInSnapshot(key, response);
+                return response;
+            }
+            if (statusCode > 299 || statusCode < 200) {
+                throw new HttpStatusException(statusCode, con.getResponseMessage());
+            }
+            String content;
+            try (InputStream inputStream = getSizeLimit() > 0
+                    ? new BoundedInputStream(con.getInputStream(), getSizeLimit())
+                    : con.getInputStream()) {
+                content = IOUtils.readInputStreamToString(inputStream, StandardCharsets.UTF_8);
+            }
+            Response response = new Response(new Resource(content, con.getContentType()), headers, false);
+            if (response.getHeader("ETag") != null || response.getHeader("Last-Modified") != null) {
+                if (validatedResponses.size() < MAX_VALIDATED_URLS || validatedResponses.containsKey(key)) {
+                    validatedResponses.put(key, response);
+                }
+            } else {
+                validatedResponses.remove(key);
+            }
+            recordInSnapshot(key, response);
+            return response;
+        } finally {
+            if (disconnectsAfterUse()) {
+                con.disconnect();
+            }
+        }
+    }
+
+    private void recordInSnapshot(String key, Response response) {
+        if (snapshot != null) {
+            snapshot.put(
+                    key,
+                    new ProviderDocumentSnapshot.Document(
+                            response.resource().getContent(),
+                            response.resource().getContentType(),
+                            response.getHeader("ETag"),
+                            response.getHeader("Last-Modified"),
+                            snapshot.now()));
+        }
+    }
+
+    private static Response toResponse(ProviderDocumentSnapshot.Document document) {
+        Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        if (document.etag() != null) {
+            headers.put("ETag", List.of(document.etag()));
+        }
+        if (document.lastModified() != null) {
+            headers.put("Last-Modified", List.of(document.lastModified()));
+        }
+        return new Response(document.toResource(), headers, false);
+    }
+
     /**
      * Create a ResourceRetriver that uses the Jenkins ProxyConfiguration.
      * @param disableTLSValidation {@code true} if we want to trust all certificates
      */
     static ProxyAwareResourceRetriever createProxyAwareResourceRetriver(boolean disableTLSValidation) {
+        return createProxyAwareResourceRetriver(disableTLSValidation, ProviderDocumentSnapshot.get());
+    }
+
+    /**
+     * @param snapshot where to record the documents retrieved, {@code null} not to
+     */
+    static ProxyAwareResourceRetriever createProxyAwareResourceRetriver(
+            boolean disableTLSValidation, @CheckForNull ProviderDocumentSnapshot snapshot) {
         if (FIPS140.useCompliantAlgorithms() && disableTLSValidation) {
             throw new IllegalArgumentException("Can not disable TLS validation when running Jenkins in FIPS 140 mode");
         }
         try {
-            return new ProxyAwareResourceRetriever(disableTLSValidation);
+            return new ProxyAwareResourceRetriever(disableTLSValidation, snapshot);
         } catch (KeyManagementException | NoSuchAlgorithmException e) {
             // we are not using a keystore so KeyManagementException should never be thrown
             // "TLS" is mandated by the spec.
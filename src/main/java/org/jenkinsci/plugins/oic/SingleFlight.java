@@ -0,0 +1,82 @@
+package org.jenkinsci.plugins.oic;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent calls for the same key: the first caller performs the call while callers arriving before it
+ * completes wait for, and share, its outcome.
+ *
+ * @param <K> the key identifying identical calls
+ * @param <V> the result of the call
+ */
+// 相同key的并发请求只会真正执行一次，其他请求等待并复用同一个结果
+final class SingleFlight<K, V> {
+
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong coalescedCount = new AtomicLong();
+
+    /**
+     * Perform {@code call}, or wait for the outcome of an identical call already in progress.
+     * @throws ExecutionException wrapping whatever {@code call} threw, for the caller that made the call as well as for
+     *     the callers that waited for it
+     */
+    V execute(K key, Callable<V> call) throws ExecutionException, InterruptedException {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalescedCount.incrementAndGet();
+            return existing.get();
+        }
+        return lead(key, future, call);
+    }
+
+    /**
+     * Like {@link #execute(Object, Callable)}, but give up waiting for a call already in progress after the timeout.
+     * The caller making the call is not subject to the timeout.
+     * @throws TimeoutException if the call in progress did not complete in time
+     */
+    V execute(K key, Callable<V> call, long timeout, TimeUnit unit)
+            throws ExecutionException, InterruptedException, TimeoutException {
+        CompletableFuture<V> future = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, future);
+        if (existing != null) {
+            coalescedCount.incrementAndGet();
+            return existing.get(timeout, unit);
+        }
+        return lead(key, future, call);
+    }
+
+    private V lead(K key, CompletableFuture<V> future, Callable<V> call) throws ExecutionException {
+        try {
+            V value = call.call();
+            future.complete(value);
+            return value;
+        } catch (Throwable t) {
+            future.completeExceptionally(t);
+            if (t instanceof Error) {
+                throw (Error) t;
+            }
+            throw new ExecutionException(t);
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+
+    /**
+     * @return the number of callers that shared the outcome of another caller rather than making the call
+     */
+    long getCoalescedCount() {
+        return coalescedCount.get();
+    }
+
+    int getInFlightCount() {
+        return inFlight.size();
+    }
+}
@@ -5,65 +5,128 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import jakarta.servlet.http.HttpServletRequest;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
+import java.util.List;
+import java.util.Locale;
 
 public class UrlPathUtils {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(UrlPathUtils.class);
 
-    private static final Pattern FOLDER_PATH_PATTERN = Pattern.compile("^/job/([^/]+)/job/");
-    private static final Pattern BLUEOCEAN_PATH_PATTERN = Pattern.compile("^/blue/rest/organizations/jenkins/pipelines/([^/]+)/pipelines/");
+    public static final String PERMISSION_GET = "amamba.pipeline.get";
+    public static final String PERMISSION_CREATE = "amamba.pipeline.create";
+    public static final String PERMISSION_UPDATE = "amamba.pipeline.update";
+    public static final String PERMISSION_DELETE = "amamba.pipeline.delete";
+    public static final String PERMISSION_RUN = "amamba.pipeline.run";
+
+    /**
+     * Every permission {@link FolderInfo#getPermission()} maps a known HTTP method to.
+     */
+    public static final List<String> PIPELINE_PERMISSIONS =
+            List.of(PERMISSION_GET, PERMISSION_CREATE, PERMISSION_UPDATE, PERMISSION_DELETE, PERMISSION_RUN);
+
+    private static final String JOB_PREFIX = "/job/";
+    private static final String BLUE_OCEAN_PREFIX = "/blue/rest/organizations/jenkins/pipelines/";
+
+    /** Flags of {@link #scanPipelinePath(String)} */
+    static final int BLUE_OCEAN = 1 << 28;
+    static final int NESTED = 1 << 29;
+    static final int RUN_ACTION = 1 << 30;
+    private static final int END_MASK = BLUE_OCEAN - 1;
+
+    /**
+     * Index based scan of a job ({@code /job/ws/job/pipeline/build...}) or Blue Ocean pipeline
+     * ({@code /blue/rest/organizations/jenkins/pipelines/ws/pipelines/pipeline/runs...}) path, allocates nothing.
+     * @param path the request URI without the context path
+     * @return {@code -1} if the path is neither, otherwise the end index of the top level item combined with the
+     *     {@link #BLUE_OCEAN}, {@link #NESTED} and {@link #RUN_ACTION} flags, see {@link #workspaceStart(int)} and
+     *     {@link #workspaceEnd(int)}
+     */
+    // 代替原来的正则：^/job/([^/]+)/job/ 、 /job/[^/]+/job/[^/]+/build.* 以及 blue ocean 对应的正则
+    static int scanPipelinePath(String path) {
+        if (path.startsWith(JOB_PREFIX)) {
+            return scanPipelinePath(path, JOB_PREFIX.length(), JOB_PREFIX, "/build", 0);
+        }
+        if (path.startsWith(BLUE_OCEAN_PREFIX)) {
+            return scanPipelinePath(path, BLUE_OCEAN_PREFIX.length(), "/pipelines/", "/runs", BLUE_OCEAN);
+        }
+        return -1;
+    }
 
-    public static FolderInfo extractFolderInfo(HttpServletRequest request) {
-        String requestUri = request.getRequestURI();
-        String contextPath = request.getContextPath();
+    private static int scanPipelinePath(String path, int start, String nestedSeparator, String runAction, int flags) {
+        int end = segmentEnd(path, start);
+        if (end == start || end > END_MASK) {
+            return -1;
+        }
+        int scanned = end | flags;
+        if (path.startsWith(nestedSeparator, end)) {
+            scanned |= NESTED;
+            int childStart = end + nestedSeparator.length();
+            int childEnd = segmentEnd(path, childStart);
+            if (childEnd > childStart && path.startsWith(runAction, childEnd)) {
+                scanned |= RUN_ACTION;
+            }
+        }
+        return scanned;
+    }
 
-        LOGGER.debug("Extracting folder info from URI: {}, context: {}", requestUri, contextPath);
+    private static int segmentEnd(String path, int start) {
+        int slash = path.indexOf('/', start);
+        return slash < 0 ? path.length() : slash;
+    }
+
+    static int workspaceStart(int scanned) {
+        return (scanned & BLUE_OCEAN) != 0 ? BLUE_OCEAN_PREFIX.length() : JOB_PREFIX.length();
+    }
+
+    static int workspaceEnd(int scanned) {
+        return scanned & END_MASK;
+    }
 
-        if (StringUtils.isNotBlank(contextPath)) {
-            requestUri = requestUri.substring(contextPath.length());
+    /**
+     * Maps HTTP method to permission string
+     * GET -> read, POST -> create (or run for pipeline execution), PUT -> update, DELETE -> delete
+     */
+    static String permissionOf(String method, boolean runAction) {
+        if (runAction) {
+            return PERMISSION_RUN;
         }
+        return switch (method.toUpperCase(Locale.ROOT)) {
+            case "GET" -> PERMISSION_GET;
+            case "POST" -> PERMISSION_CREATE;
+            case "PUT" -> PERMISSION_UPDATE;
+            case "DELETE" -> PERMISSION_DELETE;
+            default -> "amamba.pipeline." + method.toLowerCase(Locale.ROOT);
+        };
+    }
+
+    public static FolderInfo extractFolderInfo(HttpServletRequest request) {
+        // 复用 AuthorizationFilter 已经做过的路径分类
+        AuthorizationRoute route = AuthorizationRoute.of(request);
 
-        String httpMethod = request.getMethod();
+        LOGGER.debug("Extracting folder info from route: {}", route);
 
         FolderInfo folderInfo = new FolderInfo();
-        folderInfo.setRequestUri(requestUri);
-        folderInfo.setHttpMethod(httpMethod);
+        folderInfo.setRequestUri(route.getPath());
+        folderInfo.setHttpMethod(route.getMethod());
+        folderInfo.setRunAction(route.isRunAction());
 
-        String folderPath = ExtractFolderPath(requestUri);
+        String folderPath = route.getWorkspace();
         if (StringUtils.isNotBlank(folderPath)) {
             folderInfo.setFolderPath(folderPath);
             LOGGER.debug("Extracted folder path: {}", folderPath);
         } else {
-            LOGGER.debug("No folder path found in URI: {}", requestUri);
+            LOGGER.debug("No folder path found in URI: {}", route.getPath());
         }
 
         return folderInfo;
     }
 
-    private static String ExtractFolderPath(String requestUri) {
-        if (StringUtils.isBlank(requestUri)) {
-            return null;
-        }
-
-        Matcher jobMatcher = FOLDER_PATH_PATTERN.matcher(requestUri);
-        if (jobMatcher.find()) {
-            return jobMatcher.group(1);
-        }
-
-        Matcher blueoceanMatcher = BLUEOCEAN_PATH_PATTERN.matcher(requestUri);
-        if (blueoceanMatcher.find()) {
-            return blueoceanMatcher.group(1);
-        }
-
-        return null;
-    }
-
     public static class FolderInfo {
         private String requestUri;
         private String httpMethod;
         private String folderPath;
+        /** if {@code null}, derived from the request URI */
+        private Boolean runAction;
 
         public String getRequestUri() {
             return requestUri;
@@ -89,41 +152,30 @@ public class UrlPathUtils {
             this.folderPath = folderPath;
         }
 
+        public void setRunAction(boolean runAction) {
+            this.runAction = runAction;
+        }
+
         /**
          * Maps HTTP method to permission string
          * GET -> read, POST -> create (or run for pipeline execution), PUT -> update, DELETE -> delete
          */
         public String getPermission() {
-            String method = httpMethod.toUpperCase();
-            
-            boolean isRunAction = isRunAction();
-            if (isRunAction) {
-                return "amamba.pipeline.run";
-            }
-
-            return switch (method) {
-                case "GET" -> "amamba.pipeline.get";
-                case "POST" -> "amamba.pipeline.create";
-                case "PUT" -> "amamba.pipeline.update";
-                case "DELETE" -> "amamba.pipeline.delete";
-                default -> "amamba.pipeline." + method.toLowerCase();
-            };
+            return permissionOf(httpMethod, isRunAction());
         }
-        
+
         /**
          * Checks if the current request is a pipeline execution request
          */
         private boolean isRunAction() {
-            if (StringUtils.isBlank(requestUri)) {
-                return false;
+            if (runAction != null) {
+                return runAction;
             }
-
-            boolean methodMatch = "POST".equalsIgnoreCase(httpMethod);
-            if (!methodMatch) {
+            if (StringUtils.isBlank(requestUri) || !"POST".equalsIgnoreCase(httpMethod)) {
                 return false;
             }
-
-            return (requestUri.matches("/job/[^/]+/job/[^/]+/build.*") || requestUri.matches("/blue/rest/organizations/jenkins/pipelines/[^/]+/pipelines/[^/]+/runs.*"));
+            int scanned = scanPipelinePath(requestUri);
+            return scanned >= 0 && (scanned & RUN_ACTION) != 0;
         }
 
         @Override
@@ -0,0 +1,55 @@
+package org.jenkinsci.plugins.oic.monitor;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AdministrativeMonitor;
+import hudson.security.SecurityRealm;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.oic.AuthorizationCircuitBreaker;
+import org.jenkinsci.plugins.oic.Messages;
+import org.jenkinsci.plugins.oic.OicSecurityRealm;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+@Extension
+@Restricted(NoExternalUse.class)
+// 外部鉴权服务熔断时在jenkins的UI上显示警告
+public class AuthorizationServiceMonitor extends AdministrativeMonitor {
+
+    public AuthorizationServiceMonitor() {}
+
+    @Override
+    public String getDisplayName() {
+        return Messages.AuthorizationServiceMonitor_DisplayName();
+    }
+
+    @Override
+    public boolean isActivated() {
+        AuthorizationCircuitBreaker circuitBreaker = getCircuitBreaker();
+        return circuitBreaker != null && circuitBreaker.getState() == AuthorizationCircuitBreaker.State.OPEN;
+    }
+
+    /**
+     * @return the circuit breaker of the current realm, or {@code null} if the external authorization service is not
+     *     in use
+     */
+    public AuthorizationCircuitBreaker getCircuitBreaker() {
+        SecurityRealm securityRealm = Jenkins.get().getSecurityRealm();
+        if (securityRealm instanceof OicSecurityRealm oicSecurityRealm
+                && Boolean.TRUE.equals(oicSecurityRealm.getEnableExternalAuth())) {
+            return oicSecurityRealm.getAuthorizationCircuitBreaker();
+        }
+        return null;
+    }
+
+    /**
+     * @return how long ago the circuit opened, for display
+     */
+    public String getOpenSince() {
+        AuthorizationCircuitBreaker circuitBreaker = getCircuitBreaker();
+        if (circuitBreaker == null) {
+            return null;
+        }
+        return Util.getTimeSpanString(System.currentTimeMillis() - circuitBreaker.getStateChangedAtMillis());
+    }
+}
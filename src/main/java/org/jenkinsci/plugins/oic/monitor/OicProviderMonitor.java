@@ -0,0 +1,80 @@
+package org.jenkinsci.plugins.oic.monitor;
+
+import hudson.Extension;
+import hudson.Util;
+import hudson.model.AdministrativeMonitor;
+import hudson.security.SecurityRealm;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.oic.Messages;
+import org.jenkinsci.plugins.oic.OicSecurityRealm;
+import org.jenkinsci.plugins.oic.OicWarmUp;
+import org.jenkinsci.plugins.oic.ProviderDocumentSnapshot;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+@Extension
+@Restricted(NoExternalUse.class)
+// 启动后预热失败、或者身份提供方不可用而使用磁盘快照时，在jenkins的UI上显示预热状态和快照的年龄
+public class OicProviderMonitor extends AdministrativeMonitor {
+
+    public OicProviderMonitor() {}
+
+    @Override
+    public String getDisplayName() {
+        return Messages.OicProviderMonitor_DisplayName();
+    }
+
+    @Override
+    public boolean isActivated() {
+        if (!(Jenkins.get().getSecurityRealm() instanceof OicSecurityRealm)) {
+            return false;
+        }
+        ProviderDocumentSnapshot snapshot = getSnapshot();
+        return isWarmUpFailed() || (snapshot != null && snapshot.getFallbackCount() > 0);
+    }
+
+    public boolean isWarmUpFailed() {
+        OicWarmUp warmUp = getWarmUp();
+        return warmUp != null && warmUp.getState() == OicWarmUp.State.FAILED;
+    }
+
+    /**
+     * @return the warm up of the current realm, or {@code null} if it is not an OpenID Connect realm
+     */
+    public OicWarmUp getWarmUp() {
+        SecurityRealm securityRealm = Jenkins.get().getSecurityRealm();
+        if (securityRealm instanceof OicSecurityRealm oicSecurityRealm) {
+            return oicSecurityRealm.getWarmUp();
+        }
+        return null;
+    }
+
+    /**
+     * @return how long the warm up took, for display, {@code null} if it has not finished
+     */
+    public String getWarmUpDuration() {
+        OicWarmUp warmUp = getWarmUp();
+        if (warmUp == null || warmUp.getDurationMillis() < 0) {
+            return null;
+        }
+        return Util.getTimeSpanString(warmUp.getDurationMillis());
+    }
+
+    /**
+     * @return the snapshot of the provider documents, {@code null} if it is disabled
+     */
+    public ProviderDocumentSnapshot getSnapshot() {
+        return ProviderDocumentSnapshot.get();
+    }
+
+    /**
+     * @return how old the oldest document of the snapshot is, for display, {@code null} if there is none
+     */
+    public String getSnapshotAge() {
+        ProviderDocumentSnapshot snapshot = getSnapshot();
+        if (snapshot == null || snapshot.getAgeMillis() < 0) {
+            return null;
+        }
+        return Util.getTimeSpanString(snapshot.getAgeMillis());
+    }
+}
@@ -0,0 +1,162 @@
+package org.jenkinsci.plugins.oic.monitor;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import edu.umd.cs.findbugs.annotations.NonNull;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.Util;
+import hudson.model.ManagementLink;
+import hudson.security.Permission;
+import hudson.security.SecurityRealm;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.oic.AuthorizationDecisionCache;
+import org.jenkinsci.plugins.oic.Messages;
+import org.jenkinsci.plugins.oic.OicFilterBypass;
+import org.jenkinsci.plugins.oic.OicSecurityRealm;
+import org.jenkinsci.plugins.oic.OicWarmUp;
+import org.jenkinsci.plugins.oic.OicUserWriter;
+import org.jenkinsci.plugins.oic.ProviderDocumentSnapshot;
+import org.jenkinsci.plugins.oic.ssl.TLSUtils;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+/**
+ * Shows the state of the OpenID Connect realm under {@code Manage Jenkins}, whether it is healthy or not, while
+ * {@link OicProviderMonitor} only warns when something is wrong: the warm up, the snapshot of the provider documents,
+ * and the counters of the filter bypass, of the authorization decision cache, of the user writes and of the TLS
+ * handshakes with the provider.
+ */
+// 在系统管理中始终显示OIDC realm的运行状态，告警由OicProviderMonitor负责
+@Extension
+@Restricted(NoExternalUse.class)
+public class OicStatusLink extends ManagementLink {
+
+    static final String URL_NAME = "oic-status";
+
+    public OicStatusLink() {}
+
+    static OicStatusLink get() {
+        return ExtensionList.lookupSingleton(OicStatusLink.class);
+    }
+
+    @Override
+    public String getIconFileName() {
+        if (getRealm() == null) {
+            // hide it
+            return null;
+        }
+        return "symbol-analytics";
+    }
+
+    @Override
+    public String getDisplayName() {
+        return Messages.OicStatusLink_DisplayName();
+    }
+
+    @Override
+    public String getDescription() {
+        return Messages.OicStatusLink_Description();
+    }
+
+    @Override
+    public String getUrlName() {
+        return URL_NAME;
+    }
+
+    @NonNull
+    @Override
+    public Category getCategory() {
+        return Category.STATUS;
+    }
+
+    @NonNull
+    @Override
+    public Permission getRequiredPermission() {
+        return Jenkins.SYSTEM_READ;
+    }
+
+    /**
+     * @return the current realm, or {@code null} if it is not an OpenID Connect realm
+     */
+    @CheckForNull
+    public OicSecurityRealm getRealm() {
+        SecurityRealm securityRealm = Jenkins.get().getSecurityRealm();
+        return securityRealm instanceof OicSecurityRealm oicSecurityRealm ? oicSecurityRealm : null;
+    }
+
+    /**
+     * @return the warm up of the current realm, or {@code null} if it is not an OpenID Connect realm
+     */
+    @CheckForNull
+    public OicWarmUp getWarmUp() {
+        OicSecurityRealm realm = getRealm();
+        return realm == null ? null : realm.getWarmUp();
+    }
+
+    /**
+     * @return how long the warm up took, for display, {@code null} if it has not finished
+     */
+    @CheckForNull
+    public String getWarmUpDuration() {
+        OicWarmUp warmUp = getWarmUp();
+        if (warmUp == null || warmUp.getDurationMillis() < 0) {
+            return null;
+        }
+        return Util.getTimeSpanString(warmUp.getDurationMillis());
+    }
+
+    /**
+     * @return the snapshot of the provider documents, {@code null} if it is disabled
+     */
+    @CheckForNull
+    public ProviderDocumentSnapshot getSnapshot() {
+        return ProviderDocumentSnapshot.get();
+    }
+
+    /**
+     * @return how old the oldest document of the snapshot is, for display, {@code null} if there is none
+     */
+    @CheckForNull
+    public String getSnapshotAge() {
+        ProviderDocumentSnapshot snapshot = getSnapshot();
+        if (snapshot == null || snapshot.getAgeMillis() < 0) {
+            return null;
+        }
+        return Util.getTimeSpanString(snapshot.getAgeMillis());
+    }
+
+    /**
+     * @return the requests skipping the filters of the current realm, {@code null} if it is not an OpenID Connect
+     *     realm
+     */
+    @CheckForNull
+    public OicFilterBypass getFilterBypass() {
+        OicSecurityRealm realm = getRealm();
+        return realm == null ? null : realm.getFilterBypass();
+    }
+
+    /**
+     * @return the cache of the authorization decisions, {@code null} if the external authorization service is not in
+     *     use
+     */
+    @CheckForNull
+    public AuthorizationDecisionCache getAuthorizationDecisionCache() {
+        OicSecurityRealm realm = getRealm();
+        if (realm == null || !Boolean.TRUE.equals(realm.getEnableExternalAuth())) {
+            return null;
+        }
+        return realm.getAuthorizationDecisionCache();
+    }
+
+    public OicUserWriter getUserWriter() {
+        return OicUserWriter.get();
+    }
+
+    public long getFullHandshakeCount() {
+        return TLSUtils.getFullHandshakeCount();
+    }
+
+    public long getResumedHandshakeCount() {
+        return TLSUtils.getResumedHandshakeCount();
+    }
+}
@@ -0,0 +1,94 @@
+package org.jenkinsci.plugins.oic.ssl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicLong;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocket;
+import javax.net.ssl.SSLSocketFactory;
+
+/**
+ * An {@link SSLSocketFactory} that counts the full and the resumed handshakes of the sockets it creates. A handshake
+ * is resumed when its session was created before the socket.
+ */
+// 统计完整握手和会话复用握手的次数
+final class HandshakeCountingSSLSocketFactory extends SSLSocketFactory {
+
+    static final AtomicLong FULL_HANDSHAKES = new AtomicLong();
+    static final AtomicLong RESUMED_HANDSHAKES = new AtomicLong();
+
+    private final SSLSocketFactory delegate;
+
+    HandshakeCountingSSLSocketFactory(SSLSocketFactory delegate) {
+        this.delegate = delegate;
+    }
+
+    SSLSocketFactory getDelegate() {
+        return delegate;
+    }
+
+    static void handshakeCompleted(SSLSession session, long socketCreatedAtMillis) {
+        if (session.getCreationTime() < socketCreatedAtMillis) {
+            RESUMED_HANDSHAKES.incrementAndGet();
+        } else {
+            FULL_HANDSHAKES.incrementAndGet();
+        }
+    }
+
+    private static Socket track(Socket socket) {
+        if (socket instanceof SSLSocket sslSocket) {
+            long createdAtMillis = System.currentTimeMillis();
+            sslSocket.addHandshakeCompletedListener(
+                    event -> handshakeCompleted(event.getSession(), createdAtMillis));
+        }
+        return socket;
+    }
+
+    @Override
+    public String[] getDefaultCipherSuites() {
+        return delegate.getDefaultCipherSuites();
+    }
+
+    @Override
+    public String[] getSupportedCipherSuites() {
+        return delegate.getSupportedCipherSuites();
+    }
+
+    @Override
+    public Socket createSocket() throws IOException {
+        return track(delegate.createSocket());
+    }
+
+    @Override
+    public Socket createSocket(Socket s, String host, int port, boolean autoClose) throws IOException {
+        return track(delegate.createSocket(s, host, port, autoClose));
+    }
+
+    @Override
+    public Socket createSocket(Socket s, InputStream consumed, boolean autoClose) throws IOException {
+        return track(delegate.createSocket(s, consumed, autoClose));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        return track(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(String host, int port, InetAddress localHost, int localPort) throws IOException {
+        return track(delegate.createSocket(host, port, localHost, localPort));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress host, int port) throws IOException {
+        return track(delegate.createSocket(host, port));
+    }
+
+    @Override
+    public Socket createSocket(InetAddress address, int port, InetAddress localAddress, int localPort)
+            throws IOException {
+        return track(delegate.createSocket(address, port, localAddress, localPort));
+    }
+}
@@ -3,16 +3,30 @@ package org.jenkinsci.plugins.oic.ssl;
 import java.security.KeyManagementException;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSessionContext;
 import javax.net.ssl.SSLSocketFactory;
 import javax.net.ssl.TrustManager;
 import jenkins.security.FIPS140;
+import jenkins.util.SystemProperties;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.NoExternalUse;
 
 @Restricted(NoExternalUse.class)
 public class TLSUtils {
 
+    @SuppressWarnings("boxing")
+    private static final int SESSION_CACHE_SIZE = SystemProperties.getInteger("OIC_TLS_SESSION_CACHE_SIZE", 1_000);
+
+    @SuppressWarnings("boxing")
+    private static final int SESSION_TIMEOUT_SECONDS =
+            SystemProperties.getInteger("OIC_TLS_SESSION_TIMEOUT_SECONDS", 86_400);
+
+    private static volatile HandshakeCountingSSLSocketFactory anythingGoesSSLSocketFactory;
+
+    private static volatile HandshakeCountingSSLSocketFactory defaultSSLSocketFactory;
+
     /**
      * Construct an {@link SSLSocketFactory} that trust all certificates using "TLS".
      */
@@ -25,6 +39,56 @@ public class TLSUtils {
         }
         SSLContext sslContext = SSLContext.getInstance("TLS");
         sslContext.init(null, new TrustManager[] {AnythingGoesTrustManager.INSTANCE}, new SecureRandom());
+        SSLSessionContext sessionContext = sslContext.getClientSessionContext();
+        sessionContext.setSessionCacheSize(SESSION_CACHE_SIZE);
+        sessionContext.setSessionTimeout(SESSION_TIMEOUT_SECONDS);
         return sslContext.getSocketFactory();
     }
+
+    /**
+     * The {@link SSLSocketFactory} shared by all the outbound calls with this trust mode, so that their TLS sessions
+     * are resumed and their connections kept alive rather than negotiated again for every call.
+     * @param disableTLSValidation {@code true} to trust all certificates, see
+     *     {@link #createAnythingGoesSSLSocketFactory()}, {@code false} to use the default factory of
+     *     {@link HttpsURLConnection}
+     */
+    // 按信任模式缓存SSLSocketFactory，复用TLS会话，避免每次请求都重新创建SSLContext
+    public static SSLSocketFactory getSSLSocketFactory(boolean disableTLSValidation)
+            throws KeyManagementException, NoSuchAlgorithmException {
+        if (disableTLSValidation) {
+            HandshakeCountingSSLSocketFactory factory = anythingGoesSSLSocketFactory;
+            if (factory == null) {
+                synchronized (TLSUtils.class) {
+                    factory = anythingGoesSSLSocketFactory;
+                    if (factory == null) {
+                        factory = new HandshakeCountingSSLSocketFactory(createAnythingGoesSSLSocketFactory());
+                        anythingGoesSSLSocketFactory = factory;
+                    }
+                }
+            }
+            return factory;
+        }
+        SSLSocketFactory delegate = HttpsURLConnection.getDefaultSSLSocketFactory();
+        HandshakeCountingSSLSocketFactory factory = defaultSSLSocketFactory;
+        if (factory == null || factory.getDelegate() != delegate) {
+            // the default factory can be replaced at runtime
+            factory = new HandshakeCountingSSLSocketFactory(delegate);
+            defaultSSLSocketFactory = factory;
+        }
+        return factory;
+    }
+
+    /**
+     * @return the number of full TLS handshakes of the sockets of {@link #getSSLSocketFactory(boolean)}
+     */
+    public static long getFullHandshakeCount() {
+        return HandshakeCountingSSLSocketFactory.FULL_HANDSHAKES.get();
+    }
+
+    /**
+     * @return the number of resumed TLS handshakes of the sockets of {@link #getSSLSocketFactory(boolean)}
+     */
+    public static long getResumedHandshakeCount() {
+        return HandshakeCountingSSLSocketFactory.RESUMED_HANDSHAKES.get();
+    }
 }
@@ -0,0 +1,48 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.jenkinsci.plugins.oic.AuthorizationDecisionCacheTest.MutableClock;
+import org.junit.jupiter.api.Test;
+
+class ApiTokenVerificationCacheTest {
+
+    private final MutableClock clock = new MutableClock();
+
+    @Test
+    void verifiedTokenIsTrustedUntilItsTtl() {
+        ApiTokenVerificationCache cache = new ApiTokenVerificationCache(10, 60_000, clock);
+        String digest = JwtUtils.digest("11aabb");
+        assertFalse(cache.isVerified("bot", digest));
+
+        cache.verified("bot", digest);
+        assertTrue(cache.isVerified("bot", digest));
+        assertFalse(cache.isVerified("other", digest));
+        assertFalse(cache.isVerified("bot", JwtUtils.digest("22ccdd")));
+
+        clock.advance(60_000);
+        assertFalse(cache.isVerified("bot", digest));
+    }
+
+    @Test
+    void tokensOfAUserAreForgottenTogether() {
+        ApiTokenVerificationCache cache = new ApiTokenVerificationCache(10, 60_000, clock);
+        cache.verified("bot", JwtUtils.digest("11aabb"));
+        cache.verified("bot", JwtUtils.digest("22ccdd"));
+        cache.verified("other", JwtUtils.digest("11aabb"));
+
+        assertEquals(2, cache.invalidateUser("bot"));
+        assertFalse(cache.isVerified("bot", JwtUtils.digest("11aabb")));
+        assertTrue(cache.isVerified("other", JwtUtils.digest("11aabb")));
+    }
+
+    @Test
+    void zeroTtlDisablesTheCache() {
+        ApiTokenVerificationCache cache = new ApiTokenVerificationCache(10, 0, clock);
+        cache.verified("bot", JwtUtils.digest("11aabb"));
+        assertFalse(cache.isVerified("bot", JwtUtils.digest("11aabb")));
+        assertEquals(0, cache.size());
+    }
+}
@@ -0,0 +1,78 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import java.io.IOException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+
+@ExtendWith(MockitoExtension.class)
+class AuthorizationCircuitBreakerTest {
+
+    @Mock
+    private ScheduledExecutorService scheduler;
+
+    private final AtomicBoolean reachable = new AtomicBoolean();
+
+    private AuthorizationCircuitBreaker breaker(int failureThreshold) {
+        return new AuthorizationCircuitBreaker(
+                reachable::get, failureThreshold, 1_000, scheduler, new AuthorizationDecisionCacheTest.MutableClock());
+    }
+
+    @Test
+    void opensAfterConsecutiveFailures() {
+        AuthorizationCircuitBreaker breaker = breaker(3);
+
+        breaker.recordFailure(new IOException("1"));
+        breaker.recordFailure(new IOException("2"));
+        breaker.recordSuccess();
+        breaker.recordFailure(new IOException("3"));
+        breaker.recordFailure(new IOException("4"));
+        assertTrue(breaker.allowRequest(), "a success resets the failure count");
+
+        breaker.recordFailure(new IOException("5"));
+        assertEquals(AuthorizationCircuitBreaker.State.OPEN, breaker.getState());
+        assertFalse(breaker.allowRequest());
+        assertEquals(1, breaker.getRejectedCount());
+        assertEquals("java.io.IOException: 5", breaker.getLastFailure());
+        verify(scheduler).schedule(any(Runnable.class), eq(1_000L), eq(TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    void probeClosesTheCircuitOnceTheServiceIsReachable() {
+        AuthorizationCircuitBreaker breaker = breaker(1);
+        breaker.recordFailure(new IOException("down"));
+
+        breaker.probe();
+        assertEquals(AuthorizationCircuitBreaker.State.OPEN, breaker.getState());
+        verify(scheduler, times(2)).schedule(any(Runnable.class), eq(1_000L), eq(TimeUnit.MILLISECONDS));
+
+        reachable.set(true);
+        breaker.probe();
+        assertEquals(AuthorizationCircuitBreaker.State.CLOSED, breaker.getState());
+        assertTrue(breaker.allowRequest());
+        assertEquals(1, breaker.getOpenCount());
+    }
+
+    @Test
+    void disabledBreakerNeverOpens() {
+        AuthorizationCircuitBreaker breaker = breaker(0);
+        for (int i = 0; i < 100; i++) {
+            breaker.recordFailure(new IOException("down"));
+        }
+        assertTrue(breaker.allowRequest());
+        verify(scheduler, never()).schedule(any(Runnable.class), any(Long.class), any(TimeUnit.class));
+    }
+}
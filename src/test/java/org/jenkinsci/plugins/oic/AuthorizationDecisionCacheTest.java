@@ -0,0 +1,211 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.Date;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class AuthorizationDecisionCacheTest {
+
+    private final MutableClock clock = new MutableClock();
+
+    @Test
+    void allowedDecisionIsCachedUntilTtl() {
+        AuthorizationDecisionCache cache = new AuthorizationDecisionCache(10, 60_000, clock);
+        AuthorizationDecisionCache.Key key = new AuthorizationDecisionCache.Key("digest", "ws", "amamba.pipeline.get");
+
+        assertFalse(cache.isAllowed(key));
+        cache.allow(key, new Date(clock.millis() + 3_600_000));
+        assertTrue(cache.isAllowed(key));
+
+        clock.advance(60_000);
+        assertFalse(cache.isAllowed(key), "decision should expire after the ttl");
+        assertEquals(1, cache.getHitCount());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    void decisionNeverOutlivesTokenExpiration() {
+        AuthorizationDecisionCache cache = new AuthorizationDecisionCache(10, 60_000, clock);
+        AuthorizationDecisionCache.Key key = new AuthorizationDecisionCache.Key("digest", "ws", "amamba.pipeline.get");
+
+        cache.allow(key, new Date(clock.millis() + 5_000));
+        clock.advance(4_999);
+        assertTrue(cache.isAllowed(key));
+        clock.advance(1);
+        assertFalse(cache.isAllowed(key), "decision must not be used once the token has expired");
+    }
+
+    @Test
+    void expiredOrUnknownTokensAreNotCached() {
+        AuthorizationDecisionCache cache = new AuthorizationDecisionCache(10, 60_000, clock);
+        AuthorizationDecisionCache.Key key = new AuthorizationDecisionCache.Key("digest", "ws", "amamba.pipeline.get");
+
+        cache.allow(key, new Date(clock.millis() - 1));
+        cache.allow(key, null);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void leastRecentlyUsedDecisionIsEvicted() {
+        AuthorizationDecisionCache cache = new AuthorizationDecisionCache(2, 60_000, clock);
+        Date exp = new Date(clock.millis() + 3_600_000);
+        AuthorizationDecisionCache.Key get = new AuthorizationDecisionCache.Key("digest", "ws", "amamba.pipeline.get");
+        AuthorizationDecisionCache.Key run = new AuthorizationDecisionCache.Key("digest", "ws", "amamba.pipeline.run");
+        AuthorizationDecisionCache.Key other = new AuthorizationDecisionCache.Key("other", "ws", "amamba.pipeline.get");
+
+        cache.allow(get, exp);
+        cache.allow(run, exp);
+        assertTrue(cache.isAllowed(get));
+        cache.allow(other, exp);
+
+        assertEquals(2, cache.size());
+        assertTrue(cache.isAllowed(get));
+        assertTrue(cache.isAllowed(other));
+        assertFalse(cache.isAllowed(run), "least recently used entry should have been evicted");
+        assertEquals(1, cache.getEvictionCount());
+    }
+
+    @Test
+    void disabledCacheStoresNothing() {
+        AuthorizationDecisionCache cache = new AuthorizationDecisionCache(0, 60_000, clock);
+        AuthorizationDecisionCache.Key key = new AuthorizationDecisionCache.Key("digest", "ws", "amamba.pipeline.get");
+
+        cache.allow(key, new Date(clock.millis() + 3_600_000));
+        assertFalse(cache.isAllowed(key));
+    }
+
+    @Test
+    void permissionSetIsCachedPerWorkspace() {
+        AuthorizationDecisionCache cache = new AuthorizationDecisionCache(10, 60_000, clock);
+        AuthorizationDecisionCache.Key workspace =
+                new AuthorizationDecisionCache.Key("digest", "ws", "amamba.pipeline.run").forWorkspace();
+
+        assertNull(cache.getPermissionSet(workspace));
+        cache.putPermissionSet(workspace, Set.of("amamba.pipeline.get"), new Date(clock.millis() + 5_000));
+        assertEquals(
+                Set.of("amamba.pipeline.get"),
+                cache.getPermissionSet(new AuthorizationDecisionCache.Key("digest", "ws", "amamba.pipeline.get")
+                        .forWorkspace()));
+
+        clock.advance(5_000);
+        assertNull(cache.getPermissionSet(workspace), "permissions must not be used once the token has expired");
+    }
+
+    @Test
+    void allowedDecisionIsKeptForTheStaleGraceWindow() {
+        AuthorizationDecisionCache cache = new AuthorizationDecisionCache(10, 60_000, 30_000, clock);
+        AuthorizationDecisionCache.Key key = new AuthorizationDecisionCache.Key("digest", "ws", "amamba.pipeline.get");
+
+        cache.allow(key, new Date(clock.millis() + 80_000));
+        clock.advance(60_000);
+        assertFalse(cache.isAllowed(key), "stale decision must not be used while the service is available");
+        assertTrue(cache.wasAllowedWithinGrace(key));
+
+        clock.advance(20_000);
+        assertFalse(cache.wasAllowedWithinGrace(key), "grace window must not outlive the token");
+        assertEquals(1, cache.getStaleHitCount());
+    }
+
+    @Test
+    void denialIsCachedBrieflyAndApartFromAllowDecisions() {
+        AuthorizationDecisionCache cache = new AuthorizationDecisionCache(1, 60_000, 0, 10, 5_000, clock);
+        Date exp = new Date(clock.millis() + 3_600_000);
+        AuthorizationDecisionCache.Key allowed = new AuthorizationDecisionCache.Key("digest", "ws", "amamba.pipeline.get");
+        AuthorizationDecisionCache.Key denied = new AuthorizationDecisionCache.Key("digest", "ws", "amamba.pipeline.delete");
+
+        cache.allow(allowed, exp);
+        cache.deny(denied, 403, exp);
+        cache.deny(new AuthorizationDecisionCache.Key("bot", "ws", "amamba.pipeline.delete"), 403, exp);
+        assertTrue(cache.isAllowed(allowed), "denials must not evict allow decisions");
+        assertEquals(403, cache.getDenial(denied));
+        assertNull(cache.getDenial(allowed));
+
+        clock.advance(5_000);
+        assertNull(cache.getDenial(denied), "denial should expire after the negative ttl");
+        assertEquals(1, cache.getDenialHitCount());
+    }
+
+    @Test
+    void rejectedTokenIsDeniedEverywhere() {
+        AuthorizationDecisionCache cache = new AuthorizationDecisionCache(10, 60_000, 0, 10, 5_000, clock);
+        Date exp = new Date(clock.millis() + 3_600_000);
+
+        cache.deny(new AuthorizationDecisionCache.Key("digest", "ws", "amamba.pipeline.get"), 401, exp);
+        assertEquals(401, cache.getDenial(new AuthorizationDecisionCache.Key("digest", "other", "amamba.pipeline.run")));
+        assertNull(cache.getDenial(new AuthorizationDecisionCache.Key("other", "ws", "amamba.pipeline.get")));
+
+        cache.deny(new AuthorizationDecisionCache.Key("other", "ws", null), 403, exp);
+        assertEquals(403, cache.getDenial(new AuthorizationDecisionCache.Key("other", "ws", "amamba.pipeline.run")));
+    }
+
+    @Test
+    void negativeCacheCanBeDisabled() {
+        AuthorizationDecisionCache cache = new AuthorizationDecisionCache(10, 60_000, 0, 10, 0, clock);
+        AuthorizationDecisionCache.Key key = new AuthorizationDecisionCache.Key("digest", "ws", "amamba.pipeline.get");
+
+        cache.deny(key, 403, new Date(clock.millis() + 3_600_000));
+        assertNull(cache.getDenial(key));
+    }
+
+    @Test
+    void decisionsAreInvalidatedByWorkspaceAndSubject() {
+        AuthorizationDecisionCache cache = new AuthorizationDecisionCache(10, 60_000, 0, 10, 5_000, clock);
+        Date exp = new Date(clock.millis() + 3_600_000);
+        AuthorizationDecisionCache.Key aliceWs1 = new AuthorizationDecisionCache.Key("a", "alice", "ws1", "amamba.pipeline.get");
+        AuthorizationDecisionCache.Key aliceWs2 = new AuthorizationDecisionCache.Key("a", "alice", "ws2", "amamba.pipeline.get");
+        AuthorizationDecisionCache.Key bobWs1 = new AuthorizationDecisionCache.Key("b", "bob", "ws1", "amamba.pipeline.get");
+        AuthorizationDecisionCache.Key bobWs2 = new AuthorizationDecisionCache.Key("b", "bob", "ws2", "amamba.pipeline.run");
+        cache.allow(aliceWs1, exp);
+        cache.allow(aliceWs2, exp);
+        cache.allow(bobWs1, exp);
+        cache.putPermissionSet(bobWs1.forWorkspace(), Set.of("amamba.pipeline.get"), exp);
+        cache.deny(bobWs2, 403, exp);
+
+        assertEquals(1, cache.invalidate("alice", "ws1"));
+        assertFalse(cache.isAllowed(aliceWs1));
+        assertTrue(cache.isAllowed(aliceWs2));
+
+        assertEquals(2, cache.invalidateWorkspace("ws1"));
+        assertFalse(cache.isAllowed(bobWs1));
+        assertNull(cache.getPermissionSet(bobWs1.forWorkspace()));
+        assertEquals(403, cache.getDenial(bobWs2));
+
+        assertEquals(1, cache.invalidateSubject("bob"));
+        assertNull(cache.getDenial(bobWs2));
+        assertTrue(cache.isAllowed(aliceWs2));
+        assertEquals(0, cache.invalidateSubject("carol"));
+    }
+
+    static final class MutableClock extends Clock {
+        private long millis = 1_000_000L;
+
+        void advance(long delta) {
+            millis += delta;
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return Instant.ofEpochMilli(millis);
+        }
+    }
+}
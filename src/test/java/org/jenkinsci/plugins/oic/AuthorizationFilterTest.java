@@ -0,0 +1,189 @@
+package org.jenkinsci.plugins.oic;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.MACSigner;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.SignedJWT;
+import jakarta.servlet.AsyncContext;
+import jakarta.servlet.DispatcherType;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicReference;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+import org.springframework.security.core.Authentication;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+@WithJenkins
+class AuthorizationFilterTest {
+
+    @RegisterExtension
+    static WireMockExtension wireMock = WireMockExtension.newInstance()
+            .failOnUnmatchedRequests(true)
+            .options(wireMockConfig().dynamicPort())
+            .build();
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+    private final HttpServletRequest request = mock(HttpServletRequest.class);
+    private final HttpServletResponse response = mock(HttpServletResponse.class);
+    private final AsyncContext asyncContext = mock(AsyncContext.class);
+    private final FilterChain chain = mock(FilterChain.class);
+
+    private boolean asyncAuthorization;
+
+    @BeforeEach
+    void setUp(JenkinsRule jenkinsRule) throws Exception {
+        TestRealm.Builder builder = new TestRealm.Builder(wireMock).WithMinimalDefaults();
+        builder.enableExternalAuth = true;
+        jenkinsRule.jenkins.setSecurityRealm(builder.build());
+        asyncAuthorization = AuthorizationFilter.asyncAuthorization;
+        AuthorizationFilter.asyncAuthorization = true;
+
+        when(request.getRequestURI()).thenReturn("/jenkins/job/ws/job/pipeline/api/json");
+        when(request.getContextPath()).thenReturn("/jenkins");
+        when(request.getMethod()).thenReturn("GET");
+        when(request.getHeader("Authorization")).thenReturn("Bearer " + token());
+        when(request.getHeader(OicConstants.CUSTOM_SOURCE_HEADER)).thenReturn(OicConstants.CUSTOM_SOURCE_HEADER_VALUE);
+        when(request.getDispatcherType()).thenReturn(DispatcherType.REQUEST);
+        when(request.isAsyncSupported()).thenReturn(true);
+        when(request.startAsync(request, response)).thenReturn(asyncContext);
+        when(asyncContext.getRequest()).thenReturn(request);
+        when(asyncContext.getResponse()).thenReturn(response);
+    }
+
+    @AfterEach
+    void tearDown() {
+        AuthorizationFilter.asyncAuthorization = asyncAuthorization;
+        executor.shutdownNow();
+        SecurityContextHolder.clearContext();
+    }
+
+    private static String token() throws Exception {
+        SignedJWT jwt = new SignedJWT(
+                new JWSHeader(JWSAlgorithm.HS256),
+                new JWTClaimsSet.Builder()
+                        .subject("user-id")
+                        .jwtID(UUID.randomUUID().toString())
+                        .expirationTime(new Date(System.currentTimeMillis() + 3_600_000))
+                        .claim("preferred_username", "alice")
+                        .build());
+        jwt.sign(new MACSigner(UUID.randomUUID() + UUID.randomUUID().toString()));
+        return jwt.serialize();
+    }
+
+    private static void authorizationServiceAnswers(boolean authorized, int delayMillis) {
+        wireMock.stubFor(post(urlPathEqualTo("/authorization"))
+                .willReturn(aResponse()
+                        .withFixedDelay(delayMillis)
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"authorized\": " + authorized + "}")));
+    }
+
+    @Test
+    void allowedRequestGoesOnInTheAsyncContext() throws Exception {
+        authorizationServiceAnswers(true, 0);
+        AtomicReference<Thread> chainThread = new AtomicReference<>();
+        AtomicReference<Authentication> chainAuthentication = new AtomicReference<>();
+        doAnswer(invocation -> {
+                    chainThread.set(Thread.currentThread());
+                    chainAuthentication.set(SecurityContextHolder.getContext().getAuthentication());
+                    return null;
+                })
+                .when(chain)
+                .doFilter(request, response);
+
+        new AuthorizationFilter(executor, 10_000).doFilter(request, response, chain);
+
+        verify(asyncContext, timeout(5_000)).complete();
+        verify(chain).doFilter(request, response);
+        verify(asyncContext).setTimeout(0);
+        verify(asyncContext, never()).dispatch();
+        verify(response, never()).sendError(anyInt(), anyString());
+        assertNotSame(Thread.currentThread(), chainThread.get(), "the container thread was released");
+        assertEquals("alice", chainAuthentication.get().getName());
+    }
+
+    @Test
+    void deniedRequestIsAnsweredInTheAsyncContext() throws Exception {
+        authorizationServiceAnswers(false, 0);
+
+        new AuthorizationFilter(executor, 10_000).doFilter(request, response, chain);
+
+        verify(asyncContext, timeout(5_000)).complete();
+        verify(response).sendError(eq(HttpServletResponse.SC_FORBIDDEN), anyString());
+        verify(chain, never()).doFilter(request, response);
+    }
+
+    @Test
+    void requestWithoutADecisionInTimeIsUnavailable() throws Exception {
+        authorizationServiceAnswers(true, 3_000);
+
+        new AuthorizationFilter(executor, 200).doFilter(request, response, chain);
+
+        verify(asyncContext, timeout(2_000)).complete();
+        verify(response).sendError(eq(HttpServletResponse.SC_SERVICE_UNAVAILABLE), anyString());
+        verify(chain, never()).doFilter(request, response);
+    }
+
+    @Test
+    void requestRejectedByTheExecutorIsUnavailable() throws Exception {
+        executor.shutdown();
+
+        new AuthorizationFilter(executor, 10_000).doFilter(request, response, chain);
+
+        verify(asyncContext).complete();
+        verify(response).sendError(eq(HttpServletResponse.SC_SERVICE_UNAVAILABLE), anyString());
+        verify(chain, never()).doFilter(request, response);
+    }
+
+    @Test
+    void asyncDispatchIsCheckedOnTheContainerThread() throws Exception {
+        authorizationServiceAnswers(false, 0);
+        when(request.getDispatcherType()).thenReturn(DispatcherType.ASYNC);
+
+        new AuthorizationFilter(executor, 10_000).doFilter(request, response, chain);
+
+        verify(request, never()).startAsync(request, response);
+        verify(response).sendError(eq(HttpServletResponse.SC_FORBIDDEN), anyString());
+        verify(chain, never()).doFilter(request, response);
+    }
+
+    @Test
+    void upgradeRequestIsCheckedOnTheContainerThread() throws Exception {
+        authorizationServiceAnswers(true, 0);
+        when(request.getHeader("Upgrade")).thenReturn("websocket");
+
+        new AuthorizationFilter(executor, 10_000).doFilter(request, response, chain);
+
+        verify(request, never()).startAsync(request, response);
+        verify(chain).doFilter(request, response);
+    }
+}
@@ -0,0 +1,32 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+import org.junit.jupiter.api.Test;
+
+class AuthorizationHeaderTest {
+
+    private static String basic(String credentials) {
+        return "Basic " + Base64.getEncoder().encodeToString(credentials.getBytes(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void basicCredentialsAreDecoded() {
+        AuthorizationHeader header = AuthorizationHeader.parse(basic("bot:11aa:bb"));
+        assertEquals(AuthorizationHeader.Kind.BASIC, header.getKind());
+        assertEquals("bot", header.getUsername());
+        assertEquals("11aa:bb", header.getPassword());
+    }
+
+    @Test
+    void headersAreClassified() {
+        assertSame(AuthorizationHeader.NONE, AuthorizationHeader.parse(null));
+        assertEquals(AuthorizationHeader.Kind.DCE_TOKEN, AuthorizationHeader.parse("Basic aaa.bbb.ccc").getKind());
+        assertEquals(AuthorizationHeader.Kind.OTHER, AuthorizationHeader.parse("Bearer aaa.bbb.ccc").getKind());
+        assertEquals(AuthorizationHeader.Kind.OTHER, AuthorizationHeader.parse("Basic %%%").getKind());
+        assertEquals(AuthorizationHeader.Kind.OTHER, AuthorizationHeader.parse(basic("no-colon")).getKind());
+    }
+}
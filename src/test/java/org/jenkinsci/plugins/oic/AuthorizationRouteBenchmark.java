@@ -0,0 +1,76 @@
+package org.jenkinsci.plugins.oic;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Per-request cost of deciding whether a request needs authorization and on which workspace, before and after
+ * {@link AuthorizationRoute}. Run with {@code mvn test -Dbenchmark -Dtest=BenchmarkRunner}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AuthorizationRouteBenchmark {
+
+    private static final Pattern FOLDER_PATH_PATTERN = Pattern.compile("^/job/([^/]+)/job/");
+    private static final Pattern BLUEOCEAN_PATH_PATTERN =
+            Pattern.compile("^/blue/rest/organizations/jenkins/pipelines/([^/]+)/pipelines/");
+
+    @Param({
+        "/job/ws/job/pipeline/wfapi/runs",
+        "/blue/rest/organizations/jenkins/pipelines/ws/pipelines/pipeline/runs/",
+        "/static/abc123/css/style.css"
+    })
+    public String path;
+
+    @Param({"GET", "POST"})
+    public String method;
+
+    /**
+     * What {@code AuthorizationFilter.shouldAuthorization} and {@code UrlPathUtils.extractFolderInfo} used to do.
+     */
+    @Benchmark
+    public void perRequestPatterns(Blackhole blackhole) {
+        String requestMethod = method.toLowerCase();
+        boolean methodMatch = requestMethod.equals("post")
+                || requestMethod.equals("put")
+                || requestMethod.equals("delete")
+                || requestMethod.equals("get");
+        Pattern jobPattern = Pattern.compile("^/job/([^/]+)(?:/job/([^/]+))*");
+        Pattern pipelinePattern =
+                Pattern.compile("^/blue/rest/organizations/jenkins/pipelines/([^/]+)(?:/pipelines/([^/]+))*");
+        boolean pathMatch = jobPattern.matcher(path).find()
+                || pipelinePattern.matcher(path).find();
+        blackhole.consume(methodMatch && pathMatch);
+
+        String folderPath = null;
+        Matcher jobMatcher = FOLDER_PATH_PATTERN.matcher(path);
+        if (jobMatcher.find()) {
+            folderPath = jobMatcher.group(1);
+        } else {
+            Matcher blueoceanMatcher = BLUEOCEAN_PATH_PATTERN.matcher(path);
+            if (blueoceanMatcher.find()) {
+                folderPath = blueoceanMatcher.group(1);
+            }
+        }
+        blackhole.consume(folderPath);
+        blackhole.consume("POST".equals(method.toUpperCase(Locale.ROOT))
+                && (path.matches("/job/[^/]+/job/[^/]+/build.*")
+                        || path.matches("/blue/rest/organizations/jenkins/pipelines/[^/]+/pipelines/[^/]+/runs.*")));
+    }
+
+    @Benchmark
+    public AuthorizationRoute routeClassification() {
+        return AuthorizationRoute.classify(path, method, false);
+    }
+}
@@ -0,0 +1,80 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import jakarta.servlet.http.HttpServletRequest;
+import org.junit.jupiter.api.Test;
+
+class AuthorizationRouteTest {
+
+    @Test
+    void nestedJobIsAuthorizedOnItsWorkspace() {
+        AuthorizationRoute route = AuthorizationRoute.classify("/job/ws/job/pipeline/api/json", "get", false);
+        assertTrue(route.isAuthorizationRequired());
+        assertEquals("ws", route.getWorkspace());
+        assertEquals("GET", route.getMethod());
+        assertFalse(route.isRunAction());
+    }
+
+    @Test
+    void topLevelJobHasNoWorkspace() {
+        AuthorizationRoute route = AuthorizationRoute.classify("/job/ws/api/json", "GET", false);
+        assertTrue(route.isAuthorizationRequired());
+        assertNull(route.getWorkspace());
+    }
+
+    @Test
+    void buildIsARunAction() {
+        assertTrue(AuthorizationRoute.classify("/job/ws/job/pipeline/buildWithParameters", "POST", false)
+                .isRunAction());
+        assertTrue(AuthorizationRoute.classify(
+                        "/blue/rest/organizations/jenkins/pipelines/ws/pipelines/pipeline/runs/", "POST", false)
+                .isRunAction());
+        assertFalse(AuthorizationRoute.classify("/job/ws/job/pipeline/build", "GET", false)
+                .isRunAction());
+        assertFalse(AuthorizationRoute.classify("/job/ws/job//build", "POST", false)
+                .isRunAction());
+    }
+
+    @Test
+    void blueOceanPipelineIsAuthorizedOnItsWorkspace() {
+        AuthorizationRoute route = AuthorizationRoute.classify(
+                "/blue/rest/organizations/jenkins/pipelines/ws/pipelines/pipeline/", "DELETE", false);
+        assertTrue(route.isAuthorizationRequired());
+        assertEquals("ws", route.getWorkspace());
+    }
+
+    @Test
+    void otherPathsAndMethodsAreNotAuthorized() {
+        assertFalse(AuthorizationRoute.classify("/manage/", "GET", false).isAuthorizationRequired());
+        assertFalse(AuthorizationRoute.classify("/job//job/pipeline", "GET", false).isAuthorizationRequired());
+        assertFalse(AuthorizationRoute.classify("/view/all/job/ws/job/pipeline", "GET", false)
+                .isAuthorizationRequired());
+        assertFalse(AuthorizationRoute.classify("/job/ws/job/pipeline", "HEAD", false).isAuthorizationRequired());
+    }
+
+    @Test
+    void classificationIsKeptOnTheRequest() {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getRequestURI()).thenReturn("/jenkins/job/ws/job/pipeline/");
+        when(request.getContextPath()).thenReturn("/jenkins");
+        when(request.getMethod()).thenReturn("GET");
+
+        AuthorizationRoute route = AuthorizationRoute.of(request);
+        assertEquals("/job/ws/job/pipeline/", route.getPath());
+        assertEquals("ws", route.getWorkspace());
+        verify(request).setAttribute(eq(AuthorizationRoute.class.getName()), same(route));
+
+        when(request.getAttribute(AuthorizationRoute.class.getName())).thenReturn(route);
+        assertSame(route, AuthorizationRoute.of(request));
+    }
+}
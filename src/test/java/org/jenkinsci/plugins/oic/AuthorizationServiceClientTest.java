@@ -0,0 +1,106 @@
+package org.jenkinsci.plugins.oic;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalToJson;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+
+class AuthorizationServiceClientTest {
+
+    @RegisterExtension
+    static WireMockExtension wireMock = WireMockExtension.newInstance()
+            .failOnUnmatchedRequests(true)
+            .options(wireMockConfig().dynamicPort())
+            .build();
+
+    @Test
+    void clientIsReusedAcrossChecks() throws Exception {
+        wireMock.stubFor(post(urlPathEqualTo("/authz"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"authorized\": true}")));
+
+        try (AuthorizationServiceClient client = new AuthorizationServiceClient(wireMock.url("/authz"))) {
+            for (int i = 0; i < 5; i++) {
+                assertTrue(client.checkAuthorization("Bearer a.b.c", "ws", "amamba.pipeline.get")
+                        .isAuthorized());
+            }
+        }
+
+        wireMock.verify(
+                5,
+                postRequestedFor(urlPathEqualTo("/authz"))
+                        .withHeader("Authorization", equalTo("Bearer a.b.c"))
+                        .withRequestBody(
+                                equalToJson("{\"workspaceID\": \"ws\", \"permission\": \"amamba.pipeline.get\"}")));
+    }
+
+    @Test
+    void deniedResponseIsNotAuthorized() throws Exception {
+        wireMock.stubFor(post(urlPathEqualTo("/authz"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"authorized\": false}")));
+
+        try (AuthorizationServiceClient client = new AuthorizationServiceClient(wireMock.url("/authz"))) {
+            assertFalse(client.checkAuthorization("a.b.c", "ws", "amamba.pipeline.delete")
+                    .isAuthorized());
+        }
+    }
+
+    @Test
+    void rejectedTokenIsReportedWithItsStatus() {
+        wireMock.stubFor(post(urlPathEqualTo("/authz")).willReturn(aResponse().withStatus(401)));
+
+        try (AuthorizationServiceClient client = new AuthorizationServiceClient(wireMock.url("/authz"))) {
+            AuthorizationServiceClient.AuthorizationRejectedException e = assertThrows(
+                    AuthorizationServiceClient.AuthorizationRejectedException.class,
+                    () -> client.checkAuthorization("a.b.c", "ws", "amamba.pipeline.get"));
+            assertEquals(401, e.getStatusCode());
+        }
+    }
+
+    @Test
+    void workspacePermissionsAreFetchedInOneCall() throws Exception {
+        wireMock.stubFor(post(urlPathEqualTo("/authz"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"permissions\": [\"amamba.pipeline.get\", \"amamba.pipeline.run\"]}")));
+
+        try (AuthorizationServiceClient client = new AuthorizationServiceClient(wireMock.url("/authz"))) {
+            assertEquals(
+                    Set.of("amamba.pipeline.get", "amamba.pipeline.run"),
+                    client.getGrantedPermissions("a.b.c", "ws", UrlPathUtils.PIPELINE_PERMISSIONS));
+        }
+
+        wireMock.verify(
+                1,
+                postRequestedFor(urlPathEqualTo("/authz"))
+                        .withRequestBody(equalToJson("{\"workspaceID\": \"ws\", \"permissions\": "
+                                + "[\"amamba.pipeline.get\", \"amamba.pipeline.create\", \"amamba.pipeline.update\", "
+                                + "\"amamba.pipeline.delete\", \"amamba.pipeline.run\"]}")));
+    }
+
+    @Test
+    void errorStatusIsReported() {
+        wireMock.stubFor(post(urlPathEqualTo("/authz")).willReturn(aResponse().withStatus(502)));
+
+        try (AuthorizationServiceClient client = new AuthorizationServiceClient(wireMock.url("/authz"))) {
+            assertThrows(
+                    AuthorizationServiceClient.AuthorizationException.class,
+                    () -> client.checkAuthorization("a.b.c", "ws", "amamba.pipeline.get"));
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.util.List;
+import org.jenkinsci.plugins.oic.AuthorizationDecisionCacheTest.MutableClock;
+import org.junit.jupiter.api.Test;
+
+class ExpiringCacheTest {
+
+    private final MutableClock clock = new MutableClock();
+
+    private static List<Object> terms(String key) {
+        return List.of(key.substring(0, 1));
+    }
+
+    @Test
+    void indexedEntriesAreRemovedTogether() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(10, clock, ExpiringCacheTest::terms);
+        long expiresAt = clock.millis() + 1_000;
+        cache.put("a1", "x", expiresAt);
+        cache.put("a2", "x", expiresAt);
+        cache.put("b1", "x", expiresAt);
+
+        assertEquals(2, cache.removeAll("a"));
+        assertNull(cache.get("a1"));
+        assertEquals("x", cache.get("b1"));
+        assertEquals(0, cache.removeAll("a"));
+    }
+
+    @Test
+    void indexDoesNotKeepEvictedOrExpiredKeys() {
+        ExpiringCache<String, String> cache = new ExpiringCache<>(1, clock, ExpiringCacheTest::terms);
+        cache.put("a1", "x", clock.millis() + 1_000);
+        cache.put("b1", "x", clock.millis() + 1_000);
+        assertEquals(1, cache.indexSize(), "the evicted key should have been removed from the index");
+
+        clock.advance(1_000);
+        assertNull(cache.get("b1"));
+        assertEquals(0, cache.indexSize(), "the expired key should have been removed from the index");
+
+        cache.put("c1", "x", clock.millis() + 1_000);
+        cache.remove("c1");
+        assertEquals(0, cache.indexSize());
+    }
+}
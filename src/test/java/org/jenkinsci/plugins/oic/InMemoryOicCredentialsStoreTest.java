@@ -0,0 +1,112 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import hudson.model.User;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+class InMemoryOicCredentialsStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private static OicCredentials credentials(String token) {
+        return new OicCredentials("access-" + token, "id-" + token, "refresh-" + token, 60L, 1000L, 0L);
+    }
+
+    private static String keyOf(User user) {
+        return User.idStrategy().keyFor(user.getId());
+    }
+
+    @Test
+    void storedCredentialsAreLoaded(JenkinsRule jenkinsRule) throws Exception {
+        InMemoryOicCredentialsStore store = new InMemoryOicCredentialsStore(null);
+        User alice = User.getById("alice", true);
+        User bob = User.getById("bob", true);
+
+        store.store(alice, credentials("a1"));
+        store.store(alice, credentials("a2"));
+
+        assertEquals(credentials("a2"), store.load(alice));
+        assertNull(store.load(bob));
+        assertEquals(1, store.size());
+        assertNull(alice.getProperty(OicCredentials.class), "nothing is written to the user");
+    }
+
+    @Test
+    void credentialsAreReadBackFromTheJournal(JenkinsRule jenkinsRule) throws Exception {
+        Path file = dir.resolve("journal");
+        InMemoryOicCredentialsStore store = new InMemoryOicCredentialsStore(new OicCredentialsJournal(file));
+        User alice = User.getById("alice", true);
+        store.store(alice, credentials("a1"));
+        store.store(alice, credentials("a2"));
+        store.flush();
+
+        InMemoryOicCredentialsStore restarted = new InMemoryOicCredentialsStore(new OicCredentialsJournal(file));
+
+        assertEquals(1, restarted.size());
+        assertEquals(credentials("a2"), restarted.load(alice));
+    }
+
+    @Test
+    void journalKeepsTheLatestOfConcurrentChanges(JenkinsRule jenkinsRule) throws Exception {
+        Path file = dir.resolve("journal");
+        InMemoryOicCredentialsStore store = new InMemoryOicCredentialsStore(new OicCredentialsJournal(file));
+        User alice = User.getById("alice", true);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> stores = new ArrayList<>();
+            for (int i = 0; i < 400; i++) {
+                String token = "a" + i;
+                stores.add(executor.submit(() -> store.store(alice, credentials(token))));
+            }
+            for (Future<?> future : stores) {
+                future.get();
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        Map<String, InMemoryOicCredentialsStore.Entry> journal = new OicCredentialsJournal(file).drainEntries();
+        assertEquals(store.load(alice), journal.get(keyOf(alice)).toCredentials());
+    }
+
+    @Test
+    void credentialsOfTheUserAreMigratedOnFirstLoad(JenkinsRule jenkinsRule) throws Exception {
+        Path file = dir.resolve("journal");
+        InMemoryOicCredentialsStore store = new InMemoryOicCredentialsStore(new OicCredentialsJournal(file));
+        User alice = User.getById("alice", true);
+        alice.addProperty(credentials("legacy"));
+
+        assertEquals(credentials("legacy"), store.load(alice));
+
+        assertTrue(alice.getProperty(OicCredentials.class).isEmpty(), "the credentials left the config.xml");
+        assertEquals(1, store.size());
+        assertEquals(credentials("legacy"), store.load(alice));
+        Map<String, InMemoryOicCredentialsStore.Entry> journal = new OicCredentialsJournal(file).drainEntries();
+        assertEquals(credentials("legacy"), journal.get(keyOf(alice)).toCredentials());
+    }
+
+    @Test
+    void userWithoutCredentialsIsNotMigrated(JenkinsRule jenkinsRule) throws Exception {
+        InMemoryOicCredentialsStore store = new InMemoryOicCredentialsStore(null);
+        User alice = User.getById("alice", true);
+        alice.addProperty(new OicCredentials(null, null, null, null));
+
+        assertNull(store.load(alice));
+        assertEquals(0, store.size());
+    }
+}
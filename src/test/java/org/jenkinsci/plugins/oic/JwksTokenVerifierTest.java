@@ -0,0 +1,225 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.crypto.RSASSASigner;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.jwk.gen.RSAKeyGenerator;
+import com.nimbusds.jose.util.Resource;
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+import com.nimbusds.jwt.SignedJWT;
+import java.io.IOException;
+import java.net.URL;
+import java.time.Duration;
+import java.util.Date;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import org.jenkinsci.plugins.oic.AuthorizationDecisionCacheTest.MutableClock;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+class JwksTokenVerifierTest {
+
+    private static final String ISSUER = "https://dce.example.com";
+
+    private final MutableClock clock = new MutableClock();
+    private final AtomicInteger fetches = new AtomicInteger();
+    private RSAKey signingKey;
+    private JWKSet published;
+    private boolean providerDown;
+    private JwksTokenVerifier verifier;
+
+    @BeforeEach
+    void setUp() throws Exception {
+        signingKey = new RSAKeyGenerator(2048).keyID("key-1").generate();
+        published = new JWKSet(signingKey.toPublicJWK());
+        verifier = new JwksTokenVerifier(
+                new URL("https://dce.example.com/jwks"),
+                ISSUER,
+                url -> {
+                    fetches.incrementAndGet();
+                    if (providerDown) {
+                        throw new IOException("connection refused");
+                    }
+                    return new Resource(published.toString(), "application/json");
+                },
+                Runnable::run,
+                clock,
+                300_000,
+                30_000,
+                100);
+    }
+
+    private static JwtUtils.JwtTokenInfo signed(RSAKey key, String issuer) throws JOSEException {
+        SignedJWT jwt = new SignedJWT(
+                new JWSHeader.Builder(JWSAlgorithm.RS256).keyID(key.getKeyID()).build(), claims(issuer));
+        jwt.sign(new RSASSASigner(key));
+        return JwtUtils.parseJwtToken(jwt.serialize());
+    }
+
+    private static JWTClaimsSet claims(String issuer) {
+        return new JWTClaimsSet.Builder()
+                .subject("user-id")
+                .issuer(issuer)
+                .jwtID(UUID.randomUUID().toString())
+                .expirationTime(new Date(System.currentTimeMillis() + 3_600_000))
+                .build();
+    }
+
+    @Test
+    void tokenSignedByTheProviderIsVerifiedOnce() throws Exception {
+        JwtUtils.JwtTokenInfo tokenInfo = signed(signingKey, ISSUER);
+
+        assertEquals(JwksTokenVerifier.Result.VALID, verifier.verify(tokenInfo));
+        assertEquals(JwksTokenVerifier.Result.VALID, verifier.verify(tokenInfo));
+        assertEquals(1, fetches.get());
+    }
+
+    @Test
+    void forgedTokenIsInvalid() throws Exception {
+        RSAKey forger = new RSAKeyGenerator(2048).keyID("key-1").generate();
+
+        assertEquals(JwksTokenVerifier.Result.INVALID, verifier.verify(signed(forger, ISSUER)));
+    }
+
+    @Test
+    void tokenOfAnotherIssuerIsInvalid() throws Exception {
+        assertEquals(JwksTokenVerifier.Result.INVALID, verifier.verify(signed(signingKey, "https://evil.example.com")));
+        assertEquals(0, fetches.get());
+    }
+
+    @Test
+    void unsignedTokenIsInvalid() {
+        JwtUtils.JwtTokenInfo tokenInfo =
+                JwtUtils.parseJwtToken(new PlainJWT(claims(ISSUER)).serialize());
+
+        assertEquals(JwksTokenVerifier.Result.INVALID, verifier.verify(tokenInfo));
+    }
+
+    @Test
+    void unknownKeyIdTriggersARateLimitedRefetch() throws Exception {
+        assertEquals(JwksTokenVerifier.Result.VALID, verifier.verify(signed(signingKey, ISSUER)));
+
+        // the provider rotates its key
+        RSAKey rotated = new RSAKeyGenerator(2048).keyID("key-2").generate();
+        published = new JWKSet(rotated.toPublicJWK());
+        clock.advance(30_000);
+        assertEquals(JwksTokenVerifier.Result.VALID, verifier.verify(signed(rotated, ISSUER)));
+        assertEquals(2, fetches.get());
+
+        // garbage key ids do not hammer the provider
+        RSAKey unknown = new RSAKeyGenerator(2048).keyID("key-3").generate();
+        assertEquals(JwksTokenVerifier.Result.INVALID, verifier.verify(signed(unknown, ISSUER)));
+        assertEquals(JwksTokenVerifier.Result.INVALID, verifier.verify(signed(unknown, ISSUER)));
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    void staleKeysAreRefreshedInTheBackground() throws Exception {
+        assertEquals(JwksTokenVerifier.Result.VALID, verifier.verify(signed(signingKey, ISSUER)));
+
+        clock.advance(300_000);
+        assertEquals(JwksTokenVerifier.Result.VALID, verifier.verify(signed(signingKey, ISSUER)));
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    void tokenIsUnverifiableWhileTheProviderIsDown() throws Exception {
+        providerDown = true;
+
+        assertEquals(JwksTokenVerifier.Result.UNVERIFIABLE, verifier.verify(signed(signingKey, ISSUER)));
+    }
+
+    /**
+     * @return a verifier whose fetch number {@code blockedFetch} waits for {@code release}
+     */
+    private JwksTokenVerifier blockingVerifier(
+            int blockedFetch, CountDownLatch fetching, CountDownLatch release, Executor executor) throws Exception {
+        return new JwksTokenVerifier(
+                new URL("https://dce.example.com/jwks"),
+                ISSUER,
+                url -> {
+                    if (fetches.incrementAndGet() == blockedFetch) {
+                        fetching.countDown();
+                        try {
+                            release.await();
+                        } catch (InterruptedException e) {
+                            throw new IOException(e);
+                        }
+                    }
+                    return new Resource(published.toString(), "application/json");
+                },
+                executor,
+                clock,
+                300_000,
+                30_000,
+                100);
+    }
+
+    private static void awaitWaiting(Thread thread) throws InterruptedException {
+        while (thread.getState() == Thread.State.NEW || thread.getState() == Thread.State.RUNNABLE) {
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    void concurrentFetchesShareOneFetch() throws Exception {
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        JwksTokenVerifier blocking = blockingVerifier(1, fetching, release, Runnable::run);
+        JwtUtils.JwtTokenInfo tokenInfo = signed(signingKey, ISSUER);
+        AtomicReference<JwksTokenVerifier.Result> first = new AtomicReference<>();
+        AtomicReference<JwksTokenVerifier.Result> second = new AtomicReference<>();
+
+        Thread leader = new Thread(() -> first.set(blocking.verify(tokenInfo)));
+        leader.start();
+        assertTrue(fetching.await(5, TimeUnit.SECONDS));
+        Thread follower = new Thread(() -> second.set(blocking.verify(tokenInfo)));
+        follower.start();
+        awaitWaiting(follower);
+        release.countDown();
+        leader.join(5_000);
+        follower.join(5_000);
+
+        assertEquals(JwksTokenVerifier.Result.VALID, first.get());
+        assertEquals(JwksTokenVerifier.Result.VALID, second.get(), "the follower got the keys of the leader");
+        assertEquals(1, fetches.get());
+    }
+
+    @Test
+    void currentKeysAreUsedDuringABackgroundRefresh() throws Exception {
+        CountDownLatch fetching = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            JwksTokenVerifier blocking = blockingVerifier(2, fetching, release, executor);
+            assertEquals(JwksTokenVerifier.Result.VALID, blocking.verify(signed(signingKey, ISSUER)));
+
+            clock.advance(300_000);
+            assertEquals(JwksTokenVerifier.Result.VALID, blocking.verify(signed(signingKey, ISSUER)));
+            assertTrue(fetching.await(5, TimeUnit.SECONDS), "the keys are being refreshed");
+
+            JwtUtils.JwtTokenInfo tokenInfo = signed(signingKey, ISSUER);
+            assertEquals(
+                    JwksTokenVerifier.Result.VALID,
+                    assertTimeoutPreemptively(Duration.ofSeconds(5), () -> blocking.verify(tokenInfo)));
+            assertEquals(2, fetches.get());
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+}
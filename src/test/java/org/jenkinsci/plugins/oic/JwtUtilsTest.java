@@ -0,0 +1,65 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.nimbusds.jwt.JWTClaimsSet;
+import com.nimbusds.jwt.PlainJWT;
+import java.util.Date;
+import java.util.UUID;
+import org.junit.jupiter.api.Test;
+
+class JwtUtilsTest {
+
+    private static String token(Date expirationTime) {
+        return new PlainJWT(new JWTClaimsSet.Builder()
+                        .subject("user-id")
+                        .issuer("https://dce.example.com")
+                        .jwtID(UUID.randomUUID().toString())
+                        .expirationTime(expirationTime)
+                        .claim("preferred_username", "alice")
+                        .build())
+                .serialize();
+    }
+
+    @Test
+    void repeatedTokenIsParsedOnce() {
+        String token = token(new Date(System.currentTimeMillis() + 3_600_000));
+
+        JwtUtils.JwtTokenInfo tokenInfo = JwtUtils.parseJwtToken("Bearer " + token);
+        assertEquals("user-id", tokenInfo.getSubject());
+        assertEquals("alice", tokenInfo.getPreferredUsername());
+        assertEquals("alice", tokenInfo.getClaims().getAsString("preferred_username"));
+        assertEquals(JwtUtils.digest(token), tokenInfo.getDigest());
+
+        assertSame(tokenInfo, JwtUtils.parseJwtToken(token));
+    }
+
+    @Test
+    void expiredTokenIsNotCached() {
+        String token = token(new Date(System.currentTimeMillis() - 1_000));
+
+        JwtUtils.JwtTokenInfo tokenInfo = JwtUtils.parseJwtToken(token);
+        assertTrue(JwtUtils.isTokenExpired(tokenInfo));
+        assertNotSame(tokenInfo, JwtUtils.parseJwtToken(token));
+    }
+
+    @Test
+    void sharedViewCanNotBeModified() {
+        JwtUtils.JwtTokenInfo tokenInfo =
+                JwtUtils.parseJwtToken(token(new Date(System.currentTimeMillis() + 3_600_000)));
+
+        tokenInfo.getClaims().put("preferred_username", "mallory");
+        tokenInfo.getExpirationTime().setTime(0);
+        assertEquals("alice", tokenInfo.getClaims().getAsString("preferred_username"));
+        assertTrue(tokenInfo.getExpirationTime().getTime() > 0);
+    }
+
+    @Test
+    void invalidTokenIsRejected() {
+        assertNull(JwtUtils.parseJwtToken("not-a-jwt"));
+    }
+}
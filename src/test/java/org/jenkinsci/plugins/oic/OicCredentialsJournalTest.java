@@ -0,0 +1,112 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class OicCredentialsJournalTest {
+
+    @TempDir
+    Path dir;
+
+    private static InMemoryOicCredentialsStore.Entry entry(String accessToken, Long expiresAtMillis) {
+        return new InMemoryOicCredentialsStore.Entry(accessToken, "id-" + accessToken, null, expiresAtMillis);
+    }
+
+    @Test
+    void latestRecordOfEachUserIsReadBack() throws Exception {
+        Path file = dir.resolve("journal");
+        OicCredentialsJournal journal = new OicCredentialsJournal(file);
+        journal.append("alice", entry("a1", 1000L));
+        journal.append("bob", entry("b1", null));
+        journal.append("alice", entry("a2", 2000L));
+        journal.force();
+
+        Map<String, InMemoryOicCredentialsStore.Entry> entries = new OicCredentialsJournal(file).drainEntries();
+        assertEquals(2, entries.size());
+        assertEquals(entry("a2", 2000L), entries.get("alice"));
+        assertEquals(entry("b1", null), entries.get("bob"));
+        assertNull(entries.get("bob").refreshToken());
+    }
+
+    @Test
+    void journalGrowsBeyondItsInitialMapping() throws Exception {
+        Path file = dir.resolve("journal");
+        OicCredentialsJournal journal = new OicCredentialsJournal(file);
+        String token = "x".repeat(100_000);
+        for (int i = 0; i < 30; i++) {
+            journal.append("user" + i, entry(token, (long) i));
+        }
+
+        Map<String, InMemoryOicCredentialsStore.Entry> entries = new OicCredentialsJournal(file).drainEntries();
+        assertEquals(30, entries.size());
+        assertEquals(entry(token, 29L), entries.get("user29"));
+    }
+
+    @Test
+    void compactionKeepsOnlyTheCurrentCredentials() throws Exception {
+        Path file = dir.resolve("journal");
+        OicCredentialsJournal journal = new OicCredentialsJournal(file);
+        for (int i = 0; i < 2000; i++) {
+            journal.append("alice", entry("a" + i, (long) i));
+        }
+        assertTrue(journal.needsCompaction(1));
+
+        journal.compact(Map.of("alice", entry("a1999", 1999L)));
+        assertEquals(1, journal.getRecordCount());
+        journal.append("bob", entry("b1", null));
+
+        Map<String, InMemoryOicCredentialsStore.Entry> entries = new OicCredentialsJournal(file).drainEntries();
+        assertEquals(Map.of("alice", entry("a1999", 1999L), "bob", entry("b1", null)), entries);
+    }
+
+    @Test
+    void failedCompactionKeepsTheJournal() throws Exception {
+        Path file = dir.resolve("journal");
+        OicCredentialsJournal journal = new OicCredentialsJournal(file);
+        journal.append("alice", entry("a1", 1000L));
+        Map<String, InMemoryOicCredentialsStore.Entry> broken = new HashMap<>();
+        broken.put("bob", null);
+
+        assertThrows(NullPointerException.class, () -> journal.compact(broken));
+
+        assertEquals(1, journal.getRecordCount());
+        assertFalse(Files.exists(dir.resolve("journal.tmp")));
+        journal.append("carol", entry("c1", 1000L));
+        assertEquals(
+                Map.of("alice", entry("a1", 1000L), "carol", entry("c1", 1000L)),
+                new OicCredentialsJournal(file).drainEntries());
+    }
+
+    @Test
+    void corruptedRecordIsIgnored() throws Exception {
+        Path file = dir.resolve("journal");
+        OicCredentialsJournal journal = new OicCredentialsJournal(file);
+        journal.append("alice", entry("a1", 1000L));
+        journal.append("bob", entry("b1", 1000L));
+        journal.force();
+        // the records are 40 bytes long after the magic number, garble the length of the key of bob
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.allocate(Integer.BYTES).putInt(0, Integer.MAX_VALUE), 4 + 40 + 4);
+        }
+
+        OicCredentialsJournal reopened = new OicCredentialsJournal(file);
+        assertEquals(Map.of("alice", entry("a1", 1000L)), reopened.drainEntries());
+        reopened.append("carol", entry("c1", 1000L));
+        assertEquals(
+                Map.of("alice", entry("a1", 1000L), "carol", entry("c1", 1000L)),
+                new OicCredentialsJournal(file).drainEntries());
+    }
+}
@@ -0,0 +1,112 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import jakarta.servlet.Filter;
+import jakarta.servlet.FilterChain;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+class OicFilterBypassTest {
+
+    private final OicFilterBypass bypass = new OicFilterBypass(OicFilterBypass.DEFAULT_PATHS, true);
+
+    @AfterEach
+    void clearAuthentication() {
+        SecurityContextHolder.clearContext();
+    }
+
+    private static HttpServletRequest request(String uri) {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getContextPath()).thenReturn("/jenkins");
+        when(request.getRequestURI()).thenReturn("/jenkins" + uri);
+        return request;
+    }
+
+    private static void authenticate() {
+        SecurityContextHolder.getContext()
+                .setAuthentication(new UsernamePasswordAuthenticationToken("alice", null, List.of()));
+    }
+
+    @Test
+    void staticAndAgentTrafficIsBypassed() {
+        authenticate();
+
+        assertTrue(bypass.matches(request("/static/abc123/jsbundles/app.js")));
+        assertTrue(bypass.matches(request("/adjuncts/abc123/lib/form.js")));
+        assertTrue(bypass.matches(request("/wsagents/")));
+        assertFalse(bypass.matches(request("/job/ws/job/pipeline/api/json")));
+        assertEquals(3, bypass.getPathCount());
+        assertEquals(0, bypass.getAnonymousCount());
+    }
+
+    @Test
+    void websocketAndJnlpRequestsUnderAJobStillReachTheAuthorizationFilter() throws Exception {
+        authenticate();
+        List<String> ran = new ArrayList<>();
+        Filter filter = bypass.wrap(
+                (request, response, chain) -> {
+                    ran.add("authorization");
+                    chain.doFilter(request, response);
+                },
+                (request, response, chain) -> {
+                    ran.add("token refresh");
+                    chain.doFilter(request, response);
+                });
+
+        HttpServletRequest upgrade = request("/job/ws/job/pipeline/build");
+        when(upgrade.getHeader("Upgrade")).thenReturn("WebSocket");
+        filter.doFilter(upgrade, mock(HttpServletResponse.class), mock(FilterChain.class));
+        assertEquals(List.of("authorization"), ran, "a websocket upgrade only skips the token refresh");
+        assertEquals(1, bypass.getWebSocketCount());
+
+        ran.clear();
+        filter.doFilter(
+                request("/job/ws/job/pipeline/ws/agent.jnlp"),
+                mock(HttpServletResponse.class),
+                mock(FilterChain.class));
+        assertEquals(List.of("authorization", "token refresh"), ran);
+
+        ran.clear();
+        filter.doFilter(
+                request("/static/abc123/jsbundles/app.js"), mock(HttpServletResponse.class), mock(FilterChain.class));
+        assertEquals(List.of(), ran);
+        assertEquals(1, bypass.getPathCount());
+    }
+
+    @Test
+    void suffixesAreIgnored() {
+        authenticate();
+        OicFilterBypass withSuffix = new OicFilterBypass("*.jnlp,/static/", true);
+
+        assertFalse(withSuffix.matches(request("/job/ws/job/pipeline/ws/agent.jnlp")));
+        assertTrue(withSuffix.matches(request("/static/abc123/jsbundles/app.js")));
+    }
+
+    @Test
+    void anonymousRequestIsBypassedUnlessItCarriesAToken() {
+        assertTrue(bypass.matches(request("/job/ws/job/pipeline/api/json")));
+        assertEquals(1, bypass.getAnonymousCount());
+
+        HttpServletRequest withToken = request("/job/ws/job/pipeline/api/json");
+        when(withToken.getHeader("Authorization")).thenReturn("Bearer a.b.c");
+        assertFalse(bypass.matches(withToken));
+    }
+
+    @Test
+    void bypassCanBeDisabled() {
+        OicFilterBypass disabled = new OicFilterBypass("", false);
+
+        assertFalse(disabled.matches(request("/static/abc123/jsbundles/app.js")));
+    }
+}
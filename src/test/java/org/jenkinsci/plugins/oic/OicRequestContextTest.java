@@ -0,0 +1,81 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.mockStatic;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import hudson.model.User;
+import jakarta.servlet.http.HttpServletRequest;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+import org.mockito.MockedStatic;
+import org.springframework.security.authentication.UsernamePasswordAuthenticationToken;
+import org.springframework.security.core.context.SecurityContextHolder;
+
+class OicRequestContextTest {
+
+    @Test
+    void contextIsAttachedToTheRequestOnce() {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getRequestURI()).thenReturn("/job/ws/job/pipeline/api/json");
+        when(request.getMethod()).thenReturn("GET");
+
+        OicRequestContext context = OicRequestContext.of(request);
+        verify(request).setAttribute(eq(OicRequestContext.class.getName()), same(context));
+
+        when(request.getAttribute(OicRequestContext.class.getName())).thenReturn(context);
+        assertSame(context, OicRequestContext.of(request));
+        verify(request, times(1)).setAttribute(eq(OicRequestContext.class.getName()), same(context));
+    }
+
+    @Test
+    void routeIsClassifiedOnce() {
+        HttpServletRequest request = mock(HttpServletRequest.class);
+        when(request.getRequestURI()).thenReturn("/job/ws/job/pipeline/api/json");
+        when(request.getMethod()).thenReturn("GET");
+
+        OicRequestContext context = new OicRequestContext(request);
+        AuthorizationRoute route = context.getRoute();
+        assertSame(route, context.getRoute());
+        verify(request, times(1)).getRequestURI();
+    }
+
+    @Test
+    void unauthenticatedRequestHasNoUser() {
+        SecurityContextHolder.clearContext();
+        OicRequestContext context = new OicRequestContext(mock(HttpServletRequest.class));
+
+        assertNull(context.getUser());
+        assertNull(context.getCredentials());
+    }
+
+    @Test
+    void userIsKeptWhenTheSamePrincipalIsAuthenticatedAgain() {
+        User user = mock(User.class);
+        try (MockedStatic<User> mockedUser = mockStatic(User.class)) {
+            mockedUser.when(() -> User.get2(any())).thenReturn(user);
+            SecurityContextHolder.getContext()
+                    .setAuthentication(new UsernamePasswordAuthenticationToken("alice", null, List.of()));
+            OicRequestContext context = new OicRequestContext(mock(HttpServletRequest.class));
+            assertSame(user, context.getUser());
+
+            // as AuthorizationFilter does for the DCE token of the same user
+            SecurityContextHolder.getContext().setAuthentication(new JwtAuthAuthenticationToken("alice", List.of()));
+            assertSame(user, context.getUser());
+            mockedUser.verify(() -> User.get2(any()), times(1));
+
+            SecurityContextHolder.getContext().setAuthentication(new JwtAuthAuthenticationToken("bob", List.of()));
+            context.getUser();
+            mockedUser.verify(() -> User.get2(any()), times(2));
+        } finally {
+            SecurityContextHolder.clearContext();
+        }
+    }
+}
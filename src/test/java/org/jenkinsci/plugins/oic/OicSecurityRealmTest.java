@@ -1,5 +1,10 @@
 package org.jenkinsci.plugins.oic;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.serverError;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
 import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.allOf;
@@ -13,12 +18,14 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import hudson.ExtensionList;
 import hudson.util.Secret;
 import java.net.URL;
 import java.util.Collection;
 import java.util.List;
 import java.util.stream.Stream;
 import org.htmlunit.Page;
+import org.jenkinsci.plugins.oic.monitor.OicProviderMonitor;
 import org.junit.jupiter.api.Assertions;
 import org.junit.jupiter.api.Test;
 import org.junit.jupiter.api.extension.RegisterExtension;
@@ -75,6 +82,52 @@ class OicSecurityRealmTest {
         assertThrows(BadCredentialsException.class, () -> assertEquals(token, manager.authenticate(token)));
     }
 
+    @Test
+    void warmUpPrefetchesMetadataAndKeysWithoutARootUrl(JenkinsRule jenkinsRule) throws Exception {
+        String base = "http://localhost:" + wireMock.getPort();
+        wireMock.stubFor(get(urlPathEqualTo("/well.known"))
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withBody("{\"issuer\": \"" + TestRealm.ISSUER + "\", "
+                                + "\"authorization_endpoint\": \"" + base + "/authorization\", "
+                                + "\"token_endpoint\": \"" + base + "/token\", "
+                                + "\"jwks_uri\": \"" + base + "/jwks\", "
+                                + "\"subject_types_supported\": [\"public\"]}")));
+        wireMock.stubFor(get(urlPathEqualTo("/jwks"))
+                .willReturn(aResponse().withHeader("Content-Type", "application/json").withBody("{\"keys\": []}")));
+        TestRealm.Builder builder =
+                new TestRealm.Builder(wireMock).WithMinimalDefaults().WithAutomanualconfigure(true);
+        builder.disableTokenValidation = false;
+        TestRealm realm = builder.build();
+        // the root URL is then unknown outside of a request
+        realm.setRootURLFromRequest(true);
+        jenkinsRule.jenkins.setSecurityRealm(realm);
+
+        OicWarmUp warmUp = realm.getWarmUp();
+        assertTrue(warmUp.start(Runnable::run));
+        assertEquals(OicWarmUp.State.READY, warmUp.getState(), warmUp.getFailure());
+        wireMock.verify(getRequestedFor(urlPathEqualTo("/well.known")));
+        wireMock.verify(getRequestedFor(urlPathEqualTo("/jwks")));
+        assertFalse(ExtensionList.lookupSingleton(OicProviderMonitor.class).isActivated());
+    }
+
+    @Test
+    void failedWarmUpIsShownToAdministrators(JenkinsRule jenkinsRule) throws Exception {
+        wireMock.stubFor(get(urlPathEqualTo("/well.known")).willReturn(serverError()));
+        TestRealm realm = new TestRealm.Builder(wireMock)
+                .WithMinimalDefaults()
+                .WithAutomanualconfigure(true)
+                .build();
+        jenkinsRule.jenkins.setSecurityRealm(realm);
+        OicProviderMonitor monitor = ExtensionList.lookupSingleton(OicProviderMonitor.class);
+        assertFalse(monitor.isActivated());
+
+        assertTrue(realm.getWarmUp().start(Runnable::run));
+        assertEquals(OicWarmUp.State.FAILED, realm.getWarmUp().getState());
+        assertTrue(monitor.isActivated());
+        assertNotNull(monitor.getWarmUpDuration());
+    }
+
     @Test
     void testGetAuthenticationGatewayUrl(JenkinsRule jenkinsRule) throws Exception {
         TestRealm realm = new TestRealm(wireMock);
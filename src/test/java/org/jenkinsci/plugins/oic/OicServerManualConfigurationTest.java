@@ -5,13 +5,17 @@ import static org.hamcrest.Matchers.allOf;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasProperty;
 import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertThrows;
 import static org.junit.Assert.assertTrue;
 import static org.jvnet.hudson.test.JenkinsMatchers.hasKind;
 import static org.mockito.Mockito.mockStatic;
 
 import com.nimbusds.jose.JWSAlgorithm;
+import com.nimbusds.oauth2.sdk.Scope;
 import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
 import hudson.Util;
 import hudson.model.Descriptor;
@@ -117,6 +121,19 @@ class OicServerManualConfigurationTest {
         }
     }
 
+    @Test
+    @WithoutJenkins
+    public void testProviderMetadataIsBuiltOnceUntilChanged() throws Descriptor.FormException {
+        OicServerManualConfiguration config = new OicServerManualConfiguration("issuer", "t-url", "a-url");
+        OIDCProviderMetadata data = config.toProviderMetadata();
+        assertSame(data, config.toProviderMetadata());
+
+        config.setScopes("openid profile");
+        OIDCProviderMetadata changed = config.toProviderMetadata();
+        assertNotSame(data, changed);
+        assertEquals(Scope.parse("openid profile"), changed.getScopes());
+    }
+
     @Test
     @WithoutJenkins
     public void testProviderMetadataWithInvalidURI() throws Descriptor.FormException, URISyntaxException {
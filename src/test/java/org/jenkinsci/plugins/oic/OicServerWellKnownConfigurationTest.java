@@ -9,8 +9,10 @@ import static org.hamcrest.Matchers.allOf;
 import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.hasProperty;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
 import static org.jvnet.hudson.test.JenkinsMatchers.hasKind;
 
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
 import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
 import hudson.Util;
 import hudson.util.FormValidation;
@@ -94,7 +96,26 @@ class OicServerWellKnownConfigurationTest {
                         withMessage("Are you sure you don't want to include 'openid' as a scope?")));
     }
 
+    @Test
+    void providerMetadataLifetimeFollowsCacheControl(JenkinsRule jenkinsRule) throws Exception {
+        jenkinsRule.jenkins.setSecurityRealm(new TestRealm.Builder(wireMock).WithMinimalDefaults().build());
+        wireMock.stubFor(get(urlPathEqualTo("/.well-known/openid-configuration"))
+                .willReturn(wellKnownResponse().withHeader("Cache-Control", "public, max-age=600")));
+        OicServerWellKnownConfiguration configuration = new OicServerWellKnownConfiguration(
+                "http://localhost:" + wireMock.getPort() + "/.well-known/openid-configuration");
+
+        assertThat(configuration.toProviderMetadata(), notNullValue());
+        ProviderMetadataHolder.Snapshot snapshot = configuration.getProviderMetadataSnapshot();
+        assertThat(snapshot.expiresAtMillis() - snapshot.fetchedAtMillis(), is(600_000L));
+        // refreshed in the background at 80% of its lifetime
+        assertThat(snapshot.refreshAtMillis() - snapshot.fetchedAtMillis(), is(480_000L));
+    }
+
     private void configureWireMockWellKnownEndpoint(JenkinsRule jenkinsRule) {
+        wireMock.stubFor(get(urlPathEqualTo("/.well-known/openid-configuration")).willReturn(wellKnownResponse()));
+    }
+
+    private static ResponseDefinitionBuilder wellKnownResponse() {
         String authUrl = "http://localhost:" + wireMock.getPort() + "/authorization";
         String tokenUrl = "http://localhost:" + wireMock.getPort() + "/token";
         String userInfoUrl = "http://localhost:" + wireMock.getPort() + "/userinfo";
@@ -102,15 +123,14 @@ class OicServerWellKnownConfigurationTest {
         String jwksUrl = "null";
         String endSessionUrl = "null";
 
-        wireMock.stubFor(get(urlPathEqualTo("/.well-known/openid-configuration"))
-                .willReturn(aResponse()
-                        .withHeader("Content-Type", "text/html; charset=utf-8")
-                        .withBody(String.format(
-                                "{\"authorization_endpoint\": \"%s\", \"issuer\" :\"%s\", \"token_endpoint\":\"%s\", "
-                                        + "\"userinfo_endpoint\":\"%s\",\"jwks_uri\":\"%s\", \"scopes_supported\": null, "
-                                        + "\"subject_types_supported\": [ \"public\" ], "
-                                        + "\"end_session_endpoint\":\"%s\"}",
-                                authUrl, issuer, tokenUrl, userInfoUrl, jwksUrl, endSessionUrl))));
+        return aResponse()
+                .withHeader("Content-Type", "text/html; charset=utf-8")
+                .withBody(String.format(
+                        "{\"authorization_endpoint\": \"%s\", \"issuer\" :\"%s\", \"token_endpoint\":\"%s\", "
+                                + "\"userinfo_endpoint\":\"%s\",\"jwks_uri\":\"%s\", \"scopes_supported\": null, "
+                                + "\"subject_types_supported\": [ \"public\" ], "
+                                + "\"end_session_endpoint\":\"%s\"}",
+                        authUrl, issuer, tokenUrl, userInfoUrl, jwksUrl, endSessionUrl));
     }
 
     private static DescriptorImpl getDescriptor(JenkinsRule jenkinsRule) {
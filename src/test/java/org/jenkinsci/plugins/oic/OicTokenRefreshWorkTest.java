@@ -0,0 +1,41 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.HashSet;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+class OicTokenRefreshWorkTest {
+
+    @Test
+    void credentialsAreRefreshedWithinTheLeadTime() {
+        long expiresAt = 1_000_000L;
+
+        assertFalse(OicTokenRefreshWork.isDue(expiresAt, expiresAt - 120_001, 120_000, 0));
+        assertTrue(OicTokenRefreshWork.isDue(expiresAt, expiresAt - 120_000, 120_000, 0));
+        assertTrue(OicTokenRefreshWork.isDue(expiresAt, expiresAt + 1, 120_000, 0));
+    }
+
+    @Test
+    void jitterBringsTheRefreshForward() {
+        long expiresAt = 1_000_000L;
+
+        assertFalse(OicTokenRefreshWork.isDue(expiresAt, expiresAt - 150_000, 120_000, 29_999));
+        assertTrue(OicTokenRefreshWork.isDue(expiresAt, expiresAt - 150_000, 120_000, 30_000));
+    }
+
+    @Test
+    void jitterIsFixedForEachUser() {
+        Set<Long> jitters = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            long jitter = OicTokenRefreshWork.jitterMillis("user" + i, 60_000);
+            assertEquals(jitter, OicTokenRefreshWork.jitterMillis("user" + i, 60_000));
+            assertTrue(jitter >= 0 && jitter <= 60_000);
+            jitters.add(jitter / 1_000);
+        }
+        assertTrue(jitters.size() > 30, "users with close ids are spread over the jitter: " + jitters);
+    }
+}
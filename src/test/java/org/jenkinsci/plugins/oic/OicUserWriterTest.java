@@ -0,0 +1,170 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.not;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import hudson.XmlFile;
+import hudson.model.Saveable;
+import hudson.model.User;
+import hudson.model.listeners.SaveableListener;
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import org.junit.jupiter.api.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.TestExtension;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+class OicUserWriterTest {
+
+    private final List<Runnable> scheduled = new ArrayList<>();
+
+    private void runScheduled() {
+        List<Runnable> tasks = new ArrayList<>(scheduled);
+        scheduled.clear();
+        tasks.forEach(Runnable::run);
+    }
+
+    private OicUserWriter writeBehind() {
+        return new OicUserWriter(1_000L, (task, delayMillis) -> scheduled.add(task));
+    }
+
+    private static List<File> savesOf(User user) {
+        return SaveRecorder.get().saves.stream()
+                .filter(save -> save.user == user)
+                .map(save -> save.file)
+                .toList();
+    }
+
+    private static String configOf(User user) throws Exception {
+        List<File> saves = savesOf(user);
+        return Files.readString(saves.get(saves.size() - 1).toPath(), StandardCharsets.UTF_8);
+    }
+
+    @Test
+    void unchangedUserIsNotWritten(JenkinsRule jenkinsRule) throws Exception {
+        OicUserWriter writer = new OicUserWriter(0L, null);
+        User user = User.getById("alice", true);
+
+        writer.update(user, u -> false);
+
+        assertEquals(List.of(), savesOf(user));
+        assertEquals(0, writer.getWriteCount());
+        assertEquals(1, writer.getSkippedCount());
+    }
+
+    @Test
+    void changesAreWrittenOnce(JenkinsRule jenkinsRule) throws Exception {
+        OicUserWriter writer = new OicUserWriter(0L, null);
+        User user = User.getById("bob", true);
+
+        writer.update(user, u -> {
+            u.setFullName("Bob");
+            u.addProperty(new OicAvatarProperty(new OicAvatarProperty.AvatarImage("http://avatar.test/bob.png")));
+            return true;
+        });
+
+        assertEquals(1, savesOf(user).size());
+        assertThat(configOf(user), containsString("<fullName>Bob</fullName>"));
+        assertThat(configOf(user), containsString("http://avatar.test/bob.png"));
+        assertEquals(1, writer.getWriteCount());
+        assertEquals(0, writer.getPendingCount());
+    }
+
+    @Test
+    void deferredChangesAreCoalesced(JenkinsRule jenkinsRule) throws Exception {
+        OicUserWriter writer = writeBehind();
+        User user = User.getById("carol", true);
+
+        writer.update(user, u -> {
+            u.setFullName("Carol");
+            return true;
+        });
+        writer.update(user, u -> {
+            u.addProperty(new OicAvatarProperty(new OicAvatarProperty.AvatarImage("http://avatar.test/carol.png")));
+            return true;
+        });
+
+        assertEquals(List.of(), savesOf(user), "nothing is written by the requests");
+        assertEquals(1, scheduled.size(), "a single write is scheduled");
+        assertEquals(1, writer.getPendingCount());
+
+        runScheduled();
+
+        assertEquals(1, savesOf(user).size());
+        assertThat(configOf(user), containsString("<fullName>Carol</fullName>"));
+        assertThat(configOf(user), containsString("http://avatar.test/carol.png"));
+        assertEquals(0, writer.getPendingCount());
+        assertEquals(0, scheduled.size());
+    }
+
+    @Test
+    void changesMadeAfterTheWriteAreWrittenAgain(JenkinsRule jenkinsRule) throws Exception {
+        OicUserWriter writer = writeBehind();
+        User user = User.getById("dave", true);
+
+        writer.update(user, u -> {
+            u.setFullName("Dave");
+            return true;
+        });
+        runScheduled();
+        writer.update(user, u -> {
+            u.setFullName("David");
+            return true;
+        });
+
+        assertEquals(1, savesOf(user).size());
+        assertThat(configOf(user), not(containsString("David")));
+        assertEquals(1, scheduled.size());
+
+        runScheduled();
+
+        assertEquals(2, savesOf(user).size());
+        assertThat(configOf(user), containsString("<fullName>David</fullName>"));
+    }
+
+    @Test
+    void pendingChangesAreWrittenOnShutdown(JenkinsRule jenkinsRule) throws Exception {
+        OicUserWriter writer = writeBehind();
+        User user = User.getById("erin", true);
+
+        writer.update(user, u -> {
+            u.setFullName("Erin");
+            return true;
+        });
+        assertEquals(List.of(), savesOf(user));
+
+        writer.flush();
+
+        assertEquals(1, savesOf(user).size());
+        assertThat(configOf(user), containsString("<fullName>Erin</fullName>"));
+        assertEquals(0, writer.getPendingCount());
+
+        runScheduled();
+        assertEquals(1, savesOf(user).size(), "the scheduled write has nothing left to write");
+    }
+
+    private record Save(User user, File file) {}
+
+    @TestExtension
+    public static class SaveRecorder extends SaveableListener {
+        private final List<Save> saves = new CopyOnWriteArrayList<>();
+
+        static SaveRecorder get() {
+            return SaveableListener.all().get(SaveRecorder.class);
+        }
+
+        @Override
+        public void onChange(Saveable o, XmlFile file) {
+            if (o instanceof User user) {
+                saves.add(new Save(user, file.getFile()));
+            }
+        }
+    }
+}
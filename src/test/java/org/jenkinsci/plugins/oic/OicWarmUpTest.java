@@ -0,0 +1,56 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jenkinsci.plugins.oic.AuthorizationDecisionCacheTest.MutableClock;
+import org.junit.jupiter.api.Test;
+
+class OicWarmUpTest {
+
+    private final MutableClock clock = new MutableClock();
+
+    @Test
+    void reportsReadinessAndDuration() {
+        List<Runnable> scheduled = new ArrayList<>();
+        AtomicInteger runs = new AtomicInteger();
+        OicWarmUp warmUp = new OicWarmUp(
+                () -> {
+                    runs.incrementAndGet();
+                    clock.advance(1500);
+                },
+                clock);
+        assertEquals(OicWarmUp.State.PENDING, warmUp.getState());
+        assertEquals(-1, warmUp.getDurationMillis());
+
+        assertTrue(warmUp.start(scheduled::add));
+        assertFalse(warmUp.start(scheduled::add), "warms up once");
+        assertEquals(OicWarmUp.State.RUNNING, warmUp.getState());
+        assertFalse(warmUp.isReady());
+
+        scheduled.forEach(Runnable::run);
+        assertEquals(1, runs.get());
+        assertTrue(warmUp.isReady());
+        assertEquals(1500, warmUp.getDurationMillis());
+        assertNull(warmUp.getFailure());
+    }
+
+    @Test
+    void reportsFailure() {
+        OicWarmUp warmUp = new OicWarmUp(
+                () -> {
+                    throw new IOException("provider is down");
+                },
+                clock);
+        assertTrue(warmUp.start(Runnable::run));
+        assertEquals(OicWarmUp.State.FAILED, warmUp.getState());
+        assertFalse(warmUp.isReady());
+        assertEquals("java.io.IOException: provider is down", warmUp.getFailure());
+    }
+}
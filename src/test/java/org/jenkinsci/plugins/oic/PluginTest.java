@@ -41,6 +41,8 @@ import com.nimbusds.oauth2.sdk.Scope;
 import edu.umd.cs.findbugs.annotations.CheckForNull;
 import edu.umd.cs.findbugs.annotations.NonNull;
 import edu.umd.cs.findbugs.annotations.Nullable;
+import hudson.ExtensionList;
+import hudson.model.TaskListener;
 import hudson.model.User;
 import hudson.tasks.Mailer;
 import hudson.tasks.UserAvatarResolver;
@@ -493,6 +495,67 @@ class PluginTest {
                 postRequestedFor(urlPathEqualTo("/token")).withRequestBody(containing("grant_type=refresh_token")));
     }
 
+    @Test
+    void testRefreshTokenInBackground_refreshesDueUsersAndTheirGroups() throws Exception {
+        mockAuthorizationRedirectsToFinishLogin();
+        configureWellKnown(null, null, "authorization_code", "refresh_token");
+        jenkins.setSecurityRealm(new TestRealm(wireMock, null, EMAIL_FIELD, GROUPS_FIELD, true));
+        mockTokenReturnsIdTokenWithGroup();
+        mockUserInfoWithTestGroups();
+        browseLoginPage();
+        User user = assertTestUser();
+
+        // the test user expires within the lead time, the other user in an hour
+        OicCredentials credentials = OicCredentialsStore.get().load(user);
+        OicCredentialsStore.get()
+                .store(
+                        user,
+                        new OicCredentials(
+                                credentials.getAccessToken(),
+                                credentials.getIdToken(),
+                                credentials.getRefreshToken(),
+                                60L,
+                                Clock.systemUTC().millis(),
+                                0L));
+        User other = User.getById("otherUser", true);
+        OicCredentials otherCredentials = new OicCredentials(
+                "OtHeR_AcCeSs_ToKeN",
+                credentials.getIdToken(),
+                "OtHeR_ReFrEsH_ToKeN",
+                3600L,
+                Clock.systemUTC().millis(),
+                0L);
+        OicCredentialsStore.get().store(other, otherCredentials);
+        OicTokenRefreshWork.touch(user.getId());
+        OicTokenRefreshWork.touch(other.getId());
+
+        // the provider now returns other groups, and only in the userinfo the user name
+        mockTokenReturnsIdToken(
+                createIdToken(createKeyPair().getPrivate(), setUpKeyValuesWithGroup(TEST_USER_GROUPS_REFRESHED)),
+                token -> token.put("access_token", "ReFrEsHeD_AcCeSs_ToKeN"));
+        mockUserInfoWithGroups(TEST_USER_GROUPS_REFRESHED);
+        ExtensionList.lookupSingleton(OicTokenRefreshWork.class).execute(TaskListener.NULL);
+
+        wireMock.verify(
+                1,
+                postRequestedFor(urlPathEqualTo("/token")).withRequestBody(containing("grant_type=refresh_token")));
+        wireMock.verify(0, postRequestedFor(urlPathEqualTo("/token")).withRequestBody(containing("OtHeR")));
+        assertEquals("ReFrEsHeD_AcCeSs_ToKeN", OicCredentialsStore.get().load(user).getAccessToken());
+        assertEquals(otherCredentials, OicCredentialsStore.get().load(other));
+        assertTrue(
+                user.getAuthorities().contains(TEST_USER_GROUPS_REFRESHED[2]),
+                "User should be part of group " + TEST_USER_GROUPS_REFRESHED[2]);
+
+        // the next request of the session gets the new groups without refreshing again
+        assertTrue(
+                getAuthentication().getAuthorities().stream()
+                        .anyMatch(a -> a.getAuthority().equals(TEST_USER_GROUPS_REFRESHED[2])),
+                "Session should be part of group " + TEST_USER_GROUPS_REFRESHED[2]);
+        wireMock.verify(
+                1,
+                postRequestedFor(urlPathEqualTo("/token")).withRequestBody(containing("grant_type=refresh_token")));
+    }
+
     private HttpResponse<String> getPageWithGet(String url) throws IOException, InterruptedException {
         // fix up the url, if needed
         if (url.startsWith("/")) {
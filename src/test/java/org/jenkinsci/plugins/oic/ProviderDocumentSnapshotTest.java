@@ -0,0 +1,87 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import org.jenkinsci.plugins.oic.AuthorizationDecisionCacheTest.MutableClock;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+class ProviderDocumentSnapshotTest {
+
+    @TempDir
+    File dir;
+
+    private final MutableClock clock = new MutableClock();
+
+    @Test
+    void documentsAreReadBackAfterARestart() {
+        File file = new File(dir, ProviderDocumentSnapshot.FILE_NAME);
+        ProviderDocumentSnapshot snapshot = new ProviderDocumentSnapshot(file, Runnable::run, clock);
+        assertEquals(-1, snapshot.getAgeMillis());
+        ProviderDocumentSnapshot.Document wellKnown = new ProviderDocumentSnapshot.Document(
+                "{\"issuer\":\"https://idp\"}", "application/json", "\"v1\"", null, clock.millis());
+        ProviderDocumentSnapshot.Document jwks = new ProviderDocumentSnapshot.Document(
+                "{\"keys\":[]}", null, null, "Mon, 06 Oct 2025 08:00:00 GMT", clock.millis() + 1000);
+        snapshot.put("https://idp/.well-known/openid-configuration", wellKnown);
+        snapshot.put("https://idp/jwks", jwks);
+
+        clock.advance(5000);
+        ProviderDocumentSnapshot reloaded = new ProviderDocumentSnapshot(file, Runnable::run, clock);
+        assertEquals(2, reloaded.getDocumentCount());
+        assertEquals(wellKnown, reloaded.get("https://idp/.well-known/openid-configuration"));
+        assertEquals(jwks, reloaded.get("https://idp/jwks"));
+        assertEquals(5000, reloaded.getAgeMillis(), "age of the oldest document");
+    }
+
+    @Test
+    void oldCopiesAreNotUsedInPlaceOfTheProvider() {
+        ProviderDocumentSnapshot snapshot = new ProviderDocumentSnapshot(
+                new File(dir, ProviderDocumentSnapshot.FILE_NAME), Runnable::run, clock, 3_600_000L);
+        ProviderDocumentSnapshot.Document jwks =
+                new ProviderDocumentSnapshot.Document("{\"keys\":[]}", null, null, null, clock.millis());
+        snapshot.put("https://idp/jwks", jwks);
+
+        assertEquals(jwks, snapshot.getFallback("https://idp/jwks"));
+        assertEquals(1, snapshot.getFallbackCount());
+
+        clock.advance(3_600_001L);
+        assertNull(snapshot.getFallback("https://idp/jwks"), "too old");
+        assertEquals(jwks, snapshot.get("https://idp/jwks"), "still sent as validators");
+
+        snapshot.put(
+                "https://idp/jwks",
+                new ProviderDocumentSnapshot.Document("{\"keys\":[]}", null, null, null, clock.millis()));
+        assertEquals(0, snapshot.getFallbackCount(), "the provider answers again");
+    }
+
+    @Test
+    void oldestDocumentIsDroppedWhenFull() {
+        ProviderDocumentSnapshot snapshot =
+                new ProviderDocumentSnapshot(new File(dir, ProviderDocumentSnapshot.FILE_NAME), Runnable::run, clock);
+        for (int i = 0; i <= ProviderDocumentSnapshot.MAX_DOCUMENTS; i++) {
+            snapshot.put(
+                    "https://idp/" + i,
+                    new ProviderDocumentSnapshot.Document("{}", null, null, null, clock.millis() + i));
+        }
+
+        assertEquals(ProviderDocumentSnapshot.MAX_DOCUMENTS, snapshot.getDocumentCount());
+        assertNull(snapshot.get("https://idp/0"));
+        assertNotNull(snapshot.get("https://idp/1"));
+        assertNotNull(snapshot.get("https://idp/" + ProviderDocumentSnapshot.MAX_DOCUMENTS));
+    }
+
+    @Test
+    void unreadableSnapshotIsIgnored() throws Exception {
+        File file = new File(dir, ProviderDocumentSnapshot.FILE_NAME);
+        Files.writeString(file.toPath(), "{\"documents\":", StandardCharsets.UTF_8);
+
+        ProviderDocumentSnapshot snapshot = new ProviderDocumentSnapshot(file, Runnable::run, clock);
+        assertEquals(0, snapshot.getDocumentCount());
+        assertNull(snapshot.get("https://idp/jwks"));
+    }
+}
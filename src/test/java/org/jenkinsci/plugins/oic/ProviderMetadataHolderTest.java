@@ -0,0 +1,142 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+
+import com.nimbusds.openid.connect.sdk.op.OIDCProviderMetadata;
+import java.io.IOException;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jenkinsci.plugins.oic.AuthorizationDecisionCacheTest.MutableClock;
+import org.junit.jupiter.api.Test;
+
+class ProviderMetadataHolderTest {
+
+    private static final long DEFAULT_TTL = 3_600_000L;
+    private static final long MIN_TTL = 60_000L;
+    private static final long MAX_TTL = 86_400_000L;
+
+    private final MutableClock clock = new MutableClock();
+    private final List<Runnable> scheduled = new ArrayList<>();
+
+    private ProviderMetadataHolder holder(ProviderMetadataHolder.Loader loader) {
+        return new ProviderMetadataHolder(loader, scheduled::add, clock, DEFAULT_TTL, MIN_TTL, MAX_TTL);
+    }
+
+    private void runScheduled() {
+        List<Runnable> tasks = new ArrayList<>(scheduled);
+        scheduled.clear();
+        tasks.forEach(Runnable::run);
+    }
+
+    @Test
+    void ttlFollowsTheCachingHeaders() {
+        ProviderMetadataHolder holder = holder(() -> null);
+        long now = clock.millis();
+        String inTwoHours = DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                Instant.ofEpochMilli(now + 7_200_000L).atZone(ZoneOffset.UTC));
+
+        assertEquals(DEFAULT_TTL, holder.ttlMillis(null, null, now));
+        assertEquals(600_000L, holder.ttlMillis("public, max-age=600", null, now));
+        assertEquals(600_000L, holder.ttlMillis("max-age=600", inTwoHours, now), "max-age wins over Expires");
+        assertEquals(7_200_000L, holder.ttlMillis(null, inTwoHours, now));
+        assertEquals(MIN_TTL, holder.ttlMillis("no-cache", null, now));
+        assertEquals(MIN_TTL, holder.ttlMillis(null, "0", now));
+        assertEquals(MIN_TTL, holder.ttlMillis("max-age=5", null, now));
+        assertEquals(MAX_TTL, holder.ttlMillis("max-age=31536000", null, now));
+        assertEquals(DEFAULT_TTL, holder.ttlMillis("max-age=soon", null, now));
+    }
+
+    @Test
+    void staleCopyIsServedWhileRefreshing() {
+        OIDCProviderMetadata first = mock(OIDCProviderMetadata.class);
+        OIDCProviderMetadata second = mock(OIDCProviderMetadata.class);
+        AtomicInteger loads = new AtomicInteger();
+        ProviderMetadataHolder holder = holder(() -> new ProviderMetadataHolder.Loaded(
+                loads.incrementAndGet() == 1 ? first : second, "max-age=1000", null));
+
+        assertSame(first, holder.get());
+        clock.advance(799_999);
+        assertSame(first, holder.get());
+        assertEquals(0, scheduled.size(), "no refresh before 80% of the lifetime");
+
+        clock.advance(1);
+        assertSame(first, holder.get());
+        assertSame(first, holder.get());
+        assertEquals(1, scheduled.size(), "a single refresh at a time");
+
+        runScheduled();
+        assertSame(second, holder.get());
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void lastGoodCopyIsServedWhenTheRefreshFails() {
+        OIDCProviderMetadata first = mock(OIDCProviderMetadata.class);
+        AtomicInteger loads = new AtomicInteger();
+        ProviderMetadataHolder holder = holder(() -> {
+            if (loads.incrementAndGet() > 1) {
+                throw new IOException("provider is down");
+            }
+            return new ProviderMetadataHolder.Loaded(first, "max-age=1000", null);
+        });
+
+        assertSame(first, holder.get());
+        clock.advance(2_000_000);
+        assertSame(first, holder.get());
+        runScheduled();
+        assertSame(first, holder.get(), "well past its expiry, but better than nothing");
+        assertEquals(0, scheduled.size(), "the failed refresh is not retried at once");
+
+        clock.advance(MIN_TTL);
+        assertSame(first, holder.get());
+        assertEquals(1, scheduled.size());
+    }
+
+    @Test
+    void firstLoadFailureIsReported() {
+        ProviderMetadataHolder holder = holder(() -> {
+            throw new IOException("provider is down");
+        });
+        assertThrows(IllegalStateException.class, holder::get);
+    }
+
+    @Test
+    void concurrentFirstLoadsDownloadOnce() throws Exception {
+        OIDCProviderMetadata metadata = mock(OIDCProviderMetadata.class);
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        ProviderMetadataHolder holder = holder(() -> {
+            loads.incrementAndGet();
+            release.await();
+            return new ProviderMetadataHolder.Loaded(metadata, null, null);
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<OIDCProviderMetadata>> results = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                results.add(executor.submit(holder::get));
+            }
+            Thread.sleep(100);
+            release.countDown();
+            for (Future<OIDCProviderMetadata> result : results) {
+                assertSame(metadata, result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, loads.get());
+    }
+}
@@ -1,18 +1,41 @@
 package org.jenkinsci.plugins.oic;
 
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.absent;
+import static com.github.tomakehurst.wiremock.client.WireMock.equalTo;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.getRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlPathEqualTo;
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import com.github.tomakehurst.wiremock.http.Fault;
+import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
 import hudson.ProxyConfiguration;
+import java.io.File;
+import java.io.IOException;
 import java.net.HttpURLConnection;
+import java.net.URL;
 import java.net.UnknownHostException;
+import java.time.Clock;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
 import org.jvnet.hudson.test.JenkinsRule;
 import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
 
 @WithJenkins
 class ProxyAwareResourceRetrieverTest {
 
+    @RegisterExtension
+    static WireMockExtension wireMock = WireMockExtension.newInstance()
+            .failOnUnmatchedRequests(true)
+            .options(wireMockConfig().dynamicPort())
+            .build();
+
     @Test
     void testOpenConnection_WithoutProxy(JenkinsRule r) throws Exception {
         r.jenkins.setProxy(null);
@@ -42,4 +65,103 @@ class ProxyAwareResourceRetrieverTest {
         HttpURLConnection conn = retreiver.openHTTPConnection(r.getURL());
         assertNotNull(conn.getContent());
     }
+
+    @Test
+    void testRetrieveResource_ReusesTheBodyWhenNotModified(JenkinsRule r) throws Exception {
+        r.jenkins.setProxy(null);
+        wireMock.stubFor(get(urlPathEqualTo("/jwks"))
+                .withHeader("If-None-Match", absent())
+                .willReturn(aResponse()
+                        .withHeader("Content-Type", "application/json")
+                        .withHeader("ETag", "\"v1\"")
+                        .withHeader("Cache-Control", "max-age=60")
+                        .withBody("{\"keys\":[]}")));
+        wireMock.stubFor(get(urlPathEqualTo("/jwks"))
+                .withHeader("If-None-Match", equalTo("\"v1\""))
+                .willReturn(aResponse().withStatus(304).withHeader("Cache-Control", "max-age=120")));
+
+        ProxyAwareResourceRetriever retriever = ProxyAwareResourceRetriever.createProxyAwareResourceRetriver(false);
+        URL url = new URL(wireMock.url("/jwks"));
+        ProxyAwareResourceRetriever.Response first = retriever.retrieveResourceWithHeaders(url);
+        assertFalse(first.notModified());
+        assertEquals("{\"keys\":[]}", first.resource().getContent());
+
+        ProxyAwareResourceRetriever.Response second = retriever.retrieveResourceWithHeaders(url);
+        assertTrue(second.notModified());
+        assertEquals("{\"keys\":[]}", second.resource().getContent());
+        assertEquals("max-age=120", second.getHeader("cache-control"), "headers of the 304 update the stored ones");
+        assertEquals("\"v1\"", second.getHeader("ETag"));
+        assertEquals("{\"keys\":[]}", retriever.retrieveResource(url).getContent());
+        wireMock.verify(2, getRequestedFor(urlPathEqualTo("/jwks")).withHeader("If-None-Match", equalTo("\"v1\"")));
+    }
+
+    @Test
+    void testRetrieveResource_FailsOnErrorStatus(JenkinsRule r) throws Exception {
+        r.jenkins.setProxy(null);
+        wireMock.stubFor(get(urlPathEqualTo("/missing")).willReturn(aResponse().withStatus(404)));
+
+        ProxyAwareResourceRetriever retriever = ProxyAwareResourceRetriever.createProxyAwareResourceRetriver(false);
+        IOException e =
+                assertThrows(IOException.class, () -> retriever.retrieveResource(new URL(wireMock.url("/missing"))));
+        assertTrue(e.getMessage().startsWith("HTTP 404"), e.getMessage());
+    }
+
+    @Test
+    void testRetrieveResource_FallsBackToTheSnapshot(JenkinsRule r) throws Exception {
+        r.jenkins.setProxy(null);
+        wireMock.stubFor(get(urlPathEqualTo("/keys"))
+                .inScenario("outage")
+                .willReturn(aResponse().withHeader("ETag", "\"v1\"").withBody("{\"keys\":[]}"))
+                .willSetStateTo("down"));
+        wireMock.stubFor(get(urlPathEqualTo("/keys"))
+                .inScenario("outage")
+                .whenScenarioStateIs("down")
+                .willReturn(aResponse().withFault(Fault.CONNECTION_RESET_BY_PEER)));
+
+        ProviderDocumentSnapshot snapshot = new ProviderDocumentSnapshot(
+                new File(r.jenkins.getRootDir(), ProviderDocumentSnapshot.FILE_NAME), Runnable::run, Clock.systemUTC());
+        URL url = new URL(wireMock.url("/keys"));
+        assertEquals(
+                "{\"keys\":[]}",
+                ProxyAwareResourceRetriever.createProxyAwareResourceRetriver(false, snapshot)
+                        .retrieveResource(url)
+                        .getContent());
+
+        // a restarted Jenkins asks whether its copy changed, and uses it while the provider is down
+        ProviderDocumentSnapshot reloaded = new ProviderDocumentSnapshot(
+                new File(r.jenkins.getRootDir(), ProviderDocumentSnapshot.FILE_NAME), Runnable::run, Clock.systemUTC());
+        ProxyAwareResourceRetriever restarted =
+                ProxyAwareResourceRetriever.createProxyAwareResourceRetriver(false, reloaded);
+        assertThrows(IOException.class, () -> restarted.retrieveResourceWithHeaders(url));
+        assertEquals(0, reloaded.getFallbackCount());
+        assertEquals("{\"keys\":[]}", restarted.retrieveResource(url).getContent());
+        assertEquals(1, reloaded.getFallbackCount());
+        wireMock.verify(2, getRequestedFor(urlPathEqualTo("/keys")).withHeader("If-None-Match", equalTo("\"v1\"")));
+    }
+
+    @Test
+    void testRetrieveResource_ReportsErrorStatusDespiteTheSnapshot(JenkinsRule r) throws Exception {
+        r.jenkins.setProxy(null);
+        wireMock.stubFor(get(urlPathEqualTo("/keys"))
+                .inScenario("error")
+                .willReturn(aResponse().withBody("{\"keys\":[]}"))
+                .willSetStateTo("failing"));
+        wireMock.stubFor(get(urlPathEqualTo("/keys"))
+                .inScenario("error")
+                .whenScenarioStateIs("failing")
+                .willReturn(aResponse().withStatus(503)));
+
+        ProviderDocumentSnapshot snapshot = new ProviderDocumentSnapshot(
+                new File(r.jenkins.getRootDir(), ProviderDocumentSnapshot.FILE_NAME), Runnable::run, Clock.systemUTC());
+        ProxyAwareResourceRetriever retriever =
+                ProxyAwareResourceRetriever.createProxyAwareResourceRetriver(false, snapshot);
+        URL url = new URL(wireMock.url("/keys"));
+        assertEquals("{\"keys\":[]}", retriever.retrieveResource(url).getContent());
+
+        // the provider answers, its answer is not hidden behind the copy
+        ProxyAwareResourceRetriever.HttpStatusException e = assertThrows(
+                ProxyAwareResourceRetriever.HttpStatusException.class, () -> retriever.retrieveResource(url));
+        assertEquals(503, e.getStatusCode());
+        assertEquals(0, snapshot.getFallbackCount());
+    }
 }
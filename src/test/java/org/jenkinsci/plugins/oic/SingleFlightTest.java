@@ -0,0 +1,111 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+class SingleFlightTest {
+
+    @Test
+    void concurrentCallsForTheSameKeyAreCoalesced() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+        CountDownLatch release = new CountDownLatch(1);
+        int callers = 8;
+
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < callers; i++) {
+                results.add(executor.submit(() -> singleFlight.execute("key", () -> {
+                    calls.incrementAndGet();
+                    release.await();
+                    return "allowed";
+                })));
+            }
+            // wait for every caller to be either making the call or waiting for it
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (calls.get() + singleFlight.getCoalescedCount() < callers
+                    && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+            for (Future<String> result : results) {
+                assertEquals("allowed", result.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        assertEquals(1, calls.get());
+        assertEquals(callers - 1, singleFlight.getCoalescedCount());
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+
+    @Test
+    void sequentialCallsAreNotCoalesced() throws Exception {
+        SingleFlight<String, Integer> singleFlight = new SingleFlight<>();
+        AtomicInteger calls = new AtomicInteger();
+
+        assertEquals(1, singleFlight.execute("key", calls::incrementAndGet));
+        assertEquals(2, singleFlight.execute("key", calls::incrementAndGet));
+        assertEquals(0, singleFlight.getCoalescedCount());
+    }
+
+    @Test
+    void failureIsReportedAndNotRemembered() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+
+        ExecutionException e = assertThrows(
+                ExecutionException.class, () -> singleFlight.execute("key", () -> {
+                    throw new IOException("boom");
+                }));
+        assertInstanceOf(IOException.class, e.getCause());
+        assertEquals("ok", singleFlight.execute("key", () -> "ok"));
+    }
+
+    @Test
+    void followerGivesUpWaitingAfterTheTimeout() throws Exception {
+        SingleFlight<String, String> singleFlight = new SingleFlight<>();
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> leader = executor.submit(() -> singleFlight.execute(
+                    "key",
+                    () -> {
+                        started.countDown();
+                        release.await();
+                        return "refreshed";
+                    },
+                    10,
+                    TimeUnit.SECONDS));
+            started.await(10, TimeUnit.SECONDS);
+
+            assertThrows(
+                    TimeoutException.class,
+                    () -> singleFlight.execute("key", () -> "not called", 50, TimeUnit.MILLISECONDS));
+
+            release.countDown();
+            assertEquals("refreshed", leader.get(10, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(1, singleFlight.getCoalescedCount());
+        assertEquals(0, singleFlight.getInFlightCount());
+    }
+}
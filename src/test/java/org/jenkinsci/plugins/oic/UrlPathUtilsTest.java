@@ -0,0 +1,103 @@
+package org.jenkinsci.plugins.oic;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The path scanner must agree with the regular expressions it replaced.
+ */
+class UrlPathUtilsTest {
+
+    private static final Pattern FOLDER_PATH_PATTERN = Pattern.compile("^/job/([^/]+)/job/");
+    private static final Pattern BLUEOCEAN_PATH_PATTERN =
+            Pattern.compile("^/blue/rest/organizations/jenkins/pipelines/([^/]+)/pipelines/");
+    private static final Pattern JOB_PATTERN = Pattern.compile("^/job/([^/]+)(?:/job/([^/]+))*");
+    private static final Pattern PIPELINE_PATTERN =
+            Pattern.compile("^/blue/rest/organizations/jenkins/pipelines/([^/]+)(?:/pipelines/([^/]+))*");
+
+    private static final String[] PREFIXES = {
+        "", "/", "/job", "/job/", "/jobs/", "/view/all/job/", "/blue/rest/organizations/jenkins/pipelines/",
+        "/blue/rest/organizations/jenkins/pipeline/", "/blue/rest/organizations/jenkins/"
+    };
+    private static final String[] SEGMENTS = {"", "ws", "my-ws", "job", "pipelines", "a b"};
+    private static final String[] SEPARATORS = {"", "/", "/job/", "/job", "/pipelines/", "/pipelines", "//"};
+    private static final String[] SUFFIXES = {
+        "", "/", "/build", "/buildWithParameters?delay=0", "/builds", "/runs", "/runs/", "/runs/12/log",
+        "/build/", "/api/json", "/job/child/build"
+    };
+
+    private static List<String> paths() {
+        List<String> paths = new ArrayList<>();
+        for (String prefix : PREFIXES) {
+            for (String workspace : SEGMENTS) {
+                for (String separator : SEPARATORS) {
+                    for (String child : SEGMENTS) {
+                        for (String suffix : SUFFIXES) {
+                            paths.add(prefix + workspace + separator + child + suffix);
+                        }
+                    }
+                }
+            }
+        }
+        return paths;
+    }
+
+    private static String regexFolderPath(String path) {
+        Matcher jobMatcher = FOLDER_PATH_PATTERN.matcher(path);
+        if (jobMatcher.find()) {
+            return jobMatcher.group(1);
+        }
+        Matcher blueoceanMatcher = BLUEOCEAN_PATH_PATTERN.matcher(path);
+        if (blueoceanMatcher.find()) {
+            return blueoceanMatcher.group(1);
+        }
+        return null;
+    }
+
+    private static boolean regexRunAction(String path) {
+        return path.matches("/job/[^/]+/job/[^/]+/build.*")
+                || path.matches("/blue/rest/organizations/jenkins/pipelines/[^/]+/pipelines/[^/]+/runs.*");
+    }
+
+    private static boolean regexPathMatch(String path) {
+        return JOB_PATTERN.matcher(path).find() || PIPELINE_PATTERN.matcher(path).find();
+    }
+
+    @Test
+    void scannerIsEquivalentToTheRegularExpressions() {
+        List<String> paths = paths();
+        for (String path : paths) {
+            AuthorizationRoute route = AuthorizationRoute.classify(path, "POST", false);
+            assertEquals(regexPathMatch(path), route.isAuthorizationRequired(), path);
+            assertEquals(regexFolderPath(path), route.getWorkspace(), path);
+            assertEquals(regexRunAction(path), route.isRunAction(), path);
+        }
+    }
+
+    @Test
+    void folderInfoWithoutRouteFallsBackToTheScanner() {
+        for (String path : paths()) {
+            UrlPathUtils.FolderInfo folderInfo = new UrlPathUtils.FolderInfo();
+            folderInfo.setRequestUri(path);
+            folderInfo.setHttpMethod("post");
+            assertEquals(
+                    regexRunAction(path) ? UrlPathUtils.PERMISSION_RUN : UrlPathUtils.PERMISSION_CREATE,
+                    folderInfo.getPermission(),
+                    path);
+        }
+    }
+
+    @Test
+    void permissionFollowsTheMethod() {
+        assertEquals(UrlPathUtils.PERMISSION_GET, UrlPathUtils.permissionOf("GET", false));
+        assertEquals(UrlPathUtils.PERMISSION_UPDATE, UrlPathUtils.permissionOf("put", false));
+        assertEquals(UrlPathUtils.PERMISSION_DELETE, UrlPathUtils.permissionOf("DELETE", false));
+        assertEquals(UrlPathUtils.PERMISSION_RUN, UrlPathUtils.permissionOf("POST", true));
+        assertEquals("amamba.pipeline.patch", UrlPathUtils.permissionOf("PATCH", false));
+    }
+}
@@ -0,0 +1,108 @@
+package org.jenkinsci.plugins.oic.monitor;
+
+import static com.github.tomakehurst.wiremock.core.WireMockConfiguration.wireMockConfig;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.containsString;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import com.github.tomakehurst.wiremock.junit5.WireMockExtension;
+import org.htmlunit.html.HtmlPage;
+import org.jenkinsci.plugins.oic.AuthorizationDecisionCache;
+import org.jenkinsci.plugins.oic.OicWarmUp;
+import org.jenkinsci.plugins.oic.ProviderDocumentSnapshot;
+import org.jenkinsci.plugins.oic.TestRealm;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.RegisterExtension;
+import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.junit.jupiter.WithJenkins;
+
+@WithJenkins
+class OicStatusLinkTest {
+
+    @RegisterExtension
+    static WireMockExtension wireMock = WireMockExtension.newInstance()
+            .failOnUnmatchedRequests(true)
+            .options(wireMockConfig().dynamicPort())
+            .build();
+
+    @Test
+    void hiddenWithoutAnOpenIdConnectRealm(JenkinsRule r) {
+        assertNull(OicStatusLink.get().getIconFileName());
+        assertNull(OicStatusLink.get().getWarmUp());
+    }
+
+    @Test
+    void warmUpIsShownWhenItIsNotDone(JenkinsRule r) throws Exception {
+        r.jenkins.setSecurityRealm(new TestRealm(wireMock));
+
+        OicStatusLink link = OicStatusLink.get();
+        assertNotNull(link.getIconFileName());
+        assertEquals(OicWarmUp.State.PENDING, link.getWarmUp().getState());
+        assertNull(link.getWarmUpDuration());
+
+        try (JenkinsRule.WebClient wc = r.createWebClient()) {
+            HtmlPage page = wc.goTo("manage/" + OicStatusLink.URL_NAME);
+            assertEquals("PENDING", page.getElementById("oic-warm-up-state").getTextContent());
+            assertThat(page.getElementById("oic-warm-up-duration").getTextContent(), containsString("-"));
+        }
+    }
+
+    @Test
+    void snapshotIsShown(JenkinsRule r) throws Exception {
+        r.jenkins.setSecurityRealm(new TestRealm(wireMock));
+        ProviderDocumentSnapshot snapshot = OicStatusLink.get().getSnapshot();
+        assertNotNull(snapshot);
+
+        try (JenkinsRule.WebClient wc = r.createWebClient()) {
+            HtmlPage page = wc.goTo("manage/" + OicStatusLink.URL_NAME);
+            assertEquals(
+                    String.valueOf(snapshot.getDocumentCount()),
+                    page.getElementById("oic-snapshot-documents").getTextContent());
+            assertEquals(
+                    String.valueOf(snapshot.getFallbackCount()),
+                    page.getElementById("oic-snapshot-fallbacks").getTextContent());
+            String age = page.getElementById("oic-snapshot-age").getTextContent();
+            if (snapshot.getDocumentCount() == 0) {
+                assertEquals("-", age);
+            } else {
+                assertNotEquals("-", age);
+            }
+        }
+    }
+
+    @Test
+    void countersAreShown(JenkinsRule r) throws Exception {
+        r.jenkins.setSecurityRealm(new TestRealm(wireMock));
+        OicStatusLink link = OicStatusLink.get();
+
+        try (JenkinsRule.WebClient wc = r.createWebClient()) {
+            HtmlPage page = wc.goTo("manage/" + OicStatusLink.URL_NAME);
+            assertNotNull(page.getElementById("oic-bypassed-paths"));
+            assertEquals(
+                    String.valueOf(link.getUserWriter().getSkippedCount()),
+                    page.getElementById("oic-user-writes-skipped").getTextContent());
+            assertNotNull(page.getElementById("oic-full-handshakes"));
+            assertNull(page.getElementById("oic-cache-hits"), "the external authorization service is not in use");
+        }
+    }
+
+    @Test
+    void authorizationDecisionCacheIsShownWithTheExternalAuthorizationService(JenkinsRule r) throws Exception {
+        TestRealm.Builder builder = new TestRealm.Builder(wireMock).WithMinimalDefaults();
+        builder.enableExternalAuth = true;
+        r.jenkins.setSecurityRealm(builder.build());
+        AuthorizationDecisionCache cache = OicStatusLink.get().getAuthorizationDecisionCache();
+        assertNotNull(cache);
+
+        try (JenkinsRule.WebClient wc = r.createWebClient()) {
+            HtmlPage page = wc.goTo("manage/" + OicStatusLink.URL_NAME);
+            assertEquals(String.valueOf(cache.size()), page.getElementById("oic-cache-size").getTextContent());
+            assertEquals(
+                    String.valueOf(cache.getHitCount()),
+                    page.getElementById("oic-cache-hits").getTextContent());
+        }
+    }
+}
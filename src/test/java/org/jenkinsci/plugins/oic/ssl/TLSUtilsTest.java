@@ -0,0 +1,41 @@
+package org.jenkinsci.plugins.oic.ssl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSession;
+import javax.net.ssl.SSLSocketFactory;
+import org.junit.jupiter.api.Test;
+
+class TLSUtilsTest {
+
+    @Test
+    void socketFactoryIsSharedPerTrustMode() throws Exception {
+        SSLSocketFactory anythingGoes = TLSUtils.getSSLSocketFactory(true);
+        SSLSocketFactory defaults = TLSUtils.getSSLSocketFactory(false);
+        assertSame(anythingGoes, TLSUtils.getSSLSocketFactory(true));
+        assertSame(defaults, TLSUtils.getSSLSocketFactory(false));
+        assertNotSame(anythingGoes, defaults);
+        assertSame(
+                HttpsURLConnection.getDefaultSSLSocketFactory(),
+                ((HandshakeCountingSSLSocketFactory) defaults).getDelegate());
+    }
+
+    @Test
+    void handshakesOfSessionsOlderThanTheSocketAreResumed() {
+        long full = TLSUtils.getFullHandshakeCount();
+        long resumed = TLSUtils.getResumedHandshakeCount();
+        SSLSession session = mock(SSLSession.class);
+        when(session.getCreationTime()).thenReturn(1_000L);
+
+        HandshakeCountingSSLSocketFactory.handshakeCompleted(session, 1_000L);
+        assertEquals(full + 1, TLSUtils.getFullHandshakeCount());
+        HandshakeCountingSSLSocketFactory.handshakeCompleted(session, 2_000L);
+        assertEquals(resumed + 1, TLSUtils.getResumedHandshakeCount());
+        assertEquals(full + 1, TLSUtils.getFullHandshakeCount());
+    }
+}